@@ -20,12 +20,36 @@ package ch.ge.cti_composant.gitsync;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.text.StringEscapeUtils;
+import org.gitlab4j.api.models.Group;
+import org.gitlab4j.api.models.Member;
+import org.gitlab4j.api.models.Membership;
+import org.gitlab4j.api.models.MembershipSourceType;
+import org.gitlab4j.api.models.User;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -33,14 +57,34 @@ import ch.ge.cti_composant.gitsync.missions.AddAuthorizedUsersToGroups;
 import ch.ge.cti_composant.gitsync.missions.BlockOrUnblockUsers;
 import ch.ge.cti_composant.gitsync.missions.CheckMinimumUserCount;
 import ch.ge.cti_composant.gitsync.missions.CleanGroupsFromUnauthorizedUsers;
+import ch.ge.cti_composant.gitsync.missions.GroupMission;
+import ch.ge.cti_composant.gitsync.missions.Mission;
 import ch.ge.cti_composant.gitsync.missions.PromoteAdminUsers;
 import ch.ge.cti_composant.gitsync.missions.PropagateOwnerUsersToAllGroups;
 import ch.ge.cti_composant.gitsync.missions.PromoteUsersAsDeveloperToAllGroups;
+import ch.ge.cti_composant.gitsync.missions.SinglePassGroupMissions;
+import ch.ge.cti_composant.gitsync.service.ChangePlan;
+import ch.ge.cti_composant.gitsync.service.ChangePlanner;
 import ch.ge.cti_composant.gitsync.service.GitlabService;
+import ch.ge.cti_composant.gitsync.service.GroupFingerprints;
+import ch.ge.cti_composant.gitsync.service.IncrementalSync;
+import ch.ge.cti_composant.gitsync.service.Shard;
+import ch.ge.cti_composant.gitsync.service.ShardLease;
+import ch.ge.cti_composant.gitsync.util.LogContext;
+import ch.ge.cti_composant.gitsync.util.MissionUtils;
+import ch.ge.cti_composant.gitsync.util.exception.GitSyncException;
 import ch.ge.cti_composant.gitsync.util.gitlab.Gitlab;
+import ch.ge.cti_composant.gitsync.util.gitlab.GitlabAPIWrapper;
+import ch.ge.cti_composant.gitsync.util.gitlab.GitlabState;
+import ch.ge.cti_composant.gitsync.util.jfr.RunRecording;
+import ch.ge.cti_composant.gitsync.util.ldap.LdapGroup;
 import ch.ge.cti_composant.gitsync.util.ldap.LdapTree;
 import ch.ge.cti_composant.gitsync.util.ldap.LdapTreeBuilder;
 import ch.ge.cti_composant.gitsync.util.ldap.gina.GinaLdapTreeBuilder;
+import ch.ge.cti_composant.gitsync.util.ldap.jndi.JndiLdapTreeBuilder;
+import ch.ge.cti_composant.gitsync.util.metrics.GitlabCallSummary;
+import ch.ge.cti_composant.gitsync.util.metrics.Metrics;
+import ch.ge.cti_composant.gitsync.util.trace.Trace;
 
 /**
  * Top-level class of the application: extracts the groups and users from the LDAP server and assigns them as groups
@@ -56,34 +100,373 @@ public class GitSync {
 
 	private Gitlab gitlab;
 
+	/**
+	 * The connection to GitLab, kept from one run to the next.
+	 */
+	private GitlabAPIWrapper gitlabApi;
+
+	/**
+	 * Null if the incremental synchronization is disabled.
+	 */
+	private IncrementalSync incrementalSync;
+
+	/**
+	 * Null if the group fingerprints are disabled.
+	 */
+	private GroupFingerprints groupFingerprints;
+
+	/**
+	 * The groups processed by this instance, or null if the sharding is disabled.
+	 */
+	private Shard shard;
+
+	/**
+	 * Null if the sharding is disabled or if the shards are not leased.
+	 */
+	private ShardLease shardLease;
+
 	GitSync() {
 		this.ldapTree = null;
 		this.gitlab = null;
 	}
 
+	/**
+	 * Constructor, for the tests: the targeted runs use the specified connection to GitLab and LDAP tree.
+	 */
+	GitSync(GitlabAPIWrapper gitlabApi, LdapTree ldapTree) {
+		this.gitlabApi = gitlabApi;
+		this.ldapTree = ldapTree;
+		this.gitlab = null;
+	}
+
 	/**
 	 * Performs all operations.
 	 */
 	public void run(String path) {
-		LOGGER.info("Running GitSync");
+		run(path, false);
+	}
+
+	/**
+	 * Performs all operations.
+	 *
+	 * @param fullSync true to process all groups, even if the incremental synchronization is enabled
+	 */
+	public void run(String path, boolean fullSync) {
+		if (loadConfiguration(path)) {
+			synchronize(fullSync);
+		}
+	}
+
+	/**
+	 * Loads the configuration file.
+	 *
+	 * @return false if the file could not be loaded
+	 */
+	public boolean loadConfiguration(String path) {
 		try {
 			loadProperties(path);
+			return true;
+		} catch (IOException e) {
+			LOGGER.error("Could not read the configuration file [{}]", path, e);
+			return false;
+		}
+	}
 
-			LOGGER.info("PHASE 1: Set up the in-memory LDAP tree");
-			setupLdap();
+	/**
+	 * Performs all operations, with the configuration already loaded.
+	 * This method can be called several times: the connection to GitLab is then reused, as well as what GitLab
+	 * has taught the rate limiter and the circuit breaker. The LDAP and GitLab data are retrieved afresh.
+	 *
+	 * @param fullSync true to process all groups, even if the incremental synchronization is enabled
+	 */
+	public synchronized void synchronize(boolean fullSync) {
+		LOGGER.info("Running GitSync");
+		ldapTree = null;
+		gitlab = null;
+		incrementalSync = null;
+		groupFingerprints = null;
+		shard = null;
+		Metrics.startRun();
+		startTrace();
+		RunRecording recording = startRecording();
+		Duration throttledBefore = Duration.ZERO;
+		long runStart = System.nanoTime();
+		boolean success = false;
+		try {
+			setupShard();
+			throttledBefore = getGitlabApi().getRateLimiter().getThrottledTime();
+
+			LOGGER.info("PHASE 1: Set up the in-memory LDAP tree, while retrieving the GitLab users and groups");
+			long phaseStart = System.nanoTime();
+			GitlabService gitlabService = new GitlabService(getGitlabApi());
+			setupLdapAndPrefetchGitLab(gitlabService);
+			recordPhase("ldap", phaseStart);
+			renewShard();
 
 			LOGGER.info("PHASE 2: Set up the in-memory GitLab tree");
-			setupGitLab();
+			phaseStart = System.nanoTime();
+			setupGitLab(gitlabService, fullSync);
+			recordPhase("gitlab", phaseStart);
+			renewShard();
 
 			LOGGER.info("PHASE 3: Apply the business rules");
+			phaseStart = System.nanoTime();
 			applyRules();
+			recordPhase("rules", phaseStart);
+
+			saveSnapshot();
+			success = true;
 
 		} catch (Exception e) {
 			LOGGER.error("Exception caught while processing the LDAP/GitLab trees", e);
+		} finally {
+			// also after an error, so that the shard is released and the recording and the trace are written
+			releaseShard();
+			Metrics.recordRun(success, runStart);
+			Trace.record("run", Trace.RUN, runStart, "success", String.valueOf(success));
+			if (gitlabApi != null) {
+				LOGGER.info("Time spent waiting for the GitLab rate limiter: {} ms",
+						gitlabApi.getRateLimiter().getThrottledTime().minus(throttledBefore).toMillis());
+			}
+			logGitlabCallSummary();
+			recording.close();
+			stopTrace();
 		}
 		LOGGER.info("Running GitSync - completed");
 	}
 
+	/**
+	 * Applies the group rules to the specified GitLab group only, with the LDAP tree loaded by the last run.
+	 * See {@link #reconcileGroup(String, String, LdapTree)}.
+	 *
+	 * @param memberName name of the member of the group whose membership has changed, or null
+	 */
+	public synchronized void reconcileGroup(String groupName, String memberName) {
+		if (ldapTree == null) {
+			LOGGER.warn("Group [{}] not reconciled, because no LDAP tree has been loaded", groupName);
+			return;
+		}
+		reconcileGroup(groupName, memberName, ldapTree);
+	}
+
+	/**
+	 * Applies the business rules to the specified GitLab group only, with the configuration already loaded.
+	 * Only this group, the administrator group and the owner group are retrieved from the LDAP server.
+	 * See {@link #reconcileGroup(String, String, LdapTree)}.
+	 */
+	public synchronized void synchronizeGroup(String groupName) {
+		LOGGER.info("Running GitSync on group [{}]", groupName);
+		runTargeted(() -> {
+			Set<String> groupNames = new TreeSet<>();
+			groupNames.add(groupName);
+			Stream.of(MissionUtils.getAdministratorGroup(), MissionUtils.getOwnerGroup())
+					.filter(StringUtils::isNotBlank)
+					.forEach(groupNames::add);
+			reconcileGroup(groupName, null, getLdapTreeBuilder().createTree(groupNames));
+		});
+		LOGGER.info("Running GitSync on group [{}] - completed", groupName);
+	}
+
+	/**
+	 * Applies the business rules to the specified GitLab user only, with the configuration already loaded.
+	 * Only the groups of this user are retained from the LDAP tree.
+	 */
+	public synchronized void synchronizeUser(String username) {
+		LOGGER.info("Running GitSync on user [{}]", username);
+		runTargeted(() -> reconcileUser(username, getLdapTreeBuilder().createTreeOfUser(username)));
+		LOGGER.info("Running GitSync on user [{}] - completed", username);
+	}
+
+	private void runTargeted(Runnable reconciliation) {
+		Metrics.startRun();
+		startTrace();
+		RunRecording recording = startRecording();
+		Duration throttledBefore = Duration.ZERO;
+		long runStart = System.nanoTime();
+		boolean success = false;
+		try {
+			throttledBefore = getGitlabApi().getRateLimiter().getThrottledTime();
+			reconciliation.run();
+			success = true;
+		} catch (Exception e) {
+			LOGGER.error("Exception caught while processing the LDAP/GitLab trees", e);
+		} finally {
+			Trace.record("run", Trace.RUN, runStart, "success", String.valueOf(success));
+			if (gitlabApi != null) {
+				LOGGER.info("Time spent waiting for the GitLab rate limiter: {} ms",
+						gitlabApi.getRateLimiter().getThrottledTime().minus(throttledBefore).toMillis());
+			}
+			logGitlabCallSummary();
+			recording.close();
+			stopTrace();
+		}
+	}
+
+	private static void recordPhase(String phase, long startNanos) {
+		Metrics.recordPhase(phase, startNanos);
+		Trace.record(phase, Trace.PHASE, startNanos);
+	}
+
+	/**
+	 * Starts the trace of the run, if a file is supplied by parameter "trace-file".
+	 */
+	private static void startTrace() {
+		if (StringUtils.isNotBlank(getProperty("trace-file"))) {
+			Trace.start();
+		}
+	}
+
+	/**
+	 * Writes the trace of the run, if any. A trace that cannot be written does not make the run fail.
+	 */
+	private static void stopTrace() {
+		if (!Trace.isRecording()) {
+			return;
+		}
+		try {
+			Trace.stop(Path.of(getProperty("trace-file").trim()));
+		} catch (RuntimeException e) {
+			LOGGER.error("Unable to write the trace of the run", e);
+		}
+	}
+
+	/**
+	 * Starts the Flight Recorder recording of the run, if a file is supplied by parameter "jfr-recording-file".
+	 */
+	private static RunRecording startRecording() {
+		return RunRecording.start(getProperty("jfr-recording-file"), getProperty("jfr-settings"));
+	}
+
+	/**
+	 * Applies the group rules (BR2, BR3, BR5) to the specified GitLab group only.
+	 * Instead of all GitLab groups and users, only this group, its members and the users concerned are retrieved
+	 * from GitLab: the users of the LDAP group, the owners and the specified member. Hence the other LDAP users are
+	 * not added as developers (BR3), and a missing group is not created (BR1): the next complete run does it.
+	 *
+	 * @param memberName name of the member of the group whose membership has changed, or null
+	 */
+	private void reconcileGroup(String groupName, String memberName, LdapTree ldapTree) {
+		LOGGER.info("Reconciling group [{}]", groupName);
+		if (!ldapTree.getGroups().contains(new LdapGroup(groupName))) {
+			LOGGER.info("    Group [{}] does not come from the LDAP server: ignored", groupName);
+			return;
+		}
+		GitlabAPIWrapper api = getGitlabApi();
+		Group group = api.getGroup(groupName);
+		if (group == null) {
+			LOGGER.info("    Group [{}] does not exist in GitLab: ignored until the next run", groupName);
+			return;
+		}
+
+		// the state is restricted to the users concerned: the missions then ignore the other users
+		Set<String> usernames = new TreeSet<>(ldapTree.getUsers(groupName).keySet());
+		String ownerGroup = MissionUtils.getOwnerGroup();
+		if (StringUtils.isNotBlank(ownerGroup) && ldapTree.getGroups().contains(new LdapGroup(ownerGroup))) {
+			usernames.addAll(ldapTree.getUsers(ownerGroup).keySet());
+		}
+		if (StringUtils.isNotBlank(memberName)) {
+			usernames.add(memberName);
+		}
+		GitlabState state = new GitlabState(api);
+		state.setUsers(usernames.stream()
+				.map(api::getUser)
+				.filter(Objects::nonNull)
+				.toList());
+
+		Gitlab context = new Gitlab(Set.of(group), api, state);
+		try {
+			getGroupMissions().forEach(mission -> startMission(mission, ldapTree, context));
+		} finally {
+			awaitMutations(state);
+		}
+		LOGGER.info("Reconciling group [{}] - completed", groupName);
+	}
+
+	/**
+	 * Applies the business rules to the specified GitLab user only, with the LDAP tree loaded by the last run.
+	 * Instead of the members of every group, only the memberships of the user are retrieved from GitLab.
+	 * See {@link #reconcileUser(String, LdapTree)}.
+	 */
+	public synchronized void reconcileUser(String username) {
+		if (ldapTree == null) {
+			LOGGER.warn("User [{}] not reconciled, because no LDAP tree has been loaded", username);
+			return;
+		}
+		reconcileUser(username, ldapTree);
+	}
+
+	/**
+	 * Applies the business rules to the specified GitLab user only.
+	 * Instead of all GitLab groups and users, only the user, its memberships and the groups concerned are retrieved
+	 * from GitLab. The groups are looked up by path: a group missing from GitLab is not created (BR1), the next
+	 * complete run does it.
+	 */
+	private void reconcileUser(String username, LdapTree ldapTree) {
+		LOGGER.info("Reconciling user [{}]", username);
+		GitlabAPIWrapper api = getGitlabApi();
+		User user = api.getUser(username);
+		if (user == null) {
+			LOGGER.info("    User [{}] does not exist in GitLab: ignored", username);
+			return;
+		}
+
+		// the state is restricted to the user: the missions then ignore the other users
+		List<Membership> groupMemberships = api.getUserMemberships(user.getId()).stream()
+				.filter(membership -> membership.getSourceType() == MembershipSourceType.NAMESPACE)
+				.toList();
+		Gitlab context = new Gitlab(getGroupsOfUser(user, groupMemberships, ldapTree, api), api, new GitlabState(api));
+		GitlabState state = context.getState();
+		state.setUsers(List.of(user));
+		Map<Long, Membership> memberships = groupMemberships.stream()
+				.collect(Collectors.toMap(Membership::getSourceId, membership -> membership, (m1, m2) -> m1));
+		for (Group group : context.getGroups()) {
+			Membership membership = memberships.get(group.getId());
+			state.setGroupMembers(group, membership == null
+					? List.of()
+					: List.of(new Member()
+							.withId(user.getId())
+							.withUsername(user.getUsername())
+							.withAccessLevel(membership.getAccessLevel())));
+		}
+
+		try {
+			getRuleMissions().forEach(mission -> startMission(mission, ldapTree, context));
+		} finally {
+			awaitMutations(state);
+		}
+		LOGGER.info("Reconciling user [{}] - completed", username);
+	}
+
+	/**
+	 * Returns the existing GitLab groups coming from the LDAP server that the rules may modify for the specified user:
+	 * all of them if the user belongs to an LDAP group (BR3, BR5), otherwise only the groups the user is member of
+	 * (BR2). No group is listed nor created: each one is looked up by path.
+	 */
+	private static Set<Group> getGroupsOfUser(User user, List<Membership> groupMemberships, LdapTree ldapTree,
+											  GitlabAPIWrapper api) {
+		boolean isLdapUser = !ldapTree.getGroupsOfUser(user.getUsername()).isEmpty();
+		Set<String> memberOf = groupMemberships.stream()
+				.map(Membership::getSourceName)
+				.filter(Objects::nonNull)
+				.collect(Collectors.toCollection(() -> new TreeSet<>(String.CASE_INSENSITIVE_ORDER)));
+		return ldapTree.getGroups().stream()
+				.map(LdapGroup::getName)
+				.filter(groupName -> isLdapUser || memberOf.contains(groupName))
+				.map(api::getGroup)
+				.filter(Objects::nonNull)
+				.collect(Collectors.toSet());
+	}
+
+	/**
+	 * Returns the connection to GitLab, kept from one run to the next.
+	 */
+	private GitlabAPIWrapper getGitlabApi() {
+		if (gitlabApi == null) {
+			gitlabApi = GitlabService.logOn(props.getProperty("gitlab.hostname"), props.getProperty("gitlab.account.token"));
+		}
+		return gitlabApi;
+	}
+
 	/**
 	 * Loads the properties file.
 	 */
@@ -110,20 +493,125 @@ public class GitSync {
 	 * Sets up the in-memory tree of LDAP groups and LDAP users.
 	 */
 	private void setupLdap() {
-		// If you need to load the data from another LDAP server than Etat de Geneve's LDAP server, you must
-		// replace the treeBuilder below with a custom one. See file README.md.
-		LdapTreeBuilder treeBuilder = new GinaLdapTreeBuilder();
-		ldapTree = treeBuilder.createTree();
+		ldapTree = getLdapTreeBuilder().createTree();
+		long userCount = ldapTree.getGroups().stream()
+				.flatMap(group -> ldapTree.getUsers(group).keySet().stream())
+				.distinct()
+				.count();
+		Metrics.recordLdapTree((int) userCount, ldapTree.getGroups().size());
+	}
+
+	private static LdapTreeBuilder getLdapTreeBuilder() {
+		// If you need to load the data from an LDAP server that neither Gina nor JNDI can handle, you must
+		// add a custom treeBuilder below. See file README.md.
+		String builderName = StringUtils.defaultIfBlank(getProperty("ldap-tree-builder"), "gina").trim();
+		return switch (builderName.toLowerCase(Locale.ROOT)) {
+			case "gina" -> new GinaLdapTreeBuilder();
+			case "jndi" -> new JndiLdapTreeBuilder();
+			default -> throw new GitSyncException("Unknown value [" + builderName + "] of parameter ldap-tree-builder");
+		};
+	}
+
+	/**
+	 * Sets up the in-memory LDAP tree, and concurrently retrieves the GitLab data that do not depend on it.
+	 */
+	private void setupLdapAndPrefetchGitLab(GitlabService gitlabService) {
+		try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+			Future<?> prefetch = executor.submit(LogContext.wrap(gitlabService::prefetch));
+			setupLdap();
+			prefetch.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new GitSyncException("Interrupted while retrieving the GitLab users and groups", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException runtimeException) {
+				throw runtimeException;
+			}
+			throw new GitSyncException("Could not retrieve the GitLab users and groups", e);
+		}
+	}
+
+	/**
+	 * Determines the shard processed by this run, if the sharding is enabled. The shard is either supplied by the
+	 * configuration, or leased from the lease file shared by the instances.
+	 */
+	private void setupShard() {
+		int shardCount = getPropertyAsInt("shard-count", 1);
+		if (shardCount <= 1) {
+			return;
+		}
+		String leaseFile = getProperty("shard-lease-file");
+		if (StringUtils.isBlank(leaseFile)) {
+			shard = new Shard(getPropertyAsInt("shard-index", 0), shardCount);
+		} else {
+			if (shardLease == null) {
+				shardLease = new ShardLease(Paths.get(leaseFile), shardCount,
+						Duration.ofMinutes(getPropertyAsInt("shard-lease-minutes", 120)));
+			}
+			int index = shardLease.acquire()
+					.orElseThrow(() -> new GitSyncException("No free shard in lease file [" + leaseFile + "]"));
+			shard = new Shard(index, shardCount);
+		}
+		LOGGER.info("Processing shard {} of {}{}", shard.index(), shardCount,
+				shard.isDesignated() ? ", including the users of the whole GitLab instance" : "");
+	}
+
+	/**
+	 * Extends the lease of the shard, if it is leased, so that a long run keeps it.
+	 */
+	private void renewShard() {
+		if (shardLease != null) {
+			shardLease.renew();
+		}
+	}
+
+	private void releaseShard() {
+		if (shardLease != null) {
+			try {
+				shardLease.release();
+			} catch (GitSyncException e) {
+				LOGGER.error("Exception caught while releasing the shard", e);
+			}
+		}
+	}
+
+	/**
+	 * Returns the specified file, or the file of the shard if the sharding is enabled.
+	 */
+	private Path getShardFile(String property, String defaultFile) {
+		Path file = Paths.get(StringUtils.defaultIfBlank(getProperty(property), defaultFile));
+		return shard == null ? file : shard.getFile(file);
 	}
 
 	/**
 	 * Sets up the in-memory tree of GitLab groups and GitLab users.
 	 */
-	private void setupGitLab() {
-		gitlab = new GitlabService().buildGitlabContext(
-				props.getProperty("gitlab.hostname"),
-				props.getProperty("gitlab.account.token"),
-				ldapTree);
+	private void setupGitLab(GitlabService gitlabService, boolean fullSync) {
+		if (shard == null) {
+			gitlab = gitlabService.buildGitlabContext(ldapTree);
+		} else {
+			// only the shard that owns a missing group creates it
+			gitlab = shard.selectGroups(gitlabService.buildGitlabContext(ldapTree, shard::owns));
+			LOGGER.info("Number of groups of shard {}: {}", shard.index(), gitlab.getGroups().size());
+		}
+
+		if (isIncrementalSync()) {
+			incrementalSync = new IncrementalSync(
+					getShardFile("snapshot-file", "gitsync-snapshot.json"),
+					Duration.ofHours(getPropertyAsInt("full-sync-interval-hours", 24)),
+					getConfigurationHash());
+			gitlab = incrementalSync.selectGroups(ldapTree, gitlab, fullSync);
+		}
+
+		// retrieve the members of all groups up front, instead of one group at a time while the missions run
+		gitlab.getState().prefetchGroupMembers(gitlab.getGroups(), getPropertyAsInt("gitlab-fetch-concurrency", 8));
+
+		if (isGroupFingerprints()) {
+			groupFingerprints = new GroupFingerprints(
+					getShardFile("fingerprint-file", "gitsync-fingerprints.json"),
+					getConfigurationHash());
+			gitlab = groupFingerprints.skipVerifiedGroups(ldapTree, gitlab, fullSync);
+		}
 	}
 
 	/**
@@ -131,25 +619,126 @@ public class GitSync {
 	 */
 	private void applyRules() {
 		// precaution: do not take the risk to clear up GitLab with an empty set of groups and users
-		new CheckMinimumUserCount().start(ldapTree, gitlab);
+		startMission(new CheckMinimumUserCount(), ldapTree, gitlab);
+
+		// with several shards, the users of the whole GitLab instance are handled by only one of them
+		List<Mission> missions = shard == null || shard.isDesignated() ? getRuleMissions() : getGroupMissions();
+
+		try {
+			if (isPlanChanges()) {
+				// compute all modifications first, then perform each of them once
+				ChangePlan plan = new ChangePlanner().plan(missions, ldapTree, gitlab);
+				plan.log();
+				String planFile = getProperty("plan-file");
+				if (!StringUtils.isBlank(planFile)) {
+					plan.write(Paths.get(planFile));
+				}
+				Metrics.runMission("ChangePlan", () -> plan.apply(gitlab.getState()));
+			} else {
+				missions.forEach(mission -> {
+					renewShard();
+					startMission(mission, ldapTree, gitlab);
+				});
+			}
+		} finally {
+			// wait for the modifications still in progress on GitLab
+			awaitMutations(gitlab.getState());
+		}
+	}
 
-		// block or unblock users
-		new BlockOrUnblockUsers().start(ldapTree, gitlab);
+	/**
+	 * Waits for the modifications still in progress on GitLab, then releases the threads that perform them.
+	 */
+	private static void awaitMutations(GitlabState state) {
+		try {
+			state.awaitMutations();
+		} finally {
+			state.close();
+		}
+	}
 
-		// remove the non-authorized users
-		new CleanGroupsFromUnauthorizedUsers().start(ldapTree, gitlab);
+	/**
+	 * Saves the snapshot for the next incremental synchronization and the group fingerprints. Nothing is saved
+	 * in dry-run mode, because GitLab has not been modified.
+	 */
+	private void saveSnapshot() {
+		if (isDryRun()) {
+			return;
+		}
+		if (incrementalSync != null) {
+			incrementalSync.saveSnapshot(ldapTree, gitlab.getState());
+		}
+		if (groupFingerprints != null) {
+			groupFingerprints.save(ldapTree, gitlab.getState());
+		}
+	}
 
-		// add the authorized users (new permissions)
-		new AddAuthorizedUsersToGroups().start(ldapTree, gitlab);
+	/**
+	 * Logs the statistics of the calls to GitLab performed by the run.
+	 */
+	private static void logGitlabCallSummary() {
+		List<String> summary = GitlabCallSummary.format(Metrics.getRunRegistry());
+		if (!summary.isEmpty()) {
+			LOGGER.info("Calls to GitLab:");
+			summary.forEach(line -> LOGGER.info("    {}", line));
+		}
+	}
 
-		// add developer level to all users to all groups
-		new PromoteUsersAsDeveloperToAllGroups().start(ldapTree, gitlab);
+	/**
+	 * Performs the specified mission, recording its metrics.
+	 */
+	private static void startMission(Mission mission, LdapTree ldapTree, Gitlab gitlab) {
+		Metrics.runMission(mission.getClass().getSimpleName(), () -> mission.start(ldapTree, gitlab));
+	}
 
-		// add the Admins
-		new PromoteAdminUsers().start(ldapTree, gitlab);
+	/**
+	 * Returns the missions that implement the business rules, in the order they must be performed.
+	 */
+	private static List<Mission> getRuleMissions() {
+		if (isSinglePassReconciliation()) {
+			return List.of(
+					// block or unblock users
+					new BlockOrUnblockUsers(),
+					// add the Admins. This is done before the group rules, because the propagation of the Owners
+					// skips the Admins
+					new PromoteAdminUsers(),
+					// remove the non-authorized users, add the authorized users, add developer level to all users and
+					// add the Owners, visiting every group only once
+					new SinglePassGroupMissions(List.of(
+							new CleanGroupsFromUnauthorizedUsers(),
+							new AddAuthorizedUsersToGroups(),
+							new PromoteUsersAsDeveloperToAllGroups(),
+							new PropagateOwnerUsersToAllGroups())));
+		}
 
-		// add the Owners to all groups
-		new PropagateOwnerUsersToAllGroups().start(ldapTree, gitlab);
+		return List.of(
+				// block or unblock users
+				new BlockOrUnblockUsers(),
+				// remove the non-authorized users
+				new CleanGroupsFromUnauthorizedUsers(),
+				// add the authorized users (new permissions)
+				new AddAuthorizedUsersToGroups(),
+				// add developer level to all users to all groups
+				new PromoteUsersAsDeveloperToAllGroups(),
+				// add the Admins
+				new PromoteAdminUsers(),
+				// add the Owners to all groups
+				new PropagateOwnerUsersToAllGroups());
+	}
+
+	/**
+	 * Returns the missions that implement the business rules on the groups (BR2, BR3, BR5), in the order they must
+	 * be performed.
+	 */
+	private static List<Mission> getGroupMissions() {
+		List<GroupMission> groupMissions = List.of(
+				new CleanGroupsFromUnauthorizedUsers(),
+				new AddAuthorizedUsersToGroups(),
+				new PromoteUsersAsDeveloperToAllGroups(),
+				new PropagateOwnerUsersToAllGroups());
+		return isSinglePassReconciliation()
+				? List.of(new SinglePassGroupMissions(groupMissions))
+				: List.copyOf(groupMissions);
 	}
 
 	/**
@@ -189,13 +778,60 @@ public class GitSync {
 	}
 
 	/**
-	 * Returns the specified property, or default value if not found.
+	 * Check if the group rules must be applied in a single pass over the groups.
+	 */
+	private static boolean isSinglePassReconciliation() {
+		return "true".equals(GitSync.getProperty("single-pass-reconciliation"));
+	}
+
+	/**
+	 * Check if only the groups that have changed since the last run must be processed.
+	 */
+	private static boolean isIncrementalSync() {
+		return "true".equals(GitSync.getProperty("incremental-sync"));
+	}
+
+	/**
+	 * Check if the groups whose fingerprint has not changed since the last run must be skipped.
+	 */
+	private static boolean isGroupFingerprints() {
+		return "true".equals(GitSync.getProperty("group-fingerprints"));
+	}
+
+	/**
+	 * Returns a hash of the configuration file, to detect its modifications between two runs.
+	 */
+	private static String getConfigurationHash() {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			new TreeMap<>(props).forEach((key, value) ->
+					digest.update((key + "=" + value + "\n").getBytes(StandardCharsets.UTF_8)));
+			return HexFormat.of().formatHex(digest.digest());
+		} catch (NoSuchAlgorithmException e) {
+			throw new GitSyncException(e);
+		}
+	}
+
+	/**
+	 * Check if the modifications must be computed as a whole before being performed.
+	 */
+	private static boolean isPlanChanges() {
+		return "true".equals(GitSync.getProperty("plan-changes"));
+	}
+
+	/**
+	 * Returns the specified property, or default value if not found or not a non-negative int, such as a value
+	 * too big for an int.
 	 */
 	public static int getPropertyAsInt(String name, int defaultValue) {
 		int result = defaultValue;
 		String p = props.getProperty(name);
-		if (!StringUtils.isBlank(p) && p.matches("\\d")) {
-			result = Integer.parseInt(p);
+		if (!StringUtils.isBlank(p) && p.matches("\\d+")) {
+			try {
+				result = Integer.parseInt(p);
+			} catch (NumberFormatException e) {
+				LOGGER.warn("Value [{}] of parameter {} is too big, using default value {}", p, name, defaultValue);
+			}
 		}
 		return result;
 	}
@@ -0,0 +1,109 @@
+/*
+ * gitsync
+ *
+ * Copyright (C) 2017-2019 République et canton de Genève
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.ge.cti_composant.gitsync;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs a {@link GitSync} again and again, in the same process.
+ * <p>
+ * Compared with spawning the application regularly, the JVM is started once, and the connection to GitLab
+ * (HTTP client, rate limiter, circuit breaker) is kept from one run to the next.
+ * The runs are performed by a single thread, with the specified delay between the end of a run and the start
+ * of the next one: two runs never overlap.
+ * </p>
+ */
+public class GitSyncDaemon {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(GitSyncDaemon.class);
+
+	private final GitSync gitSync;
+
+	private final Duration interval;
+
+	private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+			runnable -> Thread.ofPlatform().name("gitsync-daemon").unstarted(runnable));
+
+	private final AtomicBoolean firstRun = new AtomicBoolean(true);
+
+	/**
+	 * Constructor.
+	 *
+	 * @param gitSync the synchronizer, with its configuration already loaded
+	 * @param interval delay between the end of a run and the start of the next one
+	 */
+	public GitSyncDaemon(GitSync gitSync, Duration interval) {
+		this.gitSync = gitSync;
+		this.interval = interval;
+	}
+
+	/**
+	 * Starts the runs, then waits until the daemon is stopped. The first run starts at once.
+	 *
+	 * @param fullSync true to process all groups during the first run
+	 */
+	public void start(boolean fullSync) throws InterruptedException {
+		LOGGER.info("Starting the GitSync daemon, with {} minute(s) between two runs", interval.toMinutes());
+		Runtime.getRuntime().addShutdownHook(Thread.ofPlatform().unstarted(this::stop));
+		scheduler.scheduleWithFixedDelay(
+				() -> runOnce(firstRun.getAndSet(false) && fullSync), 0, interval.toMillis(), TimeUnit.MILLISECONDS);
+		while (!scheduler.awaitTermination(1, TimeUnit.DAYS)) {
+			LOGGER.debug("GitSync daemon still running");
+		}
+	}
+
+	/**
+	 * Stops the daemon. The run in progress, if any, is completed first.
+	 */
+	public void stop() {
+		if (!scheduler.isShutdown()) {
+			LOGGER.info("Stopping the GitSync daemon");
+			scheduler.shutdown();
+			try {
+				if (!scheduler.awaitTermination(1, TimeUnit.HOURS)) {
+					LOGGER.warn("The run in progress did not complete");
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private void runOnce(boolean fullSync) {
+		MDC.put("threadid", UUID.randomUUID().toString());
+		try {
+			gitSync.synchronize(fullSync);
+		} catch (RuntimeException e) {
+			// an exception must not cancel the next runs
+			LOGGER.error("Exception caught while running GitSync", e);
+		} finally {
+			MDC.clear();
+		}
+	}
+
+}
@@ -18,8 +18,17 @@
  */
 package ch.ge.cti_composant.gitsync;
 
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
 
+import ch.ge.cti_composant.gitsync.hook.SystemHookServer;
+import ch.ge.cti_composant.gitsync.util.exception.GitSyncException;
+import ch.ge.cti_composant.gitsync.util.metrics.MetricsRegistry;
+import ch.ge.cti_composant.gitsync.util.metrics.MetricsServer;
+import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.MDC;
@@ -31,15 +40,134 @@ public class Main {
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(Main.class);
 
+	/**
+	 * Command-line option to process all groups, even if the incremental synchronization is enabled.
+	 */
+	private static final String FULL_SYNC_OPTION = "--full-sync";
+
+	/**
+	 * Command-line option to keep running, see {@link GitSyncDaemon}.
+	 */
+	private static final String DAEMON_OPTION = "--daemon";
+
+	/**
+	 * Command-line option, followed by a group name, to process only that group.
+	 */
+	private static final String GROUP_OPTION = "--group";
+
+	/**
+	 * Command-line option, followed by a user name, to process only that user.
+	 */
+	private static final String USER_OPTION = "--user";
+
 	public static void main(String[] args) {
 		MDC.put("threadid", UUID.randomUUID().toString());
-		if (args.length != 1) {
-			LOGGER.error("1 argument expected: the path to configuration file, such as configuration.properties");
+		List<String> arguments = new ArrayList<>(List.of(args));
+		boolean fullSync = arguments.remove(FULL_SYNC_OPTION);
+		boolean daemon = arguments.remove(DAEMON_OPTION);
+		String group = removeOptionWithValue(arguments, GROUP_OPTION);
+		String user = removeOptionWithValue(arguments, USER_OPTION);
+		// a targeted run is a single run, which processes a single group or a single user
+		boolean exclusiveOptions = (group != null && user != null) || (daemon && (group != null || user != null));
+		if (arguments.size() != 1 || exclusiveOptions) {
+			LOGGER.error("1 argument expected: the path to configuration file, such as configuration.properties."
+					+ " Option {} can be added to process all groups, option {} to keep running,"
+					+ " option {} <group> to process only a group, option {} <user> to process only a user."
+					+ " Options {}, {} and {} cannot be combined",
+					FULL_SYNC_OPTION, DAEMON_OPTION, GROUP_OPTION, USER_OPTION,
+					DAEMON_OPTION, GROUP_OPTION, USER_OPTION);
+		} else if (group != null || user != null) {
+			runTargeted(arguments.getFirst(), group, user);
+		} else if (daemon) {
+			runDaemon(arguments.getFirst(), fullSync);
 		} else {
-			new GitSync().run(args[0]);
+			GitSync gitSync = new GitSync();
+			if (gitSync.loadConfiguration(arguments.getFirst())) {
+				gitSync.synchronize(fullSync);
+				writeMetrics();
+			}
 			LOGGER.info("GitSync completed");
 		}
 		MDC.clear();
 	}
 
+	/**
+	 * Removes the specified option and its value from the arguments.
+	 *
+	 * @return the value of the option, or null if the option is absent. If the option has no value, it is left
+	 * in the arguments, so that they are rejected
+	 */
+	private static String removeOptionWithValue(List<String> arguments, String option) {
+		int index = arguments.indexOf(option);
+		if (index < 0 || index == arguments.size() - 1) {
+			return null;
+		}
+		arguments.remove(index);
+		return arguments.remove(index);
+	}
+
+	private static void runTargeted(String path, String group, String user) {
+		GitSync gitSync = new GitSync();
+		if (!gitSync.loadConfiguration(path)) {
+			return;
+		}
+		if (group != null) {
+			gitSync.synchronizeGroup(group);
+		} else {
+			gitSync.synchronizeUser(user);
+		}
+		writeMetrics();
+		LOGGER.info("GitSync completed");
+	}
+
+	private static void runDaemon(String path, boolean fullSync) {
+		GitSync gitSync = new GitSync();
+		if (!gitSync.loadConfiguration(path)) {
+			return;
+		}
+		Duration interval = Duration.ofMinutes(Math.max(GitSync.getPropertyAsInt("daemon-interval-minutes", 60), 1));
+
+		// reconcile the groups and the users modified by hand in GitLab, as soon as GitLab notifies it
+		int hookServerPort = GitSync.getPropertyAsInt("hook-server-port", 0);
+		String hookSecretToken = GitSync.getProperty("hook-secret-token");
+		if (hookServerPort > 0 && StringUtils.isBlank(hookSecretToken)) {
+			LOGGER.warn("System hook server not started, because parameter hook-secret-token is empty");
+		} else if (hookServerPort > 0) {
+			SystemHookServer hookServer = new SystemHookServer(GitSync.getProperty("hook-bind-address"),
+					hookServerPort, hookSecretToken, gitSync::reconcileGroup, gitSync::reconcileUser);
+			hookServer.start();
+			Runtime.getRuntime().addShutdownHook(Thread.ofPlatform().unstarted(hookServer::stop));
+		}
+
+		// expose the metrics to Prometheus
+		int metricsPort = GitSync.getPropertyAsInt("metrics-port", 0);
+		if (metricsPort > 0) {
+			MetricsServer metricsServer = new MetricsServer(metricsPort, MetricsRegistry.getDefault());
+			metricsServer.start();
+			Runtime.getRuntime().addShutdownHook(Thread.ofPlatform().unstarted(metricsServer::stop));
+		}
+
+		try {
+			new GitSyncDaemon(gitSync, interval).start(fullSync);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		LOGGER.info("GitSync daemon stopped");
+	}
+
+	/**
+	 * Writes the metrics of the run to the file supplied by the configuration, if any.
+	 */
+	private static void writeMetrics() {
+		String metricsFile = GitSync.getProperty("metrics-file");
+		if (StringUtils.isNotBlank(metricsFile)) {
+			try {
+				MetricsRegistry.getDefault().write(Paths.get(metricsFile));
+				LOGGER.info("Metrics written to file [{}]", metricsFile);
+			} catch (GitSyncException e) {
+				LOGGER.error("Could not write the metrics", e);
+			}
+		}
+	}
+
 }
@@ -0,0 +1,234 @@
+/*
+ * gitsync
+ *
+ * Copyright (C) 2017-2019 République et canton de Genève
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.ge.cti_composant.gitsync.hook;
+
+import ch.ge.cti_composant.gitsync.util.Json;
+import ch.ge.cti_composant.gitsync.util.LogContext;
+import ch.ge.cti_composant.gitsync.util.exception.GitSyncException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * HTTP endpoint that receives the system hooks of GitLab and triggers the reconciliation of the group or of
+ * the user concerned.
+ * <p>
+ * Handled events:
+ * </p>
+ * <ul>
+ *     <li>{@code user_add_to_group}, {@code user_update_for_group}: the group is reconciled, with the user concerned;</li>
+ *     <li>{@code group_create}: the group is reconciled;</li>
+ *     <li>{@code user_create}: the user is reconciled.</li>
+ * </ul>
+ * <p>
+ * The other events are ignored. GitLab is answered at once; the reconciliations are performed one at a time,
+ * in the order of the events. A reconciliation that is already waiting is not queued again.
+ * </p>
+ * <p>
+ * Since every event leads to modifications of GitLab, the secret token is mandatory, and the server only listens
+ * to the loopback interface unless another address is supplied.
+ * </p>
+ */
+public class SystemHookServer {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(SystemHookServer.class);
+
+	/**
+	 * Path of the endpoint.
+	 */
+	public static final String PATH = "/hooks";
+
+	private static final String TOKEN_HEADER = "X-Gitlab-Token";
+
+	private static final int HTTP_OK = 200;
+
+	private static final int HTTP_BAD_REQUEST = 400;
+
+	private static final int HTTP_UNAUTHORIZED = 401;
+
+	private static final int HTTP_METHOD_NOT_ALLOWED = 405;
+
+	private final String secretToken;
+
+	private final BiConsumer<String, String> groupReconciler;
+
+	private final Consumer<String> userReconciler;
+
+	private final HttpServer server;
+
+	private final ExecutorService reconciliations = Executors.newSingleThreadExecutor(
+			runnable -> Thread.ofPlatform().name("gitsync-hooks").unstarted(runnable));
+
+	/**
+	 * Reconciliations waiting to be performed. An element is "group:" or "user:" followed by a name,
+	 * and for a group by ":" and the name of the member concerned, if any.
+	 */
+	private final Set<String> pending = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * Constructor. The server is not started.
+	 *
+	 * @param bindAddress the address to listen to, such as 0.0.0.0 for all interfaces. If blank, the loopback
+	 *                    address
+	 * @param port the port to listen to. 0 for any free port
+	 * @param secretToken the token that GitLab must send in header {@value #TOKEN_HEADER}. Mandatory
+	 * @param groupReconciler reconciles the group having the specified name (first argument), with the member
+	 *                        concerned having the specified name (second argument, null if none)
+	 * @param userReconciler reconciles the user having the specified name
+	 */
+	public SystemHookServer(String bindAddress, int port, String secretToken,
+							BiConsumer<String, String> groupReconciler, Consumer<String> userReconciler) {
+		if (StringUtils.isBlank(secretToken)) {
+			throw new GitSyncException("The system hook server requires a secret token");
+		}
+		this.secretToken = secretToken;
+		this.groupReconciler = groupReconciler;
+		this.userReconciler = userReconciler;
+		try {
+			InetSocketAddress address = StringUtils.isBlank(bindAddress)
+					? new InetSocketAddress(InetAddress.getLoopbackAddress(), port)
+					: new InetSocketAddress(bindAddress, port);
+			server = HttpServer.create(address, 0);
+		} catch (IOException e) {
+			throw new GitSyncException("Could not create the system hook server on port " + port, e);
+		}
+		server.createContext(PATH, this::handle);
+	}
+
+	/**
+	 * Starts listening.
+	 */
+	public void start() {
+		server.start();
+		LOGGER.info("Listening to the GitLab system hooks on {}, path {}", server.getAddress(), PATH);
+	}
+
+	/**
+	 * Stops listening. The reconciliation in progress, if any, is completed first; the waiting ones are dropped.
+	 */
+	public void stop() {
+		server.stop(0);
+		reconciliations.shutdownNow();
+		try {
+			if (!reconciliations.awaitTermination(1, TimeUnit.HOURS)) {
+				LOGGER.warn("The reconciliation in progress did not complete");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		LOGGER.info("System hook server stopped");
+	}
+
+	/**
+	 * Returns the port the server listens to.
+	 */
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		try (exchange) {
+			if (!"POST".equals(exchange.getRequestMethod())) {
+				exchange.sendResponseHeaders(HTTP_METHOD_NOT_ALLOWED, -1);
+				return;
+			}
+			if (!isTokenValid(exchange.getRequestHeaders().getFirst(TOKEN_HEADER))) {
+				LOGGER.warn("System hook rejected: invalid token, from {}", exchange.getRemoteAddress());
+				exchange.sendResponseHeaders(HTTP_UNAUTHORIZED, -1);
+				return;
+			}
+
+			JsonNode event;
+			try (InputStream body = exchange.getRequestBody()) {
+				event = Json.MAPPER.readTree(body);
+			} catch (IOException e) {
+				LOGGER.warn("System hook rejected: invalid JSON: {}", e.getMessage());
+				exchange.sendResponseHeaders(HTTP_BAD_REQUEST, -1);
+				return;
+			}
+			onEvent(event);
+			exchange.sendResponseHeaders(HTTP_OK, -1);
+		}
+	}
+
+	private boolean isTokenValid(String token) {
+		return token != null && MessageDigest.isEqual(
+				secretToken.getBytes(StandardCharsets.UTF_8), token.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private void onEvent(JsonNode event) {
+		String eventName = getText(event, "event_name");
+		LOGGER.debug("System hook received: {}", eventName);
+		if (eventName == null) {
+			return;
+		}
+		switch (eventName) {
+			case "user_add_to_group", "user_update_for_group" ->
+					submit("group", getText(event, "group_name"), getText(event, "user_username"), groupReconciler);
+			case "group_create" -> submit("group", getText(event, "name"), null, groupReconciler);
+			case "user_create" -> submit("user", getText(event, "username"), null,
+					(username, member) -> userReconciler.accept(username));
+			default -> LOGGER.debug("System hook [{}] ignored", eventName);
+		}
+	}
+
+	private void submit(String kind, String name, String member, BiConsumer<String, String> reconciler) {
+		if (StringUtils.isBlank(name)) {
+			LOGGER.warn("System hook ignored: no {} name", kind);
+			return;
+		}
+		String key = kind + ":" + name + (StringUtils.isBlank(member) ? "" : ":" + member);
+		if (!pending.add(key)) {
+			LOGGER.debug("Reconciliation of {} [{}] already waiting", kind, name);
+			return;
+		}
+		LOGGER.info("Reconciliation of {} [{}] requested by a system hook", kind, name);
+		reconciliations.execute(LogContext.wrap(() -> {
+			pending.remove(key);
+			try {
+				reconciler.accept(name, member);
+			} catch (RuntimeException e) {
+				LOGGER.error("Exception caught while reconciling {} [{}]", kind, name, e);
+			}
+		}));
+	}
+
+	private static String getText(JsonNode event, String field) {
+		JsonNode node = event.get(field);
+		return node == null || node.isNull() ? null : node.asText();
+	}
+
+}
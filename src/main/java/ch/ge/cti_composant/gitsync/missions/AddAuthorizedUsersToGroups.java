@@ -20,15 +20,15 @@ package ch.ge.cti_composant.gitsync.missions;
 
 import ch.ge.cti_composant.gitsync.util.MissionUtils;
 import ch.ge.cti_composant.gitsync.util.gitlab.Gitlab;
-import ch.ge.cti_composant.gitsync.util.gitlab.GitlabAPIWrapper;
+import ch.ge.cti_composant.gitsync.util.gitlab.GitlabState;
+import ch.ge.cti_composant.gitsync.util.gitlab.GroupMembership;
 import ch.ge.cti_composant.gitsync.util.ldap.LdapTree;
+import ch.ge.cti_composant.gitsync.util.trace.Trace;
 import org.gitlab4j.api.models.Group;
-import org.gitlab4j.api.models.Member;
 import org.gitlab4j.api.models.User;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
@@ -39,25 +39,33 @@ import static org.gitlab4j.api.models.AccessLevel.MAINTAINER;
 /**
  * Adds the authorized users to GitLab (BR2).
  */
-public class AddAuthorizedUsersToGroups implements Mission {
+public class AddAuthorizedUsersToGroups implements GroupMission {
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(AddAuthorizedUsersToGroups.class);
 
+	private Map<String, User> allGitlabUsers;
+
 	@Override
 	public void start(LdapTree ldapTree, Gitlab gitlab) {
 		LOGGER.info("Adding the users to the authorized groups");
-		GitlabAPIWrapper api = gitlab.getApi();
 
-		Map<String, User> allGitlabUsers = MissionUtils.getAllGitlabUsers(api);
-		LOGGER.info("    Total number of GitLab users: {}", allGitlabUsers.size());
+		prepare(ldapTree, gitlab);
 
 		gitlab.getGroups()
-				.forEach(group -> processGroup(group, ldapTree, api, allGitlabUsers));
+				.forEach(group -> Trace.run(group.getName(), Trace.GROUP, () -> processGroup(group, ldapTree, gitlab)));
 		LOGGER.info("Adding the users to the authorized groups - completed");
 	}
 
-	private void processGroup(Group group, LdapTree ldapTree, GitlabAPIWrapper api, Map<String, User> allGitlabUsers) {
-		List<Member> memberList = api.getGroupMembers(group);
+	@Override
+	public void prepare(LdapTree ldapTree, Gitlab gitlab) {
+		allGitlabUsers = gitlab.getState().getUsers();
+		LOGGER.info("    Total number of GitLab users: {}", allGitlabUsers.size());
+	}
+
+	@Override
+	public void processGroup(Group group, LdapTree ldapTree, Gitlab gitlab) {
+		GitlabState state = gitlab.getState();
+		GroupMembership memberList = state.getGroupMembership(group);
 		LOGGER.info("    Processing the users of group [{}]", group.getName());
 
 		Set<String> ldapUserNames = new TreeSet<>(ldapTree.getUsers(group.getName()).keySet());
@@ -71,27 +79,26 @@ public class AddAuthorizedUsersToGroups implements Mission {
 			}
 
 			if (isUserAlreadyMemberOfGroup) {
-				handleExistingMember(memberList, ldapUserName, group, api, user);
+				handleExistingMember(memberList, ldapUserName, group, state, user);
 			} else {
-				handleNewMember(ldapUserName, group, api, user);
+				handleNewMember(ldapUserName, group, state, user);
 			}
 		}
 	}
 
-	private void handleExistingMember(List<Member> memberList, String username, Group group, GitlabAPIWrapper api, User user) {
+	private void handleExistingMember(GroupMembership memberList, String username, Group group, GitlabState state, User user) {
 		if (MissionUtils.validateGitlabGroupMemberHasMinimumAccessLevel(memberList, username, MAINTAINER)) {
 			LOGGER.debug("        User [{}] is already in group [{}]", username, group.getName());
 		} else {
 			LOGGER.info("    Promoting user [{}] as maintainer to group {}", username, group.getName());
-			api.deleteGroupMember(group, user.getId());
-			api.addGroupMember(group, user.getId(), MAINTAINER);
+			state.updateGroupMember(group, user, MAINTAINER);
 		}
 	}
 
-	private void handleNewMember(String username, Group group, GitlabAPIWrapper api, User user) {
+	private void handleNewMember(String username, Group group, GitlabState state, User user) {
 		if (isUserCompliant(username)) {
 			LOGGER.info("        Adding user [{}] as maintainer to group [{}]", username, group.getName());
-			api.addGroupMember(group, user.getId(), MAINTAINER);
+			state.addGroupMember(group, user, MAINTAINER);
 		} else {
 			LOGGER.info("        Not adding user [{}] as maintainer to group [{}], because it is banned", username, group.getName());
 		}
@@ -20,7 +20,7 @@ package ch.ge.cti_composant.gitsync.missions;
 
 import ch.ge.cti_composant.gitsync.util.MissionUtils;
 import ch.ge.cti_composant.gitsync.util.gitlab.Gitlab;
-import ch.ge.cti_composant.gitsync.util.gitlab.GitlabAPIWrapper;
+import ch.ge.cti_composant.gitsync.util.gitlab.GitlabState;
 import ch.ge.cti_composant.gitsync.util.ldap.LdapTree;
 import ch.ge.cti_composant.gitsync.util.ldap.LdapUser;
 import org.apache.commons.lang3.StringUtils;
@@ -47,10 +47,10 @@ public class BlockOrUnblockUsers implements Mission {
 	public void start(LdapTree ldapTree, Gitlab gitlab) {
 		LOGGER.info("Block or unblock users in GitLab");
 
-		GitlabAPIWrapper api = gitlab.getApi();
+		GitlabState state = gitlab.getState();
 
 		// Gitlab users
-		Map<String, User> gitlabUsers = MissionUtils.getAllGitlabUsers(api);
+		Map<String, User> gitlabUsers = state.getUsers();
 
 		// Ldap users
 		Map<String, LdapUser> ldapUsers = ldapTree.getGroups().stream()
@@ -66,7 +66,7 @@ public class BlockOrUnblockUsers implements Mission {
 				.filter(user -> !MissionUtils.getWideAccessUsers().contains(user.getUsername()))
 				.filter(user -> !MissionUtils.getNotToCleanUsers().contains(user.getUsername()))
 				.sorted(Comparator.comparing(User::getUsername))
-				.forEach(user -> blockOrUnblockUser(api, user, ldapUsers));
+				.forEach(user -> blockOrUnblockUser(state, user, ldapUsers));
 
 		LOGGER.info("Block or unblock users in GitLab - completed");
 	}
@@ -92,7 +92,7 @@ public class BlockOrUnblockUsers implements Mission {
 		return result;
 	}
 
-	private void blockOrUnblockUser(GitlabAPIWrapper api, final User gitlabUser,
+	private void blockOrUnblockUser(GitlabState state, final User gitlabUser,
 									Map<String, LdapUser> ldapUsers) {
 		if (gitlabUser == null || !fromLdap(gitlabUser)) {
 			// Do nothing
@@ -113,27 +113,17 @@ public class BlockOrUnblockUsers implements Mission {
 			String cnFromLdapIdentity = getCnFromLdapIdentity(gitlabUser);
 			currentLdapUser = ldapUsers.get(cnFromLdapIdentity.toUpperCase(Locale.FRANCE));
 		}
-		String loginDisabled;
-		if (currentLdapUser != null) {
-			try {
-				loginDisabled = currentLdapUser.getAttribute("loginDisabled");
-			} catch (Exception e) {
-				loginDisabled = Boolean.TRUE.toString();
-			}
-		} else {
-			loginDisabled = Boolean.TRUE.toString();
-		}
-		boolean isActiveLdap = Boolean.FALSE.toString().equalsIgnoreCase(loginDisabled);
+		boolean isActiveLdap = currentLdapUser != null && !currentLdapUser.isLoginDisabled();
 
 		// Active in ldap but blocked in gitlab => unblock user
 		if (isActiveLdap && !isActiveGitlab) {
 			LOGGER.info("    Unblock user [{}]", gitlabUser.getUsername());
-			api.unblockUser(gitlabUser.getId());
+			state.unblockUser(gitlabUser);
 		}
 		// Blocked in ldap but active in gitlab => block user
 		else if (!isActiveLdap && isActiveGitlab) {
 			LOGGER.info("    Block user [{}]", gitlabUser.getUsername());
-			api.blockUser(gitlabUser.getId());
+			state.blockUser(gitlabUser);
 		}
 	}
 
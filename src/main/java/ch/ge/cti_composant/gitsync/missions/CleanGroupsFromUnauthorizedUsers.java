@@ -33,10 +33,11 @@ import org.slf4j.LoggerFactory;
 
 import ch.ge.cti_composant.gitsync.util.MissionUtils;
 import ch.ge.cti_composant.gitsync.util.gitlab.Gitlab;
-import ch.ge.cti_composant.gitsync.util.gitlab.GitlabAPIWrapper;
+import ch.ge.cti_composant.gitsync.util.gitlab.GitlabState;
 import ch.ge.cti_composant.gitsync.util.ldap.LdapGroup;
 import ch.ge.cti_composant.gitsync.util.ldap.LdapTree;
 import ch.ge.cti_composant.gitsync.util.ldap.LdapUser;
+import ch.ge.cti_composant.gitsync.util.trace.Trace;
 
 import static org.apache.commons.lang3.StringUtils.toRootLowerCase;
 import static org.gitlab4j.api.models.AccessLevel.DEVELOPER;
@@ -47,41 +48,51 @@ import static org.gitlab4j.api.models.AccessLevel.MAINTAINER;
  * <br/>
  * Admin users are ignored. They can be assigned to any type of group or project.
  */
-public class CleanGroupsFromUnauthorizedUsers implements Mission {
+public class CleanGroupsFromUnauthorizedUsers implements GroupMission {
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(CleanGroupsFromUnauthorizedUsers.class);
 
+	/**
+	 * Users in owner group.
+	 */
+	private final Map<String, LdapUser> owners = new HashMap<>();
+
 	@Override
 	public void start(LdapTree ldapTree, Gitlab gitlab) {
 		LOGGER.info("Removing the user permissions in excess on GitLab");
 
-		String ownerGroup = MissionUtils.getOwnerGroup();
-		LOGGER.info("    Property owner-group is set to [{}]", ownerGroup);
-
-		// Users in owner group
-		final Map<String, LdapUser> owners = new HashMap<>();
-		if (StringUtils.isNotBlank(ownerGroup) && ldapTree.getGroups().contains(new LdapGroup(ownerGroup))) {
-			owners.putAll(ldapTree.getUsers(ownerGroup));
-		}
+		prepare(ldapTree, gitlab);
 
 		// for every group...
 		gitlab.getGroups().stream()
 				.sorted(Comparator.comparing(Group::getName))
-				.forEach(gitlabGroup -> {
+				.forEach(gitlabGroup -> Trace.run(gitlabGroup.getName(), Trace.GROUP, () -> {
 					LOGGER.info("    Processing group [{}]", gitlabGroup.getName());
-					handleGroup(gitlabGroup, ldapTree, gitlab, owners);
-				});
+					processGroup(gitlabGroup, ldapTree, gitlab);
+				}));
 
 		LOGGER.info("Removing the user permissions in excess on GitLab - completed");
 	}
 
-	private void handleGroup(Group gitlabGroup, LdapTree ldapTree, Gitlab gitlab, Map<String, LdapUser> owners) {
+	@Override
+	public void prepare(LdapTree ldapTree, Gitlab gitlab) {
+		String ownerGroup = MissionUtils.getOwnerGroup();
+		LOGGER.info("    Property owner-group is set to [{}]", ownerGroup);
+
+		owners.clear();
+		if (StringUtils.isNotBlank(ownerGroup) && ldapTree.getGroups().contains(new LdapGroup(ownerGroup))) {
+			owners.putAll(ldapTree.getUsers(ownerGroup));
+		}
+	}
+
+	@Override
+	public void processGroup(Group gitlabGroup, LdapTree ldapTree, Gitlab gitlab) {
 		LdapGroup ldapGroup = new LdapGroup(gitlabGroup.getName());
-		GitlabAPIWrapper api = gitlab.getApi();
-		List<Member> members =  api.getGroupMembers(gitlabGroup).stream()
+		GitlabState state = gitlab.getState();
+		List<Member> members = state.getGroupMembers(gitlabGroup).stream()
 				.sorted(Comparator.comparing(Member::getUsername))
 				.toList();
-		Map<String, User> gitlabUsers = MissionUtils.getAllGitlabUsers(api);
+		Map<String, User> gitlabUsers = state.getUsers();
 
 		members.stream()
 				.filter(member -> !ldapTree.getUsers(ldapGroup.getName()).containsKey(member.getUsername())
@@ -90,28 +101,29 @@ public class CleanGroupsFromUnauthorizedUsers implements Mission {
 				.filter(member -> !owners.containsKey(member.getUsername()))
 				.filter(member -> member.getAccessLevel() == MAINTAINER)
 				.filter(member -> !member.getUsername().contains("_bot"))
-				.forEach(member -> removeUser(member, gitlabGroup, api, ""));
+				.forEach(member -> removeUser(member, gitlabGroup, state, ""));
 
 		members.stream()
 				.filter(member -> !MissionUtils.isUserCompliant(member.getUsername()))
-				.forEach(member -> removeUser(member, gitlabGroup, api, " (banned user)"));
+				.forEach(member -> removeUser(member, gitlabGroup, state, " (banned user)"));
 
 		members.stream()
+				.filter(member -> gitlabUsers.containsKey(member.getUsername()))  // the state may be partial
 				.filter(member -> MissionUtils.isGitlabUserExternal(gitlabUsers.get(member.getUsername())))
 				.filter(member -> member.getAccessLevel() == DEVELOPER)
-				.forEach(member -> removeUser(member, gitlabGroup, api, " (external user)"));
+				.forEach(member -> removeUser(member, gitlabGroup, state, " (external user)"));
 
 		if (MissionUtils.getLimitedAccessGroups().contains(gitlabGroup.getName())) {
 				members.stream()
 						.filter(member -> member.getAccessLevel() == DEVELOPER)
-						.forEach(member -> removeUser(member, gitlabGroup, api, " (limited-access group)"));
+						.forEach(member -> removeUser(member, gitlabGroup, state, " (limited-access group)"));
 		}
 	}
 
-	private void removeUser(Member member, Group group, GitlabAPIWrapper api, String cause) {
+	private void removeUser(Member member, Group group, GitlabState state, String cause) {
 		LOGGER.info("        Removing user [{}] ({}) from group [{}]{}",
 				member.getUsername(), toRootLowerCase(member.getAccessLevel().name()), group.getName(), cause);
-		api.deleteGroupMember(group, member.getId());
+		state.deleteGroupMember(group, member.getId());
 	}
 
 }
@@ -0,0 +1,45 @@
+/*
+ * gitsync
+ *
+ * Copyright (C) 2017-2019 République et canton de Genève
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.ge.cti_composant.gitsync.missions;
+
+import ch.ge.cti_composant.gitsync.util.gitlab.Gitlab;
+import ch.ge.cti_composant.gitsync.util.ldap.LdapTree;
+import org.gitlab4j.api.models.Group;
+
+/**
+ * A mission that processes the GitLab groups one at a time.
+ * <p>
+ * Method {@link #start(LdapTree, Gitlab)} processes all groups. Alternatively, several group missions can be
+ * applied together in a single pass over the groups, see {@link SinglePassGroupMissions}.
+ * </p>
+ */
+public interface GroupMission extends Mission {
+
+	/**
+	 * Prepares the data used for all groups. Must be called once, before the first call to
+	 * {@link #processGroup(Group, LdapTree, Gitlab)}.
+	 */
+	void prepare(LdapTree ldapTree, Gitlab gitlab);
+
+	/**
+	 * Applies the mission to the specified group.
+	 */
+	void processGroup(Group group, LdapTree ldapTree, Gitlab gitlab);
+
+}
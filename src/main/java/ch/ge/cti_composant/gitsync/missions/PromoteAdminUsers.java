@@ -21,17 +21,15 @@ package ch.ge.cti_composant.gitsync.missions;
 import ch.ge.cti_composant.gitsync.util.MissionUtils;
 import ch.ge.cti_composant.gitsync.util.gitlab.Gitlab;
 import ch.ge.cti_composant.gitsync.util.gitlab.GitlabAPIWrapper;
+import ch.ge.cti_composant.gitsync.util.gitlab.GitlabState;
 import ch.ge.cti_composant.gitsync.util.ldap.LdapGroup;
 import ch.ge.cti_composant.gitsync.util.ldap.LdapTree;
 import ch.ge.cti_composant.gitsync.util.ldap.LdapUser;
-import org.gitlab4j.api.models.AbstractUser;
 import org.gitlab4j.api.models.User;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.ArrayList;
 import java.util.Map;
-import java.util.stream.Collectors;
 
 import static java.lang.Boolean.FALSE;
 
@@ -46,9 +44,9 @@ public class PromoteAdminUsers implements Mission {
 	public void start(LdapTree ldapTree, Gitlab gitlab) {
 		LOGGER.info("Adding admin users");
 		GitlabAPIWrapper api = gitlab.getApi();
+		GitlabState state = gitlab.getState();
 
-		Map<String, User> allGitlabUsers = api.getUsers().stream()
-				.collect(Collectors.toMap(AbstractUser::getUsername, user -> user, (v1, v2) -> v2));
+		Map<String, User> allGitlabUsers = state.getUsers();
 
 		String adminGroup = MissionUtils.getAdministratorGroup();
 		if (adminGroup == null) {
@@ -56,15 +54,15 @@ public class PromoteAdminUsers implements Mission {
 		} else {
 			ldapTree.getUsers(new LdapGroup(adminGroup))
 					.forEach((username, ldapUser) ->
-							handlePromotionToAdmin(ldapTree, username, ldapUser, allGitlabUsers, api));
+							handlePromotionToAdmin(ldapTree, username, ldapUser, allGitlabUsers, api, state));
 		}
 		LOGGER.info("Adding admin users - completed");
 	}
 
 	private static void handlePromotionToAdmin(LdapTree ldapTree, String username, LdapUser ldapUser,
-											   Map<String, User> allUsers, GitlabAPIWrapper api) {
+											   Map<String, User> allUsers, GitlabAPIWrapper api, GitlabState state) {
 
-		boolean userExists = MissionUtils.validateGitlabUserExistence(ldapUser, new ArrayList<>(allUsers.values()));
+		boolean userExists = MissionUtils.validateGitlabUserExistence(ldapUser, allUsers);
 
 		if (!userExists) {
 			LOGGER.debug("    User [{}] won't be set as administrator as it does not exist in GitLab", username);
@@ -74,7 +72,7 @@ public class PromoteAdminUsers implements Mission {
 		User user = allUsers.get(username);
 		if (FALSE.equals(user.getIsAdmin())) {
 			LOGGER.info("    Setting user [{}] as administrator", username);
-			api.promoteToAdmin(user.getId());
+			state.promoteToAdmin(user);
 		} else if (MissionUtils.isGitlabUserAdmin(user, api, ldapTree)) {
 			LOGGER.debug("    User [{}] is already administrator", username);
 		}
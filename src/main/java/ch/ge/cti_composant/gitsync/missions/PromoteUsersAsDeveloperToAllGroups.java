@@ -22,73 +22,88 @@ import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.TreeMap;
-import java.util.stream.Stream;
 
 import org.gitlab4j.api.models.Group;
-import org.gitlab4j.api.models.Member;
 import org.gitlab4j.api.models.User;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import ch.ge.cti_composant.gitsync.util.MissionUtils;
 import ch.ge.cti_composant.gitsync.util.gitlab.Gitlab;
-import ch.ge.cti_composant.gitsync.util.gitlab.GitlabAPIWrapper;
+import ch.ge.cti_composant.gitsync.util.gitlab.GitlabState;
+import ch.ge.cti_composant.gitsync.util.gitlab.GroupMembership;
 import ch.ge.cti_composant.gitsync.util.ldap.LdapTree;
 import ch.ge.cti_composant.gitsync.util.ldap.LdapUser;
+import ch.ge.cti_composant.gitsync.util.trace.Trace;
 
 import static org.gitlab4j.api.models.AccessLevel.DEVELOPER;
 
 /**
  * Set users as developer to all groups (BR3)
  */
-public class PromoteUsersAsDeveloperToAllGroups implements Mission {
+public class PromoteUsersAsDeveloperToAllGroups implements GroupMission {
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(PromoteUsersAsDeveloperToAllGroups.class);
 
+	private Map<String, User> gitlabUsers;
+
+	/**
+	 * Compliant LDAP users existing in GitLab, sorted by name.
+	 */
+	private List<LdapUser> filteredUsers;
+
 	@Override
 	public void start(LdapTree ldapTree, Gitlab gitlab) {
 		LOGGER.info("Promoting users as developers to all groups");
-		GitlabAPIWrapper api = gitlab.getApi();
 
+		prepare(ldapTree, gitlab);
+
+		// Promote
+		gitlab.getGroups()
+				.forEach(group -> Trace.run(group.getName(), Trace.GROUP, () -> processGroup(group, ldapTree, gitlab)));
+
+		LOGGER.info("Promoting users as developers to all groups - completed");
+	}
+
+	@Override
+	public void prepare(LdapTree ldapTree, Gitlab gitlab) {
 		// GitLab users
-		Map<String, User> gitlabUsers = new TreeMap<>();
-		api.getUsers().forEach(gitlabUser -> gitlabUsers.put(gitlabUser.getUsername(), gitlabUser));
+		gitlabUsers = gitlab.getState().getUsers();
 
 		// LDAP users
 		Set<LdapUser> ldapUsers = MissionUtils.getLdapUsers(ldapTree);
 
 		// Keep only compliant LDAP users existing in GitLab
-		List<LdapUser> filteredUsers = ldapUsers.stream()
+		filteredUsers = ldapUsers.stream()
 				.filter(user -> gitlabUsers.containsKey(user.getName()))
 				.filter(user -> MissionUtils.isUserCompliant(user.getName()))
 				.sorted(Comparator.comparing(LdapUser::getName))
 				.toList();
+	}
 
-		// Promote
-		gitlab.getGroups().stream()
-				.filter(group -> !MissionUtils.getLimitedAccessGroups().contains(group.getName()))
-				.filter(group -> MissionUtils.validateGroupNameCompliantStandardGroups(group.getName()))
-				.forEach(group -> {
-					LOGGER.info("    Promoting users as developers in group [{}]", group.getName());
-					List<Member> members = api.getGroupMembers(group);
-					filteredUsers.forEach(user -> promoteUserAsDeveloper(
-							api, group, members, gitlabUsers.get(user.getName())));
-				});
+	@Override
+	public void processGroup(Group group, LdapTree ldapTree, Gitlab gitlab) {
+		if (MissionUtils.getLimitedAccessGroups().contains(group.getName())
+				|| !MissionUtils.validateGroupNameCompliantStandardGroups(group.getName())) {
+			return;
+		}
 
-		LOGGER.info("Promoting users as developers to all groups - completed");
+		LOGGER.info("    Promoting users as developers in group [{}]", group.getName());
+		GitlabState state = gitlab.getState();
+		GroupMembership members = state.getGroupMembership(group);
+		filteredUsers.forEach(user -> promoteUserAsDeveloper(
+				state, group, members, gitlabUsers.get(user.getName())));
 	}
 
-	private void promoteUserAsDeveloper(GitlabAPIWrapper api, Group group, List<Member> members, User user) {
+	private void promoteUserAsDeveloper(GitlabState state, Group group, GroupMembership members, User user) {
 		if (!MissionUtils.isGitlabUserMemberOfGroup(members, user.getUsername())
 				&& !MissionUtils.isGitlabUserExternal(user)) {
 			LOGGER.info("        User [{}] not member and internal, adding as developer to group [{}]", user.getUsername(), group.getName());
-			api.addGroupMember(group, user.getId(), DEVELOPER);
+			state.addGroupMember(group, user, DEVELOPER);
 		} else if (!MissionUtils.validateGitlabGroupMemberHasMinimumAccessLevel(members, user.getUsername(), DEVELOPER)
 				&& !MissionUtils.isGitlabUserExternal(user)) {
 			LOGGER.info("        Promoting internal user [{}] as developer to group [{}]", user.getUsername(), group.getName());
-			api.deleteGroupMember(group, user.getId());
-			api.addGroupMember(group, user.getId(), DEVELOPER);
+			state.updateGroupMember(group, user, DEVELOPER);
 		} else {
 			LOGGER.debug("        User [{}] has already an access level up or equal to developer to group [{}]",
 					user.getUsername(), group.getName());
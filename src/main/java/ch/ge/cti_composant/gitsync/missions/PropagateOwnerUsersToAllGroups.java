@@ -18,24 +18,22 @@
  */
 package ch.ge.cti_composant.gitsync.missions;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
 import org.apache.commons.lang3.StringUtils;
 import org.gitlab4j.api.models.Group;
-import org.gitlab4j.api.models.Member;
 import org.gitlab4j.api.models.User;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import ch.ge.cti_composant.gitsync.util.MissionUtils;
 import ch.ge.cti_composant.gitsync.util.gitlab.Gitlab;
-import ch.ge.cti_composant.gitsync.util.gitlab.GitlabAPIWrapper;
+import ch.ge.cti_composant.gitsync.util.gitlab.GitlabState;
+import ch.ge.cti_composant.gitsync.util.gitlab.GroupMembership;
 import ch.ge.cti_composant.gitsync.util.ldap.LdapGroup;
 import ch.ge.cti_composant.gitsync.util.ldap.LdapTree;
 import ch.ge.cti_composant.gitsync.util.ldap.LdapUser;
+import ch.ge.cti_composant.gitsync.util.trace.Trace;
 
 import static java.lang.Boolean.TRUE;
 import static org.gitlab4j.api.models.AccessLevel.OWNER;
@@ -43,45 +41,63 @@ import static org.gitlab4j.api.models.AccessLevel.OWNER;
 /**
  * Adds the owner users to all groups except if already admin (BR5).
  */
-public class PropagateOwnerUsersToAllGroups implements Mission {
+public class PropagateOwnerUsersToAllGroups implements GroupMission {
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(PropagateOwnerUsersToAllGroups.class);
 
+	private Map<String, User> allUsers;
+
+	/**
+	 * Users in owner group, or null if there is no owner group.
+	 */
+	private Map<String, LdapUser> owners;
+
 	@Override
 	public void start(LdapTree ldapTree, Gitlab gitlab) {
 		LOGGER.info("Propagating owner users to all groups");
-		GitlabAPIWrapper api = gitlab.getApi();
 
-		Map<String, User> allUsers = new HashMap<>();
-		api.getUsers().forEach(gitlabUser -> allUsers.put(gitlabUser.getUsername(), gitlabUser));
+		prepare(ldapTree, gitlab);
+
+		if (owners != null) {
+			gitlab.getGroups()
+					.forEach(group -> Trace.run(group.getName(), Trace.GROUP,
+							() -> processGroup(group, ldapTree, gitlab)));
+		}
+
+		LOGGER.info("Propagating owner users to all groups - completed");
+	}
+
+	@Override
+	public void prepare(LdapTree ldapTree, Gitlab gitlab) {
+		allUsers = gitlab.getState().getUsers();
 
 		String ownerGroup = MissionUtils.getOwnerGroup();
 		LOGGER.info("    Property owner-group is set to [{}]", ownerGroup);
 
+		owners = null;
 		if (StringUtils.isNotBlank(ownerGroup) && ldapTree.getGroups().contains(new LdapGroup(ownerGroup))) {
-			// Users in owner group
-			Map<String, LdapUser> owners = ldapTree.getUsers(ownerGroup);
-
-			gitlab.getGroups().stream()
-					// no op for the black-listed groups
-					.filter(group -> !MissionUtils.getBlackListedGroups().contains(group.getName()))
-					.filter(group -> MissionUtils.validateGroupNameCompliantStandardGroups(group.getName()))
-					.forEach(group -> manageGroup(api, group, allUsers, owners));
+			owners = ldapTree.getUsers(ownerGroup);
 		}
-
-		LOGGER.info("Propagating owner users to all groups - completed");
 	}
 
-	private void manageGroup(GitlabAPIWrapper api, Group group, Map<String, User> allUsers,
-							 Map<String, LdapUser> owners) {
+	@Override
+	public void processGroup(Group group, LdapTree ldapTree, Gitlab gitlab) {
+		if (owners == null
+				// no op for the black-listed groups
+				|| MissionUtils.getBlackListedGroups().contains(group.getName())
+				|| !MissionUtils.validateGroupNameCompliantStandardGroups(group.getName())) {
+			return;
+		}
+
 		LOGGER.info("    Propagating owner users to group {}", group.getName());
-		List<Member> members = api.getGroupMembers(group);
-		owners.forEach((username, ldapUser) -> setUserAsOwner(api, username, group, ldapUser, allUsers, members));
+		GitlabState state = gitlab.getState();
+		GroupMembership members = state.getGroupMembership(group);
+		owners.forEach((username, ldapUser) -> setUserAsOwner(state, username, group, ldapUser, allUsers, members));
 	}
 
-	private void setUserAsOwner(GitlabAPIWrapper api, String username, Group group, LdapUser ldapUser,
-								Map<String, User> allUsers, List<Member> members) {
-		boolean userExists = MissionUtils.validateGitlabUserExistence(ldapUser, new ArrayList<>(allUsers.values()));
+	private void setUserAsOwner(GitlabState state, String username, Group group, LdapUser ldapUser,
+								Map<String, User> allUsers, GroupMembership members) {
+		boolean userExists = MissionUtils.validateGitlabUserExistence(ldapUser, allUsers);
 		if (userExists) {
 			// user is admin, do nothing
 			boolean isAdmin = TRUE.equals(allUsers.get(username).getIsAdmin());
@@ -92,13 +108,12 @@ public class PropagateOwnerUsersToAllGroups implements Mission {
 			// user is not member, add it
 			else if (!MissionUtils.isGitlabUserMemberOfGroup(members, username)) {
 				LOGGER.info("        Setting user [{}] as owner to group {}", username, group.getName());
-				api.addGroupMember(group, allUsers.get(username).getId(), OWNER);
+				state.addGroupMember(group, allUsers.get(username), OWNER);
 			}
 			// user is member but not owner
 			else if (!MissionUtils.validateGitlabGroupMemberHasMinimumAccessLevel(members, username, OWNER)) {
 				LOGGER.info("        Promoting user [{}] as owner to group {}", username, group.getName());
-				api.deleteGroupMember(group, allUsers.get(username).getId());
-				api.addGroupMember(group, allUsers.get(username).getId(), OWNER);
+				state.updateGroupMember(group, allUsers.get(username), OWNER);
 			}
 			// user is already owner
 			else {
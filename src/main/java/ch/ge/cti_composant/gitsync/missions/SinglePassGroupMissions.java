@@ -0,0 +1,64 @@
+/*
+ * gitsync
+ *
+ * Copyright (C) 2017-2019 République et canton de Genève
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.ge.cti_composant.gitsync.missions;
+
+import ch.ge.cti_composant.gitsync.util.gitlab.Gitlab;
+import ch.ge.cti_composant.gitsync.util.ldap.LdapTree;
+import ch.ge.cti_composant.gitsync.util.metrics.Metrics;
+import ch.ge.cti_composant.gitsync.util.trace.Trace;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+
+/**
+ * Applies several {@link GroupMission}s in a single pass over the GitLab groups: every group is visited once,
+ * and the missions are applied to it one after the other, in the supplied order.
+ * <p>
+ * The decisions are the same as when the missions are run one after the other on all groups, because the
+ * decisions taken for a group depend only on that group and on the data prepared before the first group.
+ * </p>
+ */
+public class SinglePassGroupMissions implements Mission {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(SinglePassGroupMissions.class);
+
+	private final List<GroupMission> missions;
+
+	public SinglePassGroupMissions(List<GroupMission> missions) {
+		this.missions = List.copyOf(missions);
+	}
+
+	@Override
+	public void start(LdapTree ldapTree, Gitlab gitlab) {
+		LOGGER.info("Applying the group rules in a single pass");
+
+		missions.forEach(mission -> Metrics.runMission(mission.getClass().getSimpleName(),
+				() -> mission.prepare(ldapTree, gitlab)));
+
+		gitlab.getGroups().forEach(group -> Trace.run(group.getName(), Trace.GROUP, () -> {
+			LOGGER.info("    Processing group [{}]", group.getName());
+			missions.forEach(mission -> Metrics.runMission(mission.getClass().getSimpleName(),
+					() -> mission.processGroup(group, ldapTree, gitlab)));
+		}));
+
+		LOGGER.info("Applying the group rules in a single pass - completed");
+	}
+
+}
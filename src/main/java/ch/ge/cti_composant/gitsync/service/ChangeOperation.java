@@ -0,0 +1,75 @@
+/*
+ * gitsync
+ *
+ * Copyright (C) 2017-2019 République et canton de Genève
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.ge.cti_composant.gitsync.service;
+
+import org.gitlab4j.api.models.AccessLevel;
+import org.gitlab4j.api.models.Group;
+
+import static org.apache.commons.lang3.StringUtils.toRootLowerCase;
+
+/**
+ * A modification to be performed on GitLab, as part of a {@link ChangePlan}.
+ *
+ * @param type the kind of modification
+ * @param group the GitLab group. Null for the modifications of a user
+ * @param userId the GitLab id of the user
+ * @param username the GitLab name of the user
+ * @param previousAccessLevel the access level of the user in the group before the modification, if any
+ * @param accessLevel the access level of the user in the group after the modification, if any
+ */
+public record ChangeOperation(
+		Type type,
+		Group group,
+		Long userId,
+		String username,
+		AccessLevel previousAccessLevel,
+		AccessLevel accessLevel) {
+
+	/**
+	 * The kinds of modification.
+	 */
+	public enum Type {
+		BLOCK_USER,
+		UNBLOCK_USER,
+		PROMOTE_TO_ADMIN,
+		REMOVE_MEMBER,
+		CHANGE_ACCESS_LEVEL,
+		ADD_MEMBER
+	}
+
+	@Override
+	public String toString() {
+		return switch (type) {
+			case BLOCK_USER -> "Block user [" + username + "]";
+			case UNBLOCK_USER -> "Unblock user [" + username + "]";
+			case PROMOTE_TO_ADMIN -> "Set user [" + username + "] as administrator";
+			case REMOVE_MEMBER -> "Remove user [" + username + "] (" + level(previousAccessLevel)
+					+ ") from group [" + group.getName() + "]";
+			case CHANGE_ACCESS_LEVEL -> "Change user [" + username + "] from " + level(previousAccessLevel)
+					+ " to " + level(accessLevel) + " in group [" + group.getName() + "]";
+			case ADD_MEMBER -> "Add user [" + username + "] as " + level(accessLevel)
+					+ " to group [" + group.getName() + "]";
+		};
+	}
+
+	private static String level(AccessLevel accessLevel) {
+		return accessLevel == null ? "none" : toRootLowerCase(accessLevel.name());
+	}
+
+}
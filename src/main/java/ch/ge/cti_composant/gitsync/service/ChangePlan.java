@@ -0,0 +1,97 @@
+/*
+ * gitsync
+ *
+ * Copyright (C) 2017-2019 République et canton de Genève
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.ge.cti_composant.gitsync.service;
+
+import ch.ge.cti_composant.gitsync.util.exception.GitSyncException;
+import ch.ge.cti_composant.gitsync.util.gitlab.GitlabState;
+import org.gitlab4j.api.models.User;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The list of the modifications to be performed on GitLab, as computed by {@link ChangePlanner}.
+ * Every modification appears at most once.
+ */
+public class ChangePlan {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ChangePlan.class);
+
+	private final List<ChangeOperation> operations;
+
+	public ChangePlan(List<ChangeOperation> operations) {
+		this.operations = List.copyOf(operations);
+	}
+
+	/**
+	 * Returns the modifications, in the order they will be applied.
+	 */
+	public List<ChangeOperation> getOperations() {
+		return operations;
+	}
+
+	/**
+	 * Performs the modifications on GitLab.
+	 */
+	public void apply(GitlabState state) {
+		LOGGER.info("Applying the change plan");
+		Map<String, User> users = state.getUsers();
+		for (ChangeOperation operation : operations) {
+			LOGGER.info("    {}", operation);
+			switch (operation.type()) {
+				case BLOCK_USER -> state.blockUser(users.get(operation.username()));
+				case UNBLOCK_USER -> state.unblockUser(users.get(operation.username()));
+				case PROMOTE_TO_ADMIN -> state.promoteToAdmin(users.get(operation.username()));
+				case REMOVE_MEMBER -> state.deleteGroupMember(operation.group(), operation.userId());
+				case CHANGE_ACCESS_LEVEL ->
+						state.updateGroupMember(operation.group(), users.get(operation.username()), operation.accessLevel());
+				case ADD_MEMBER ->
+						state.addGroupMember(operation.group(), users.get(operation.username()), operation.accessLevel());
+			}
+		}
+		LOGGER.info("Applying the change plan - completed");
+	}
+
+	/**
+	 * Logs the modifications.
+	 */
+	public void log() {
+		LOGGER.info("Change plan: {} modification(s)", operations.size());
+		operations.forEach(operation -> LOGGER.info("    {}", operation));
+	}
+
+	/**
+	 * Writes the modifications to the specified file, one per line.
+	 */
+	public void write(Path path) {
+		try {
+			Files.write(path, operations.stream().map(ChangeOperation::toString).toList(), StandardCharsets.UTF_8);
+		} catch (IOException e) {
+			throw new GitSyncException("Could not write the change plan to file [" + path + "]", e);
+		}
+		LOGGER.info("Change plan written to file [{}]", path);
+	}
+
+}
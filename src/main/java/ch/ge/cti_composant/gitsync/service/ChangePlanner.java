@@ -0,0 +1,178 @@
+/*
+ * gitsync
+ *
+ * Copyright (C) 2017-2019 République et canton de Genève
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.ge.cti_composant.gitsync.service;
+
+import ch.ge.cti_composant.gitsync.missions.Mission;
+import ch.ge.cti_composant.gitsync.util.gitlab.Gitlab;
+import ch.ge.cti_composant.gitsync.util.gitlab.GitlabState;
+import ch.ge.cti_composant.gitsync.util.ldap.LdapTree;
+import ch.ge.cti_composant.gitsync.util.metrics.Metrics;
+import org.gitlab4j.api.models.Group;
+import org.gitlab4j.api.models.Member;
+import org.gitlab4j.api.models.User;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+
+import static ch.ge.cti_composant.gitsync.service.ChangeOperation.Type.ADD_MEMBER;
+import static ch.ge.cti_composant.gitsync.service.ChangeOperation.Type.BLOCK_USER;
+import static ch.ge.cti_composant.gitsync.service.ChangeOperation.Type.CHANGE_ACCESS_LEVEL;
+import static ch.ge.cti_composant.gitsync.service.ChangeOperation.Type.PROMOTE_TO_ADMIN;
+import static ch.ge.cti_composant.gitsync.service.ChangeOperation.Type.REMOVE_MEMBER;
+import static ch.ge.cti_composant.gitsync.service.ChangeOperation.Type.UNBLOCK_USER;
+
+/**
+ * Computes the modifications to be performed on GitLab, without performing them.
+ * <p>
+ * The target state (the access level of every user in every group, plus the blocked and admin flags of every
+ * user) is obtained by running the missions in simulated mode (see {@link GitlabState#setSimulated(boolean)}),
+ * so that the business rules are defined in one place only: the missions.
+ * The plan is the difference between the target state and the actual state. Hence a user that a mission removes
+ * and another mission adds back again does not appear in the plan, and a user removed then added back with
+ * another access level appears as a single change of access level.
+ * </p>
+ */
+public class ChangePlanner {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ChangePlanner.class);
+
+	private static final String BLOCKED = "blocked";
+
+	/**
+	 * Computes the plan. When this method returns, the in-memory GitLab state is the actual state again.
+	 */
+	public ChangePlan plan(List<Mission> missions, LdapTree ldapTree, Gitlab gitlab) {
+		LOGGER.info("Computing the change plan");
+		GitlabState state = gitlab.getState();
+
+		Snapshot actual = capture(gitlab);
+		Snapshot target;
+		state.setSimulated(true);
+		try {
+			missions.forEach(mission -> Metrics.runMission(mission.getClass().getSimpleName(),
+					() -> mission.start(ldapTree, gitlab)));
+			target = capture(gitlab);
+		} finally {
+			state.setSimulated(false);
+			restore(actual, gitlab);
+		}
+
+		ChangePlan plan = new ChangePlan(diff(actual, target, gitlab));
+		LOGGER.info("Computing the change plan - completed");
+		return plan;
+	}
+
+	private static Snapshot capture(Gitlab gitlab) {
+		GitlabState state = gitlab.getState();
+
+		Map<String, List<Member>> members = new LinkedHashMap<>();
+		gitlab.getGroups().forEach(group -> members.put(group.getName(), new ArrayList<>(state.getGroupMembers(group))));
+
+		Map<String, UserFlags> users = new TreeMap<>();
+		state.getUsers().forEach((username, user) -> users.put(username, new UserFlags(user.getIsAdmin(), user.getState())));
+
+		return new Snapshot(members, users);
+	}
+
+	private static void restore(Snapshot snapshot, Gitlab gitlab) {
+		GitlabState state = gitlab.getState();
+		gitlab.getGroups().forEach(group -> state.setGroupMembers(group, snapshot.members().get(group.getName())));
+		state.getUsers().forEach((username, user) -> {
+			UserFlags flags = snapshot.users().get(username);
+			user.setIsAdmin(flags.isAdmin());
+			user.setState(flags.state());
+		});
+	}
+
+	private static List<ChangeOperation> diff(Snapshot actual, Snapshot target, Gitlab gitlab) {
+		List<ChangeOperation> operations = new ArrayList<>();
+		Map<String, User> users = gitlab.getState().getUsers();
+
+		// users
+		actual.users().forEach((username, actualFlags) -> {
+			UserFlags targetFlags = target.users().get(username);
+			Long userId = users.get(username).getId();
+			if (BLOCKED.equals(actualFlags.state()) && !BLOCKED.equals(targetFlags.state())) {
+				operations.add(new ChangeOperation(UNBLOCK_USER, null, userId, username, null, null));
+			} else if (!BLOCKED.equals(actualFlags.state()) && BLOCKED.equals(targetFlags.state())) {
+				operations.add(new ChangeOperation(BLOCK_USER, null, userId, username, null, null));
+			}
+			if (!Boolean.TRUE.equals(actualFlags.isAdmin()) && Boolean.TRUE.equals(targetFlags.isAdmin())) {
+				operations.add(new ChangeOperation(PROMOTE_TO_ADMIN, null, userId, username, null, null));
+			}
+		});
+
+		// group members
+		for (Group group : gitlab.getGroups()) {
+			Map<Long, Member> actualMembers = byId(actual.members().get(group.getName()));
+			Map<Long, Member> targetMembers = byId(target.members().get(group.getName()));
+			List<ChangeOperation> removals = new ArrayList<>();
+			List<ChangeOperation> changes = new ArrayList<>();
+			List<ChangeOperation> additions = new ArrayList<>();
+
+			actualMembers.forEach((id, member) -> {
+				Member targetMember = targetMembers.get(id);
+				if (targetMember == null) {
+					removals.add(new ChangeOperation(REMOVE_MEMBER, group, id, member.getUsername(),
+							member.getAccessLevel(), null));
+				} else if (!Objects.equals(member.getAccessLevel(), targetMember.getAccessLevel())) {
+					changes.add(new ChangeOperation(CHANGE_ACCESS_LEVEL, group, id, member.getUsername(),
+							member.getAccessLevel(), targetMember.getAccessLevel()));
+				}
+			});
+			targetMembers.forEach((id, member) -> {
+				if (!actualMembers.containsKey(id)) {
+					additions.add(new ChangeOperation(ADD_MEMBER, group, id, member.getUsername(),
+							null, member.getAccessLevel()));
+				}
+			});
+
+			Comparator<ChangeOperation> byUsername = Comparator.comparing(ChangeOperation::username);
+			removals.stream().sorted(byUsername).forEach(operations::add);
+			changes.stream().sorted(byUsername).forEach(operations::add);
+			additions.stream().sorted(byUsername).forEach(operations::add);
+		}
+
+		return operations;
+	}
+
+	private static Map<Long, Member> byId(List<Member> members) {
+		Map<Long, Member> map = new LinkedHashMap<>();
+		members.forEach(member -> map.put(member.getId(), member));
+		return map;
+	}
+
+	private record UserFlags(Boolean isAdmin, String state) {
+	}
+
+	/**
+	 * Key of members = group name.
+	 * Key of users = user name.
+	 */
+	private record Snapshot(Map<String, List<Member>> members, Map<String, UserFlags> users) {
+	}
+
+}
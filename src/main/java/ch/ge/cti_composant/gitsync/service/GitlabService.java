@@ -21,8 +21,10 @@ package ch.ge.cti_composant.gitsync.service;
 import ch.ge.cti_composant.gitsync.util.MissionUtils;
 import ch.ge.cti_composant.gitsync.util.gitlab.Gitlab;
 import ch.ge.cti_composant.gitsync.util.gitlab.GitlabAPIWrapper;
+import ch.ge.cti_composant.gitsync.util.gitlab.GitlabState;
 import ch.ge.cti_composant.gitsync.util.ldap.LdapGroup;
 import ch.ge.cti_composant.gitsync.util.ldap.LdapTree;
+import ch.ge.cti_composant.gitsync.util.metrics.Metrics;
 import org.gitlab4j.api.GitLabApi;
 import org.gitlab4j.api.models.Group;
 import org.gitlab4j.api.models.GroupParams;
@@ -30,61 +32,135 @@ import org.gitlab4j.api.models.Visibility;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
 /**
  * Service for GitLab operations.
+ * <p>
+ * The data that do not depend on the LDAP tree (the users and the groups) can be retrieved by {@link #prefetch()}
+ * while the LDAP tree is being loaded, before {@link #buildGitlabContext(LdapTree)} is called.
+ * </p>
  */
 public class GitlabService {
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(GitlabService.class);
 
+	private final GitlabAPIWrapper api;
+
+	private final GitlabState state;
+
+	/**
+	 * The GitLab groups, once retrieved.
+	 */
+	private List<Group> groups;
+
+	public GitlabService(String hostname, String apiToken) {
+		this(logOn(hostname, apiToken));
+	}
+
+	/**
+	 * Constructor, for a connection to GitLab that has already been opened, for example by a previous run.
+	 */
+	public GitlabService(GitlabAPIWrapper api) {
+		this.api = api;
+		this.state = new GitlabState(api);
+	}
+
+	/**
+	 * Retrieves the GitLab users and the GitLab groups. This method does not need the LDAP tree.
+	 */
+	public void prefetch() {
+		LOGGER.info("Retrieving the GitLab users and groups");
+		Metrics.recordGitlabUsers(state.getUsers().size());
+		groups = api.getGroups();
+		LOGGER.info("Retrieving the GitLab users and groups - completed");
+	}
+
 	/**
 	 * Constructs the in-memory GitLab tree (groups and users) from the specified LDAP tree.
 	 *
 	 * @return the GitLab tree, <b>restricted to the elements that come from the LDAP server</b>.
 	 */
-	public Gitlab buildGitlabContext(String hostname, String apiToken, LdapTree ldapTree) {
-		// log on to GitLab
-		LOGGER.info("Logging on to the GitLab server");
-		GitlabAPIWrapper api = new GitlabAPIWrapper(new GitLabApi(hostname, apiToken));
+	public Gitlab buildGitlabContext(LdapTree ldapTree) {
+		return buildGitlabContext(ldapTree, groupName -> true);
+	}
+
+	/**
+	 * Constructs the in-memory GitLab tree (groups and users) from the specified LDAP tree. Only the missing groups
+	 * accepted by the specified filter are created: with several shards, a group is created by its shard only.
+	 *
+	 * @param groupCreationFilter accepts the names of the LDAP groups to create in GitLab, if missing
+	 * @return the GitLab tree, <b>restricted to the elements that come from the LDAP server</b>.
+	 */
+	public Gitlab buildGitlabContext(LdapTree ldapTree, Predicate<String> groupCreationFilter) {
+		// retrieve the GitLab groups, unless already done
+		if (groups == null) {
+			LOGGER.info("Retrieving the GitLab groups");
+			groups = api.getGroups();
+			LOGGER.info("Retrieving the GitLab groups - completed");
+		}
+		// like the paths in GitLab, the index ignores the case
+		Map<String, Group> groupsByPath = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+		groups.forEach(group -> groupsByPath.put(getFullPath(group), group));
 
 		// create the missing groups on GitLab
 		LOGGER.info("Creating the missing GitLab groups");
+		List<Group> allGroups = new ArrayList<>(groups);
 		ldapTree.getGroups().stream()
 				.filter(ldapGroup -> !isLdapGroupAdmin(ldapGroup))
+				.filter(ldapGroup -> groupCreationFilter.test(ldapGroup.getName()))
 				.filter(MissionUtils::validateGroupNameCompliantStandardGroups)
-				.filter(ldapGroup -> !MissionUtils.validateGitlabGroupExistence(ldapGroup, api))
+				.filter(ldapGroup -> !MissionUtils.validateGitlabGroupExistence(ldapGroup, groupsByPath))
 				.forEach(ldapGroup -> {
 					LOGGER.info("    Group [{}] does not exist: creating it in GitLab", ldapGroup.getName());
-					createGroup(ldapGroup, api);
+					Group createdGroup = createGroup(ldapGroup, api);
+					// null in dry-run mode
+					if (createdGroup != null) {
+						allGroups.add(createdGroup);
+						Metrics.recordGroupCreation();
+					}
 				});
 		LOGGER.info("Creating the missing GitLab groups - completed");
 
-		// retrieve the GitLab groups
-		LOGGER.info("Retrieving the GitLab groups");
-		List<Group> groups = api.getGroups();
-		LOGGER.info("Retrieving the GitLab groups - completed");
-
 		// check and store the GitLab groups in memory
 		LOGGER.info("Constructing the group list");
-		Set<Group> groupsInLdap = groups.stream()
+		Set<Group> groupsInLdap = allGroups.stream()
 				// exclude the groups created independently of LDAP
 				.filter(gitlabGroup -> MissionUtils.validateLdapGroupExistence(gitlabGroup, ldapTree))
 				.collect(Collectors.toSet());
 		LOGGER.info("Constructing the group list - completed");
+		Metrics.recordGitlabGroups(groupsInLdap.size());
+
+		return new Gitlab(groupsInLdap, api, state);
+	}
 
-		return new Gitlab(groupsInLdap, hostname, apiToken);
+	/**
+	 * Opens a connection to the GitLab server.
+	 */
+	public static GitlabAPIWrapper logOn(String hostname, String apiToken) {
+		LOGGER.info("Logging on to the GitLab server");
+		return new GitlabAPIWrapper(new GitLabApi(hostname, apiToken));
 	}
 
-	private void createGroup(LdapGroup ldapGroup, GitlabAPIWrapper api) {
+	private Group createGroup(LdapGroup ldapGroup, GitlabAPIWrapper api) {
 		GroupParams groupParams = new GroupParams()
 				.withName(ldapGroup.getName())
 				.withPath(ldapGroup.getName())
 				.withVisibility(Visibility.INTERNAL.toValue());
-		api.createGroup(groupParams);
+		return api.createGroup(groupParams);
+	}
+
+	/**
+	 * Returns the path of the group, including the paths of its parent groups.
+	 */
+	private static String getFullPath(Group group) {
+		return group.getFullPath() != null ? group.getFullPath() : group.getPath();
 	}
 
 	private static boolean isLdapGroupAdmin(LdapGroup group) {
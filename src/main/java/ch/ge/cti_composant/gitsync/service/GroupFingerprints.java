@@ -0,0 +1,207 @@
+/*
+ * gitsync
+ *
+ * Copyright (C) 2017-2019 République et canton de Genève
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.ge.cti_composant.gitsync.service;
+
+import ch.ge.cti_composant.gitsync.util.AtomicFiles;
+import ch.ge.cti_composant.gitsync.util.Json;
+import ch.ge.cti_composant.gitsync.util.MissionUtils;
+import ch.ge.cti_composant.gitsync.util.exception.GitSyncException;
+import ch.ge.cti_composant.gitsync.util.gitlab.Gitlab;
+import ch.ge.cti_composant.gitsync.util.gitlab.GitlabState;
+import ch.ge.cti_composant.gitsync.util.ldap.LdapTree;
+import com.fasterxml.jackson.core.type.TypeReference;
+import org.gitlab4j.api.models.Group;
+import org.gitlab4j.api.models.Member;
+import org.gitlab4j.api.models.User;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+
+import static java.lang.Boolean.TRUE;
+
+/**
+ * Skips the groups that are known to be in order.
+ * <p>
+ * The fingerprint of a group is made of two hashes: a hash of its GitLab members (sorted user names, with the
+ * access level and the external and administrator flags of the GitLab account) and a hash of its LDAP users. The latter also covers the data that every group depends on:
+ * the configuration, the set of all LDAP users, the users of the admin group and of the owner group, and the
+ * GitLab accounts of the LDAP users (existence, external flag and administrator flag).
+ * At the end of every successful run the fingerprints of the resulting state are saved. The next run retrieves
+ * the members of all groups as usual, then skips the groups whose fingerprint is unchanged: such groups were
+ * compliant at the end of the last run, and neither LDAP nor GitLab has changed them since then.
+ * Contrary to {@link IncrementalSync}, a member added by hand in GitLab is therefore noticed at once.
+ * </p>
+ */
+public class GroupFingerprints {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(GroupFingerprints.class);
+
+	private static final TypeReference<Map<String, Fingerprint>> FINGERPRINTS_TYPE = new TypeReference<>() {
+	};
+
+	private final Path file;
+
+	private final String configurationHash;
+
+	private Map<String, Fingerprint> previous;
+
+	private Set<Group> checkedGroups;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param file the file where the fingerprints are stored
+	 * @param configurationHash hash of the configuration of the run
+	 */
+	public GroupFingerprints(Path file, String configurationHash) {
+		this.file = Objects.requireNonNull(file);
+		this.configurationHash = configurationHash;
+	}
+
+	/**
+	 * Returns the GitLab context restricted to the groups whose fingerprint has changed since the last run.
+	 * The members of all groups are retrieved.
+	 *
+	 * @param force true to keep all groups. The fingerprints are saved nonetheless
+	 */
+	public Gitlab skipVerifiedGroups(LdapTree ldapTree, Gitlab gitlab, boolean force) {
+		previous = load();
+		checkedGroups = gitlab.getGroups();
+		if (force) {
+			return gitlab;
+		}
+
+		Map<String, Fingerprint> current = computeFingerprints(ldapTree, gitlab.getState(), checkedGroups);
+		List<Group> groupsToProcess = new ArrayList<>();
+		for (Group group : checkedGroups) {
+			if (current.get(group.getName()).equals(previous.get(group.getName()))) {
+				LOGGER.debug("    Group [{}] verified", group.getName());
+			} else {
+				groupsToProcess.add(group);
+			}
+		}
+		LOGGER.info("Group fingerprints: {} group(s) verified, {} group(s) to process",
+				checkedGroups.size() - groupsToProcess.size(), groupsToProcess.size());
+		return gitlab.restrictTo(groupsToProcess);
+	}
+
+	/**
+	 * Saves the fingerprints of the resulting state. To be called only when the run has succeeded.
+	 */
+	public void save(LdapTree ldapTree, GitlabState state) {
+		if (checkedGroups == null) {
+			throw new GitSyncException("Method skipVerifiedGroups must be called before method save");
+		}
+
+		Map<String, Fingerprint> fingerprints = new TreeMap<>(previous);
+		fingerprints.putAll(computeFingerprints(ldapTree, state, checkedGroups));
+		try {
+			AtomicFiles.write(file, out -> Json.MAPPER.writeValue(out, fingerprints));
+		} catch (IOException e) {
+			throw new GitSyncException("Could not write the group fingerprints to file [" + file + "]", e);
+		}
+		LOGGER.info("Group fingerprints written to file [{}]", file);
+	}
+
+	private Map<String, Fingerprint> load() {
+		if (Files.exists(file)) {
+			try {
+				return Json.MAPPER.readValue(file.toFile(), FINGERPRINTS_TYPE);
+			} catch (IOException e) {
+				LOGGER.warn("Could not read the group fingerprints from file [{}]: {}", file, e.getMessage());
+			}
+		}
+		return Map.of();
+	}
+
+	private Map<String, Fingerprint> computeFingerprints(LdapTree ldapTree, GitlabState state, Set<Group> groups) {
+		Map<String, List<String>> ldapGroups = IncrementalSync.getLdapGroups(ldapTree);
+		String context = "configuration=" + configurationHash
+				+ "\nusers=" + IncrementalSync.getAllUsers(ldapGroups)
+				+ "\nadmins=" + getUsers(ldapGroups, MissionUtils.getAdministratorGroup())
+				+ "\nowners=" + getUsers(ldapGroups, MissionUtils.getOwnerGroup())
+				+ "\ngitlab=" + IncrementalSync.getGitlabUsers(ldapTree, state)
+				// the owners that are GitLab administrators are not propagated to the groups
+				+ "\ngitlabAdmins=" + IncrementalSync.getGitlabAdmins(ldapTree, state);
+
+		Map<String, Fingerprint> fingerprints = new TreeMap<>();
+		for (Group group : groups) {
+			String ldapHash = hash(context + "\ngroup=" + ldapGroups.getOrDefault(group.getName(), List.of()));
+			String gitlabHash = hash(getMembers(state.getGroupMembers(group), state.getUsers()));
+			fingerprints.put(group.getName(), new Fingerprint(ldapHash, gitlabHash));
+		}
+		return fingerprints;
+	}
+
+	private static List<String> getUsers(Map<String, List<String>> ldapGroups, String groupName) {
+		return groupName == null ? List.of() : ldapGroups.getOrDefault(groupName, List.of());
+	}
+
+	/**
+	 * Returns the members with their flags: the members that are not LDAP users are cleaned according to them (BR2).
+	 */
+	private static String getMembers(List<Member> members, Map<String, User> users) {
+		StringBuilder sb = new StringBuilder();
+		members.stream()
+				.map(member -> member.getUsername() + ":"
+						+ (member.getAccessLevel() == null ? "" : member.getAccessLevel().value) + ":"
+						+ getFlags(users.get(member.getUsername())))
+				.sorted()
+				.forEach(line -> sb.append(line).append('\n'));
+		return sb.toString();
+	}
+
+	private static String getFlags(User user) {
+		return user == null
+				? ""
+				: "external=" + MissionUtils.isGitlabUserExternal(user) + ",admin=" + TRUE.equals(user.getIsAdmin());
+	}
+
+	private static String hash(String value) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			return HexFormat.of().formatHex(digest.digest(value.getBytes(StandardCharsets.UTF_8)));
+		} catch (NoSuchAlgorithmException e) {
+			throw new GitSyncException(e);
+		}
+	}
+
+	/**
+	 * Fingerprint of a group.
+	 *
+	 * @param ldap hash of the LDAP users of the group and of the data that every group depends on
+	 * @param gitlab hash of the GitLab members of the group
+	 */
+	public record Fingerprint(String ldap, String gitlab) {
+	}
+
+}
@@ -0,0 +1,269 @@
+/*
+ * gitsync
+ *
+ * Copyright (C) 2017-2019 République et canton de Genève
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.ge.cti_composant.gitsync.service;
+
+import ch.ge.cti_composant.gitsync.util.AtomicFiles;
+import ch.ge.cti_composant.gitsync.util.Json;
+import ch.ge.cti_composant.gitsync.util.MissionUtils;
+import ch.ge.cti_composant.gitsync.util.exception.GitSyncException;
+import ch.ge.cti_composant.gitsync.util.gitlab.Gitlab;
+import ch.ge.cti_composant.gitsync.util.gitlab.GitlabState;
+import ch.ge.cti_composant.gitsync.util.ldap.LdapGroup;
+import ch.ge.cti_composant.gitsync.util.ldap.LdapTree;
+import ch.ge.cti_composant.gitsync.util.ldap.LdapUser;
+import org.gitlab4j.api.models.Group;
+import org.gitlab4j.api.models.User;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.LongSupplier;
+import java.util.stream.Collectors;
+
+import static java.lang.Boolean.TRUE;
+
+/**
+ * Restricts a run to the groups that have changed since the last successful run.
+ * <p>
+ * At the end of every successful run a {@link SyncSnapshot} is saved to disk. The next run compares it with
+ * the current LDAP tree and processes only the groups whose LDAP users have changed, plus the new groups.
+ * All groups are processed (full synchronization) when:
+ * </p>
+ * <ul>
+ *     <li>it is requested, or there is no usable snapshot;</li>
+ *     <li>the last full synchronization is older than the configured interval. This catches the modifications
+ *     made by hand in GitLab, which are invisible to the comparison;</li>
+ *     <li>the configuration has changed;</li>
+ *     <li>a change affects every group: the set of all LDAP users, the users of the admin group or of the owner
+ *     group, or the GitLab accounts of the LDAP users (existence, external flag and administrator flag)
+ *     have changed.</li>
+ * </ul>
+ * <p>
+ * The missions on users only ({@code BlockOrUnblockUsers}, {@code PromoteAdminUsers}) are not affected.
+ * </p>
+ */
+public class IncrementalSync {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(IncrementalSync.class);
+
+	private final Path snapshotFile;
+
+	private final Duration fullSyncInterval;
+
+	private final String configurationHash;
+
+	private final LongSupplier clock;
+
+	private SyncSnapshot previous;
+
+	private boolean fullSync;
+
+	private Set<Group> processedGroups;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param snapshotFile the file where the snapshot is stored
+	 * @param fullSyncInterval maximum time between two full synchronizations
+	 * @param configurationHash hash of the configuration of the run
+	 */
+	public IncrementalSync(Path snapshotFile, Duration fullSyncInterval, String configurationHash) {
+		this(snapshotFile, fullSyncInterval, configurationHash, System::currentTimeMillis);
+	}
+
+	IncrementalSync(Path snapshotFile, Duration fullSyncInterval, String configurationHash, LongSupplier clock) {
+		this.snapshotFile = Objects.requireNonNull(snapshotFile);
+		this.fullSyncInterval = Objects.requireNonNull(fullSyncInterval);
+		this.configurationHash = configurationHash;
+		this.clock = clock;
+	}
+
+	/**
+	 * Returns the GitLab context restricted to the groups to be processed.
+	 *
+	 * @param forceFullSync true to process all groups
+	 */
+	public Gitlab selectGroups(LdapTree ldapTree, Gitlab gitlab, boolean forceFullSync) {
+		previous = load();
+		String reason = getFullSyncReason(ldapTree, gitlab, forceFullSync);
+		if (reason != null) {
+			LOGGER.info("Full synchronization, because {}", reason);
+			fullSync = true;
+			processedGroups = gitlab.getGroups();
+			return gitlab;
+		}
+
+		fullSync = false;
+		Gitlab restricted = gitlab.restrictTo(gitlab.getGroups().stream()
+				.filter(group -> hasChanged(group, ldapTree))
+				.toList());
+		processedGroups = restricted.getGroups();
+		LOGGER.info("Incremental synchronization: {} group(s) out of {} changed since the last run",
+				processedGroups.size(), gitlab.getGroups().size());
+		processedGroups.forEach(group -> LOGGER.info("    Group [{}] has changed", group.getName()));
+		return restricted;
+	}
+
+	/**
+	 * Saves the snapshot of the run. To be called only when the run has succeeded.
+	 */
+	public void saveSnapshot(LdapTree ldapTree, GitlabState state) {
+		if (processedGroups == null) {
+			throw new GitSyncException("Method selectGroups must be called before method saveSnapshot");
+		}
+
+		Set<String> gitlabGroups = new TreeSet<>();
+		if (!fullSync && previous.gitlabGroups() != null) {
+			gitlabGroups.addAll(previous.gitlabGroups());
+		}
+		processedGroups.forEach(group -> gitlabGroups.add(group.getName()));
+
+		SyncSnapshot snapshot = new SyncSnapshot(
+				SyncSnapshot.CURRENT_VERSION,
+				fullSync ? clock.getAsLong() : previous.lastFullSync(),
+				configurationHash,
+				getLdapGroups(ldapTree),
+				getGitlabUsers(ldapTree, state),
+				getGitlabAdmins(ldapTree, state),
+				gitlabGroups);
+
+		try {
+			AtomicFiles.write(snapshotFile, out -> Json.MAPPER.writeValue(out, snapshot));
+		} catch (IOException e) {
+			throw new GitSyncException("Could not write the snapshot to file [" + snapshotFile + "]", e);
+		}
+		LOGGER.info("Snapshot written to file [{}]", snapshotFile);
+	}
+
+	/**
+	 * Returns true if the last call to {@link #selectGroups(LdapTree, Gitlab, boolean)} selected all groups.
+	 */
+	public boolean isFullSync() {
+		return fullSync;
+	}
+
+	private SyncSnapshot load() {
+		if (!Files.exists(snapshotFile)) {
+			return null;
+		}
+		try {
+			return Json.MAPPER.readValue(snapshotFile.toFile(), SyncSnapshot.class);
+		} catch (IOException e) {
+			LOGGER.warn("Could not read the snapshot from file [{}]: {}", snapshotFile, e.getMessage());
+			return null;
+		}
+	}
+
+	private String getFullSyncReason(LdapTree ldapTree, Gitlab gitlab, boolean forceFullSync) {
+		if (forceFullSync) {
+			return "it was requested";
+		} else if (previous == null || previous.ldapGroups() == null || previous.gitlabUsers() == null) {
+			return "there is no previous snapshot";
+		} else if (previous.version() != SyncSnapshot.CURRENT_VERSION) {
+			return "the format of the snapshot has changed";
+		} else if (clock.getAsLong() - previous.lastFullSync() >= fullSyncInterval.toMillis()) {
+			return "the last full synchronization is older than " + fullSyncInterval.toHours() + " hour(s)";
+		} else if (!Objects.equals(configurationHash, previous.configurationHash())) {
+			return "the configuration has changed";
+		}
+
+		Map<String, List<String>> ldapGroups = getLdapGroups(ldapTree);
+		if (!getAllUsers(ldapGroups).equals(getAllUsers(previous.ldapGroups()))) {
+			return "the set of LDAP users has changed";
+		} else if (hasChanged(MissionUtils.getAdministratorGroup(), ldapGroups)
+				|| hasChanged(MissionUtils.getOwnerGroup(), ldapGroups)) {
+			return "the admin group or the owner group has changed";
+		} else if (!getGitlabUsers(ldapTree, gitlab.getState()).equals(previous.gitlabUsers())
+				|| !getGitlabAdmins(ldapTree, gitlab.getState()).equals(previous.gitlabAdmins())) {
+			return "the GitLab accounts of the LDAP users have changed";
+		}
+		return null;
+	}
+
+	private boolean hasChanged(Group group, LdapTree ldapTree) {
+		List<String> previousUsers = previous.ldapGroups().get(group.getName());
+		return previousUsers == null
+				|| previous.gitlabGroups() == null
+				|| !previous.gitlabGroups().contains(group.getName())
+				|| !previousUsers.equals(getUserNames(ldapTree.getUsers(group.getName())));
+	}
+
+	private boolean hasChanged(String groupName, Map<String, List<String>> ldapGroups) {
+		return groupName != null && !Objects.equals(ldapGroups.get(groupName), previous.ldapGroups().get(groupName));
+	}
+
+	/**
+	 * Returns the LDAP groups. Key = group name, value = names of the users of the group, sorted.
+	 */
+	static Map<String, List<String>> getLdapGroups(LdapTree ldapTree) {
+		Map<String, List<String>> ldapGroups = new TreeMap<>();
+		for (LdapGroup group : ldapTree.getGroups()) {
+			ldapGroups.put(group.getName(), getUserNames(ldapTree.getUsers(group)));
+		}
+		return ldapGroups;
+	}
+
+	private static List<String> getUserNames(Map<String, LdapUser> users) {
+		return users.keySet().stream().sorted().toList();
+	}
+
+	/**
+	 * Returns the names of the users of all groups, sorted.
+	 */
+	static Set<String> getAllUsers(Map<String, List<String>> ldapGroups) {
+		return ldapGroups.values().stream()
+				.flatMap(List::stream)
+				.collect(Collectors.toCollection(TreeSet::new));
+	}
+
+	/**
+	 * Returns the LDAP users that exist in GitLab. Key = user name, value = true if the GitLab user is external.
+	 */
+	static Map<String, Boolean> getGitlabUsers(LdapTree ldapTree, GitlabState state) {
+		Map<String, User> users = state.getUsers();
+		Map<String, Boolean> gitlabUsers = new TreeMap<>();
+		getAllUsers(getLdapGroups(ldapTree)).forEach(name -> {
+			User user = users.get(name);
+			if (user != null) {
+				gitlabUsers.put(name, MissionUtils.isGitlabUserExternal(user));
+			}
+		});
+		return gitlabUsers;
+	}
+
+	/**
+	 * Returns the names of the LDAP users that are administrators in GitLab, sorted.
+	 */
+	static Set<String> getGitlabAdmins(LdapTree ldapTree, GitlabState state) {
+		Map<String, User> users = state.getUsers();
+		return getAllUsers(getLdapGroups(ldapTree)).stream()
+				.filter(name -> users.containsKey(name) && TRUE.equals(users.get(name).getIsAdmin()))
+				.collect(Collectors.toCollection(TreeSet::new));
+	}
+
+}
@@ -0,0 +1,89 @@
+/*
+ * gitsync
+ *
+ * Copyright (C) 2017-2019 République et canton de Genève
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.ge.cti_composant.gitsync.service;
+
+import ch.ge.cti_composant.gitsync.util.exception.GitSyncException;
+import ch.ge.cti_composant.gitsync.util.gitlab.Gitlab;
+import org.gitlab4j.api.models.Group;
+
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * A part of the GitLab groups, processed by one of several GitSync instances.
+ * <p>
+ * A group belongs to the shard whose index is the hash of its name modulo the number of shards. The hash of a
+ * string is the same in all JVMs, so that all instances agree on the split without exchanging anything.
+ * The work on the whole GitLab instance (users blocked, administrators promoted) is performed by the designated
+ * shard only.
+ * </p>
+ *
+ * @param index index of the shard, from 0 to {@code count} - 1
+ * @param count number of shards
+ */
+public record Shard(int index, int count) {
+
+	/**
+	 * Index of the shard that also performs the work on the whole GitLab instance.
+	 */
+	public static final int DESIGNATED_INDEX = 0;
+
+	public Shard {
+		if (count < 1 || index < 0 || index >= count) {
+			throw new GitSyncException("Invalid shard " + index + " of " + count
+					+ ": the index must be between 0 and the number of shards - 1");
+		}
+	}
+
+	public boolean isDesignated() {
+		return index == DESIGNATED_INDEX;
+	}
+
+	/**
+	 * Checks whether the specified group belongs to this shard.
+	 */
+	public boolean owns(String groupName) {
+		return Math.floorMod(groupName.hashCode(), count) == index;
+	}
+
+	/**
+	 * Restricts the specified context to the groups of this shard.
+	 */
+	public Gitlab selectGroups(Gitlab gitlab) {
+		List<Group> groups = gitlab.getGroups().stream()
+				.filter(group -> owns(group.getName()))
+				.toList();
+		return gitlab.restrictTo(groups);
+	}
+
+	/**
+	 * Returns the file of this shard corresponding to the specified file, for example
+	 * {@code gitsync-snapshot.shard-1.json} for {@code gitsync-snapshot.json}. The shards can thus keep their
+	 * files in the same directory.
+	 */
+	public Path getFile(Path file) {
+		String name = file.getFileName().toString();
+		int dot = name.lastIndexOf('.');
+		String suffix = ".shard-" + index;
+		return file.resolveSibling(dot > 0
+				? name.substring(0, dot) + suffix + name.substring(dot)
+				: name + suffix);
+	}
+
+}
@@ -0,0 +1,243 @@
+/*
+ * gitsync
+ *
+ * Copyright (C) 2017-2019 République et canton de Genève
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.ge.cti_composant.gitsync.service;
+
+import ch.ge.cti_composant.gitsync.util.exception.GitSyncException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.OptionalInt;
+import java.util.Properties;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+/**
+ * Distributes the shards among several GitSync instances, by means of a file on a filesystem shared by the
+ * instances.
+ * <p>
+ * The file records, for every shard, the instance that holds it, until when, and when it was last leased. An
+ * instance takes the shard it already holds, otherwise, among the shards that are free or whose lease has
+ * expired, the one leased the longest ago: with fewer instances than shards, the instances thus take the shards
+ * in turn. A shard not leased for more than the lease duration is logged as an error, because its groups are no
+ * longer synchronized.
+ * </p>
+ * <p>
+ * An instance that stops without releasing its shard blocks it only until the lease expires. The instance renews
+ * its lease during the run, so that a run longer than the lease duration keeps its shard. The file is locked while
+ * being read and written, so the shared filesystem must support file locks.
+ * </p>
+ */
+public class ShardLease {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ShardLease.class);
+
+	private static final String OWNER = ".owner";
+
+	private static final String EXPIRY = ".expiry";
+
+	private static final String LEASED = ".leased";
+
+	/**
+	 * Time the lease file was created: the shards never leased are considered as not leased since then.
+	 */
+	private static final String CREATED = "created";
+
+	private final Path leaseFile;
+
+	private final int shardCount;
+
+	private final Duration duration;
+
+	/**
+	 * Identifier of this instance.
+	 */
+	private final String owner;
+
+	/**
+	 * Current time, in milliseconds.
+	 */
+	private final LongSupplier clock;
+
+	/**
+	 * The shard held, or -1.
+	 */
+	private int heldShard = -1;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param leaseFile file shared by all instances. It is created if needed
+	 * @param shardCount number of shards
+	 * @param duration duration of a lease
+	 */
+	public ShardLease(Path leaseFile, int shardCount, Duration duration) {
+		this(leaseFile, shardCount, duration, ManagementFactory.getRuntimeMXBean().getName(), System::currentTimeMillis);
+	}
+
+	ShardLease(Path leaseFile, int shardCount, Duration duration, String owner, LongSupplier clock) {
+		this.leaseFile = leaseFile;
+		this.shardCount = shardCount;
+		this.duration = duration;
+		this.owner = owner;
+		this.clock = clock;
+	}
+
+	/**
+	 * Takes or renews a shard.
+	 *
+	 * @return the index of the shard, or nothing if all shards are held by other instances
+	 */
+	public synchronized OptionalInt acquire() {
+		long now = clock.getAsLong();
+		int[] acquired = {-1};
+		List<Integer> neglected = new ArrayList<>();
+		update(leases -> {
+			leases.putIfAbsent(CREATED, String.valueOf(now));
+			int free = -1;
+			for (int i = 0; i < shardCount; i++) {
+				String holder = leases.getProperty(i + OWNER);
+				long expiry = Long.parseLong(leases.getProperty(i + EXPIRY, "0"));
+				if (owner.equals(holder)) {
+					acquired[0] = i;
+					break;
+				} else if ((holder == null || expiry <= now)
+						&& (free < 0 || getLastLeased(leases, i) < getLastLeased(leases, free))) {
+					free = i;
+				}
+			}
+			if (acquired[0] < 0) {
+				acquired[0] = free;
+			}
+			if (acquired[0] >= 0) {
+				lease(leases, acquired[0], now);
+			}
+			for (int i = 0; i < shardCount; i++) {
+				long since = Math.max(getLastLeased(leases, i), Long.parseLong(leases.getProperty(CREATED)));
+				if (now - since > duration.toMillis()) {
+					neglected.add(i);
+				}
+			}
+		});
+		if (!neglected.isEmpty()) {
+			LOGGER.error("Shards {} of lease file [{}] have not been leased for more than {} minutes, so their groups"
+					+ " are not synchronized. Start more instances, or reduce the number of shards",
+					neglected, leaseFile, duration.toMinutes());
+		}
+		heldShard = acquired[0];
+		if (heldShard < 0) {
+			LOGGER.warn("All {} shards of lease file [{}] are held by other instances", shardCount, leaseFile);
+			return OptionalInt.empty();
+		}
+		LOGGER.info("Shard {} of {} leased by [{}] for {} minutes", heldShard, shardCount, owner, duration.toMinutes());
+		return OptionalInt.of(heldShard);
+	}
+
+	/**
+	 * Extends the lease of the shard held, if any. To be called during a run, so that a run longer than the lease
+	 * duration keeps its shard.
+	 *
+	 * @throws GitSyncException if the lease has expired and the shard has been taken by another instance
+	 */
+	public synchronized void renew() {
+		if (heldShard < 0) {
+			return;
+		}
+		int shard = heldShard;
+		long now = clock.getAsLong();
+		boolean[] renewed = {false};
+		update(leases -> {
+			if (owner.equals(leases.getProperty(shard + OWNER))) {
+				lease(leases, shard, now);
+				renewed[0] = true;
+			}
+		});
+		if (!renewed[0]) {
+			heldShard = -1;
+			throw new GitSyncException("Shard " + shard + " has been taken by another instance, because its lease"
+					+ " expired. Increase the lease duration");
+		}
+		LOGGER.debug("Lease of shard {} renewed", shard);
+	}
+
+	/**
+	 * Releases the shard held, if any, so that another instance can take it without waiting for the lease to
+	 * expire.
+	 */
+	public synchronized void release() {
+		if (heldShard < 0) {
+			return;
+		}
+		int shard = heldShard;
+		update(leases -> {
+			if (owner.equals(leases.getProperty(shard + OWNER))) {
+				leases.remove(shard + OWNER);
+				leases.remove(shard + EXPIRY);
+			}
+		});
+		heldShard = -1;
+		LOGGER.info("Shard {} released", shard);
+	}
+
+	private void lease(Properties leases, int shard, long now) {
+		leases.setProperty(shard + OWNER, owner);
+		leases.setProperty(shard + EXPIRY, String.valueOf(now + duration.toMillis()));
+		leases.setProperty(shard + LEASED, String.valueOf(now));
+	}
+
+	/**
+	 * Returns the last time the specified shard was leased, or 0 if it has never been leased.
+	 */
+	private static long getLastLeased(Properties leases, int shard) {
+		return Long.parseLong(leases.getProperty(shard + LEASED, "0"));
+	}
+
+	/**
+	 * Reads, modifies and writes the leases, with the file locked.
+	 */
+	private void update(Consumer<Properties> modification) {
+		try (FileChannel channel = FileChannel.open(leaseFile,
+				StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			 FileLock lock = channel.lock()) {
+			Properties leases = new Properties();
+			leases.load(Channels.newInputStream(channel));
+			modification.accept(leases);
+
+			ByteArrayOutputStream content = new ByteArrayOutputStream();
+			leases.store(content, "GitSync shard leases");
+			channel.truncate(0);
+			channel.write(ByteBuffer.wrap(content.toByteArray()), 0);
+			channel.force(true);
+		} catch (IOException e) {
+			throw new GitSyncException("Unable to update lease file [" + leaseFile + "]", e);
+		}
+	}
+
+}
@@ -0,0 +1,51 @@
+/*
+ * gitsync
+ *
+ * Copyright (C) 2017-2019 République et canton de Genève
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.ge.cti_composant.gitsync.service;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * What GitSync knew about the LDAP server and the GitLab server at the end of the last successful run.
+ * Stored as JSON by {@link IncrementalSync}.
+ *
+ * @param version version of the format of this record
+ * @param lastFullSync time of the last run that processed all groups, in milliseconds since the epoch
+ * @param configurationHash hash of the configuration file
+ * @param ldapGroups key = LDAP group name, value = names of the users of the group, sorted
+ * @param gitlabUsers key = name of an LDAP user that exists in GitLab, value = true if the GitLab user is external
+ * @param gitlabAdmins names of the LDAP users that are administrators in GitLab
+ * @param gitlabGroups names of the GitLab groups processed by a successful run since the last full synchronization,
+ *                     included. A group missing from this set is processed by the next run
+ */
+public record SyncSnapshot(int version,
+						   long lastFullSync,
+						   String configurationHash,
+						   Map<String, List<String>> ldapGroups,
+						   Map<String, Boolean> gitlabUsers,
+						   Set<String> gitlabAdmins,
+						   Set<String> gitlabGroups) {
+
+	/**
+	 * Current version of the format.
+	 */
+	public static final int CURRENT_VERSION = 3;
+
+}
@@ -0,0 +1,65 @@
+/*
+ * gitsync
+ *
+ * Copyright (C) 2017-2019 République et canton de Genève
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.ge.cti_composant.gitsync.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Writing of the files read by other runs or by other tools: the content is written to a temporary file next to
+ * the target file, which is then replaced atomically. A reader never sees a partial file, and a failed write leaves
+ * the previous file in place.
+ */
+public class AtomicFiles {
+
+	private AtomicFiles() {
+	}
+
+	/**
+	 * Replaces the specified file with the content written by the specified writer.
+	 */
+	public static void write(Path file, ContentWriter writer) throws IOException {
+		Path absoluteFile = file.toAbsolutePath();
+		Path temporaryFile = Files.createTempFile(
+				absoluteFile.getParent(), absoluteFile.getFileName().toString(), ".tmp");
+		try {
+			try (OutputStream out = Files.newOutputStream(temporaryFile)) {
+				writer.write(out);
+			}
+			Files.move(temporaryFile, absoluteFile,
+					StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temporaryFile);
+		}
+	}
+
+	/**
+	 * Writing of the content of a file.
+	 */
+	@FunctionalInterface
+	public interface ContentWriter {
+
+		void write(OutputStream out) throws IOException;
+
+	}
+
+}
@@ -0,0 +1,71 @@
+/*
+ * gitsync
+ *
+ * Copyright (C) 2017-2019 République et canton de Genève
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.ge.cti_composant.gitsync.util;
+
+import org.slf4j.MDC;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+/**
+ * Propagation of the logging context (MDC) of the current thread to the tasks run on other threads, so that
+ * their log lines carry the same run identifier.
+ */
+public class LogContext {
+
+	private LogContext() {
+	}
+
+	/**
+	 * Returns a task that runs the specified task with the logging context of the current thread.
+	 */
+	public static Runnable wrap(Runnable task) {
+		Map<String, String> context = MDC.getCopyOfContextMap();
+		return () -> {
+			setContext(context);
+			try {
+				task.run();
+			} finally {
+				MDC.clear();
+			}
+		};
+	}
+
+	/**
+	 * Returns a task that runs the specified task with the logging context of the current thread.
+	 */
+	public static <T> Callable<T> wrap(Callable<T> task) {
+		Map<String, String> context = MDC.getCopyOfContextMap();
+		return () -> {
+			setContext(context);
+			try {
+				return task.call();
+			} finally {
+				MDC.clear();
+			}
+		};
+	}
+
+	private static void setContext(Map<String, String> context) {
+		if (context != null) {
+			MDC.setContextMap(context);
+		}
+	}
+
+}
@@ -21,6 +21,7 @@ package ch.ge.cti_composant.gitsync.util;
 import ch.ge.cti_composant.gitsync.GitSync;
 import ch.ge.cti_composant.gitsync.util.exception.GitSyncException;
 import ch.ge.cti_composant.gitsync.util.gitlab.GitlabAPIWrapper;
+import ch.ge.cti_composant.gitsync.util.gitlab.GroupMembership;
 import ch.ge.cti_composant.gitsync.util.ldap.LdapGroup;
 import ch.ge.cti_composant.gitsync.util.ldap.LdapTree;
 import ch.ge.cti_composant.gitsync.util.ldap.LdapUser;
@@ -32,14 +33,13 @@ import org.gitlab4j.api.models.User;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
-import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import static org.gitlab4j.api.models.AccessLevel.ADMIN;
@@ -55,13 +55,11 @@ public class MissionUtils {
 
 	private static Pattern standardGroupUsersPattern;
 
-	private static Map<String, User> gitLabUsers;
-
 	/**
-	 * Key = user name.
-	 * Value = True if external, else False.
+	 * Names of the users whose externality could not be determined. Kept across runs, so that they are logged
+	 * only once.
 	 */
-	private static Map<String, Boolean> userExternalities = new HashMap<>();
+	private static Set<String> usersOfUnknownExternality = ConcurrentHashMap.newKeySet();
 
 	private MissionUtils() {
 	}
@@ -70,8 +68,7 @@ public class MissionUtils {
 	 * Clear caches, for unit tests.
 	 */
 	public static void clearCaches() {
-		gitLabUsers = null;
-		userExternalities = new HashMap<>();
+		usersOfUnknownExternality = ConcurrentHashMap.newKeySet();
 	}
 
 	/**
@@ -88,6 +85,15 @@ public class MissionUtils {
 		return api.getGroup(ldapGroup.getName()) != null;
 	}
 
+	/**
+	 * Checks that the specified group exists in GitLab.
+	 *
+	 * @param groupsByPath the GitLab groups, indexed by their full paths
+	 */
+	public static boolean validateGitlabGroupExistence(LdapGroup ldapGroup, Map<String, Group> groupsByPath) {
+		return groupsByPath.containsKey(ldapGroup.getName());
+	}
+
 	/**
 	 * Checks that the specified ldap group is compliant with standard groups regex.
 	 */
@@ -124,6 +130,15 @@ public class MissionUtils {
 		return usersCount == 1;
 	}
 
+	/**
+	 * Checks that the specified user exists in GitLab.
+	 *
+	 * @param usersByName the GitLab users, indexed by user name
+	 */
+	public static boolean validateGitlabUserExistence(LdapUser user, Map<String, User> usersByName) {
+		return usersByName.containsKey(user.getName());
+	}
+
 	/**
 	 * Checks whether the specified GitLab user has admin rights.
 	 */
@@ -137,33 +152,20 @@ public class MissionUtils {
 	 * If the user is neither internal nor external, it is considered as internal.
 	 */
 	public static boolean isGitlabUserExternal(User user) {
+		// the externality is not cached: in daemon mode it may change between two runs
 		var username = user.getUsername();
-		Boolean isExternal = userExternalities.get(username);
-		if (isExternal == null) {
-			if (Boolean.TRUE.equals(user.getBot())) {
-				isExternal = Boolean.FALSE;
-			} else if (user.getExternal() == null) {
+		if (Boolean.TRUE.equals(user.getBot())) {
+			return false;
+		} else if (user.getExternal() == null) {
+			if (usersOfUnknownExternality.add(username)) {
 				LOGGER.info("Cannot determine whether user [{}] is external or not. Assuming it is internal."
 								+ " This is logged only once",
 						username);
-				isExternal = Boolean.FALSE;
-			} else {
-				isExternal = user.getExternal();
 			}
-			userExternalities.put(username, isExternal);
+			return false;
+		} else {
+			return user.getExternal();
 		}
-		return isExternal;
-	}
-
-	/**
-	 * Gets all the gitlab users and returns them in a map.
-	 */
-	public static Map<String, User> getAllGitlabUsers(GitlabAPIWrapper api) {
-		if (gitLabUsers == null) {
-			gitLabUsers = api.getUsers().stream()
-				.collect(Collectors.toMap(User::getUsername, user -> user, (v1, v2) -> v2));
-		}
-		return gitLabUsers;
 	}
 
 	/**
@@ -174,6 +176,13 @@ public class MissionUtils {
 				.anyMatch(member -> Objects.equals(member.getUsername(), username));
 	}
 
+	/**
+	 * Checks whether the specified GitLab user is a member of the group.
+	 */
+	public static boolean isGitlabUserMemberOfGroup(GroupMembership membership, String username) {
+		return membership.isMember(username);
+	}
+
 	/**
 	 * Checks whether the specified GitLab user has at least the specified access level.
 	 */
@@ -183,6 +192,13 @@ public class MissionUtils {
 				.anyMatch(member -> member.getAccessLevel() == ADMIN || member.getAccessLevel().value >= accesslevel.value);
 	}
 
+	/**
+	 * Checks whether the specified GitLab user is a member of the group with at least the specified access level.
+	 */
+	public static boolean validateGitlabGroupMemberHasMinimumAccessLevel(GroupMembership membership, String user, AccessLevel accesslevel) {
+		return membership.hasMinimumAccessLevel(user, accesslevel);
+	}
+
 	/**
 	 * Gets the name of the LDAP group considered as the administrator group.
 	 * See more about this in the README file and in the configuration file.
@@ -0,0 +1,165 @@
+/*
+ * gitsync
+ *
+ * Copyright (C) 2017-2019 République et canton de Genève
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.ge.cti_composant.gitsync.util.gitlab;
+
+import ch.ge.cti_composant.gitsync.util.exception.GitSyncException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Stops the calls to GitLab when GitLab looks unavailable, so that the run fails fast instead of waiting for
+ * every call to exhaust its retries.
+ * <p>
+ * The breaker records the outcome of the last {@code windowSize} calls. When at least half of the window is filled
+ * and the proportion of failures reaches {@code failureRatePercent}, the breaker opens: every call is rejected
+ * during {@code openTimeMillis}. After that, one trial call is let through (half-open state): if it succeeds, the
+ * breaker closes again, otherwise it opens again.
+ * </p>
+ * <p>
+ * Only the failures due to the server (HTTP 5xx, timeouts, network errors) must be recorded as failures. This class
+ * is thread-safe.
+ * </p>
+ */
+public class CircuitBreaker {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(CircuitBreaker.class);
+
+	private enum State { CLOSED, OPEN, HALF_OPEN }
+
+	private final int failureRatePercent;
+
+	private final long openTimeNanos;
+
+	private final LongSupplier clock;
+
+	/**
+	 * Circular buffer of the last outcomes. True = failure.
+	 */
+	private final boolean[] window;
+
+	private int position;
+
+	private int recordedCount;
+
+	private int failureCount;
+
+	private State state = State.CLOSED;
+
+	private long openedAt;
+
+	private boolean trialInProgress;
+
+	public CircuitBreaker(int windowSize, int failureRatePercent, long openTimeMillis) {
+		this(windowSize, failureRatePercent, openTimeMillis, System::nanoTime);
+	}
+
+	CircuitBreaker(int windowSize, int failureRatePercent, long openTimeMillis, LongSupplier clock) {
+		this.window = new boolean[Math.max(windowSize, 1)];
+		this.failureRatePercent = failureRatePercent;
+		this.openTimeNanos = TimeUnit.MILLISECONDS.toNanos(openTimeMillis);
+		this.clock = clock;
+	}
+
+	/**
+	 * Checks that a call may be performed.
+	 *
+	 * @throws GitSyncException if the breaker is open
+	 */
+	public synchronized void acquirePermission() {
+		if (state == State.OPEN && clock.getAsLong() - openedAt >= openTimeNanos) {
+			LOGGER.info("GitLab circuit breaker half-open, trying one call");
+			state = State.HALF_OPEN;
+			trialInProgress = false;
+		}
+		if (state == State.OPEN || (state == State.HALF_OPEN && trialInProgress)) {
+			throw new GitSyncException("GitLab looks unavailable (circuit breaker open), call not performed");
+		}
+		if (state == State.HALF_OPEN) {
+			trialInProgress = true;
+		}
+	}
+
+	/**
+	 * Records a successful call.
+	 */
+	public synchronized void onSuccess() {
+		if (state == State.HALF_OPEN) {
+			LOGGER.info("GitLab circuit breaker closed");
+			state = State.CLOSED;
+			reset();
+		}
+		record(false);
+	}
+
+	/**
+	 * Records a call that failed because of the server.
+	 */
+	public synchronized void onFailure() {
+		if (state == State.HALF_OPEN) {
+			open();
+			return;
+		}
+		record(true);
+		if (state == State.CLOSED
+				&& recordedCount * 2 >= window.length
+				&& failureCount * 100 >= failureRatePercent * recordedCount) {
+			open();
+		}
+	}
+
+	/**
+	 * Checks whether the breaker currently rejects the calls.
+	 */
+	public synchronized boolean isOpen() {
+		return state != State.CLOSED;
+	}
+
+	private void record(boolean failure) {
+		if (recordedCount == window.length) {
+			if (window[position]) {
+				failureCount--;
+			}
+		} else {
+			recordedCount++;
+		}
+		window[position] = failure;
+		if (failure) {
+			failureCount++;
+		}
+		position = (position + 1) % window.length;
+	}
+
+	private void open() {
+		LOGGER.warn("GitLab circuit breaker open: {}/{} recent calls failed, calls rejected for {} ms",
+				failureCount, recordedCount, TimeUnit.NANOSECONDS.toMillis(openTimeNanos));
+		state = State.OPEN;
+		openedAt = clock.getAsLong();
+		trialInProgress = false;
+	}
+
+	private void reset() {
+		position = 0;
+		recordedCount = 0;
+		failureCount = 0;
+	}
+
+}
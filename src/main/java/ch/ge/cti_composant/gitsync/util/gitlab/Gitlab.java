@@ -21,6 +21,7 @@ package ch.ge.cti_composant.gitsync.util.gitlab;
 import org.gitlab4j.api.GitLabApi;
 import org.gitlab4j.api.models.Group;
 
+import java.util.Collection;
 import java.util.Comparator;
 import java.util.LinkedHashSet;
 import java.util.Objects;
@@ -36,14 +37,28 @@ public class Gitlab {
 
 	private final GitlabAPIWrapper api;
 
+	private final GitlabState state;
+
 	private final Set<Group> groups;
 
 	public Gitlab(Set<Group> groups, String url, String apiKey) {
+		this(groups, new GitlabAPIWrapper(new GitLabApi(url, apiKey)));
+	}
+
+	private Gitlab(Set<Group> groups, GitlabAPIWrapper api) {
+		this(groups, api, new GitlabState(api));
+	}
+
+	/**
+	 * Constructor, for a state that has already been loaded (partially or completely).
+	 */
+	public Gitlab(Set<Group> groups, GitlabAPIWrapper api, GitlabState state) {
 		Objects.requireNonNull(groups);
 		this.groups = groups.stream()
 				.sorted(Comparator.comparing(Group::getName))
 				.collect(Collectors.toCollection(LinkedHashSet::new));
-		this.api = new GitlabAPIWrapper(new GitLabApi(url, apiKey));
+		this.api = Objects.requireNonNull(api);
+		this.state = Objects.requireNonNull(state);
 	}
 
 	/**
@@ -53,6 +68,13 @@ public class Gitlab {
 		return api;
 	}
 
+	/**
+	 * Returns the state of the GitLab server (users and group members), shared by all missions of the run.
+	 */
+	public GitlabState getState() {
+		return state;
+	}
+
 	/**
 	 * Returns all GitLab groups, sorted by names.
 	 */
@@ -60,4 +82,11 @@ public class Gitlab {
 		return groups;
 	}
 
+	/**
+	 * Returns a context with the same server and the same state, restricted to the specified groups.
+	 */
+	public Gitlab restrictTo(Collection<Group> subset) {
+		return new Gitlab(new LinkedHashSet<>(subset), api, state);
+	}
+
 }
@@ -20,18 +20,24 @@ package ch.ge.cti_composant.gitsync.util.gitlab;
 
 import ch.ge.cti_composant.gitsync.GitSync;
 import ch.ge.cti_composant.gitsync.util.exception.GitSyncException;
+import ch.ge.cti_composant.gitsync.util.jfr.GitlabCallEvent;
+import ch.ge.cti_composant.gitsync.util.metrics.Metrics;
+import ch.ge.cti_composant.gitsync.util.trace.Trace;
 import org.gitlab4j.api.GitLabApi;
 import org.gitlab4j.api.GitLabApiException;
 import org.gitlab4j.api.models.AccessLevel;
 import org.gitlab4j.api.models.Group;
 import org.gitlab4j.api.models.GroupParams;
 import org.gitlab4j.api.models.Member;
+import org.gitlab4j.api.models.Membership;
 import org.gitlab4j.api.models.User;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.time.Duration;
 import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * A simple wrapper around a {@link GitLabApi} object, to replace the checked exceptions with unchecked exceptions.
@@ -45,9 +51,31 @@ public class GitlabAPIWrapper {
 
 	private static final int HTTP_STATUS_NOT_FOUND = 404;
 
+	private static final int HTTP_STATUS_REQUEST_TIMEOUT = 408;
+
+	private static final int HTTP_STATUS_TOO_MANY_REQUESTS = 429;
+
+	private static final int HTTP_STATUS_SERVER_ERROR = 500;
+
 	private final int maxTries = GitSync.getPropertyAsInt("retry-nb-max-attempts", 3);
 	private final long sleepTime = GitSync.getPropertyAsInt("retry-time-between-attemps", 5000);
 
+	/**
+	 * The calls that take longer are logged. 0 to log no call.
+	 */
+	private final long slowCallThresholdMillis = GitSync.getPropertyAsInt("slow-call-threshold-ms", 2000);
+
+	/**
+	 * Every call to GitLab goes through this limiter.
+	 */
+	private final RateLimiter rateLimiter =
+			new RateLimiter(GitSync.getPropertyAsInt("gitlab-max-requests-per-second", 20));
+
+	/**
+	 * Every call to GitLab is rejected while this breaker is open.
+	 */
+	private final CircuitBreaker circuitBreaker;
+
 	/**
 	 * The wrapped GitLabApi object.
 	 */
@@ -57,7 +85,25 @@ public class GitlabAPIWrapper {
 	 * Constructor.
 	 */
 	public GitlabAPIWrapper(GitLabApi api) {
+		this(api, new CircuitBreaker(
+				GitSync.getPropertyAsInt("circuit-breaker-window", 20),
+				GitSync.getPropertyAsInt("circuit-breaker-failure-rate", 50),
+				GitSync.getPropertyAsInt("circuit-breaker-open-time", 30000)));
+	}
+
+	/**
+	 * Constructor, for the tests.
+	 */
+	GitlabAPIWrapper(GitLabApi api, CircuitBreaker circuitBreaker) {
 		this.api = api;
+		this.circuitBreaker = circuitBreaker;
+	}
+
+	/**
+	 * Returns the limiter of the rate of the calls to GitLab.
+	 */
+	public RateLimiter getRateLimiter() {
+		return rateLimiter;
 	}
 
 	/**
@@ -65,7 +111,7 @@ public class GitlabAPIWrapper {
 	 * Removes the checked exception.
 	 */
 	public List<Group> getGroups() {
-		return run(() -> api.getGroupApi().getGroups());
+		return run("getGroups", null, () -> api.getGroupApi().getGroups());
 	}
 
 	/**
@@ -73,7 +119,7 @@ public class GitlabAPIWrapper {
 	 * Removes the checked exception and returns null (instead of throwing an exception) if the group is not found.
 	 */
 	public Group getGroup(String path) {
-		return run(() -> {
+		return run("getGroup", path, () -> {
 			try {
 				return api.getGroupApi().getGroup(path);
 			} catch (GitLabApiException e) {
@@ -86,26 +132,47 @@ public class GitlabAPIWrapper {
 	}
 
 	public Group createGroup(GroupParams groupParams) {
-		return runOnlyIfNotDryRun(() -> api.getGroupApi().createGroup(groupParams));
+		return runOnlyIfNotDryRun("createGroup", null, () -> api.getGroupApi().createGroup(groupParams));
 	}
 
 	public List<Member> getGroupMembers(Group group) {
-		return run(() -> api.getGroupApi().getMembers(group.getId()));
+		return run("getGroupMembers", group.getName(), () -> api.getGroupApi().getMembers(group.getId()));
 	}
 
 	public Member addGroupMember(Group group, Long userId, AccessLevel accessLevel) {
-		return runOnlyIfNotDryRun(() -> api.getGroupApi().addMember(group, userId, accessLevel));
+		return runOnlyIfNotDryRun("addGroupMember", group.getName(), String.valueOf(userId), accessLevel,
+				() -> api.getGroupApi().addMember(group, userId, accessLevel));
+	}
+
+	public Member updateGroupMember(Group group, Long userId, AccessLevel accessLevel) {
+		return runOnlyIfNotDryRun("updateGroupMember", group.getName(), String.valueOf(userId), accessLevel,
+				() -> api.getGroupApi().updateMember(group.getId(), userId, accessLevel));
 	}
 
 	public void deleteGroupMember(Group group, Long userId) {
-		runOnlyIfNotDryRun(() -> {
+		runOnlyIfNotDryRun("deleteGroupMember", group.getName(), String.valueOf(userId), null, () -> {
 			api.getGroupApi().removeMember(group.getId(), userId);
 			return null;
 		});
 	}
 
 	public User getUser() {
-		return run(() -> api.getUserApi().getCurrentUser());
+		return run("getCurrentUser", null, () -> api.getUserApi().getCurrentUser());
+	}
+
+	/**
+	 * Returns the user having the specified user name, or null if not found.
+	 */
+	public User getUser(String username) {
+		return run("getUser", null, username, null, () -> api.getUserApi().getUser(username));
+	}
+
+	/**
+	 * Returns the direct memberships of the specified user in the groups and in the projects.
+	 */
+	public List<Membership> getUserMemberships(Long userId) {
+		return run("getUserMemberships", null, String.valueOf(userId), null,
+				() -> api.getUserApi().getMemberships(userId));
 	}
 
 	/**
@@ -113,11 +180,11 @@ public class GitlabAPIWrapper {
 	 * Removes the checked exception.
 	 */
 	public List<User> getUsers() {
-		return run(() -> api.getUserApi().getUsers());
+		return run("getUsers", null, () -> api.getUserApi().getUsers());
 	}
 
 	public void promoteToAdmin(Long targetUserId) {
-		runOnlyIfNotDryRun(() -> {
+		runOnlyIfNotDryRun("promoteToAdmin", null, String.valueOf(targetUserId), null, () -> {
 			User user = api.getUserApi().getUser(targetUserId);
 			user.setIsAdmin(true);
 			api.getUserApi().updateUser(user, null);
@@ -126,58 +193,148 @@ public class GitlabAPIWrapper {
 	}
 
 	public void blockUser(Long targetUserId) {
-		runOnlyIfNotDryRun(() -> {
+		runOnlyIfNotDryRun("blockUser", null, String.valueOf(targetUserId), null, () -> {
 			api.getUserApi().blockUser(targetUserId);
 			return null;
 		});
 	}
 
 	public void unblockUser(Long targetUserId) {
-		runOnlyIfNotDryRun(() -> {
+		runOnlyIfNotDryRun("unblockUser", null, String.valueOf(targetUserId), null, () -> {
 			api.getUserApi().unblockUser(targetUserId);
 			return null;
 		});
 	}
 
+	/**
+	 * Waits before the next attempt: exponential backoff, with a random part (jitter) so that concurrent calls
+	 * do not retry all at the same time.
+	 */
 	private void sleep(int count) {
+		long delay = sleepTime << Math.min(count - 1, 10);
+		long jitteredDelay = delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
 		try {
-			Thread.sleep(sleepTime * count);
+			Thread.sleep(jitteredDelay);
 		} catch (InterruptedException e1) {
 			LOGGER.warn(e1.getMessage());
 			Thread.currentThread().interrupt();
 		}
 	}
 
+	/**
+	 * Checks whether the failure is due to the server or to the network, rather than to the request.
+	 */
+	private static boolean isServerFailure(GitLabApiException e) {
+		int status = e.getHttpStatus();
+		return status == 0 || status == HTTP_STATUS_REQUEST_TIMEOUT || status >= HTTP_STATUS_SERVER_ERROR;
+	}
+
+	/**
+	 * Checks whether the call may succeed if performed again. A client error (HTTP 4xx), such as a missing
+	 * resource or a missing permission, would fail the same way.
+	 */
+	private static boolean isRetryable(GitLabApiException e) {
+		return isServerFailure(e) || e.getHttpStatus() == HTTP_STATUS_TOO_MANY_REQUESTS;
+	}
+
 	private void handleException(GitLabApiException e, int count) throws GitSyncException {
-		if (count >= maxTries) {
+		if (!isRetryable(e)) {
+			LOGGER.error(ERROR_MESSAGE, e);
+			throw new GitSyncException(e);
+		} else if (count >= maxTries) {
 			LOGGER.warn("attempt {}/{} failed, throw exception", count, maxTries);
 			LOGGER.error(ERROR_MESSAGE, e);
 			throw new GitSyncException(e);
 		} else {
 			LOGGER.warn("attempt {}/{} failed, retry => {}", count, maxTries, e.getMessage());
-			sleep(count);
+			if (e.getHttpStatus() != HTTP_STATUS_TOO_MANY_REQUESTS) {
+				// otherwise the rate limiter makes the next attempt wait as long as GitLab asked
+				sleep(count);
+			}
 		}
 	}
 
-	private <T> T runOnlyIfNotDryRun(Callable<T> callable) {
+	private <T> T runOnlyIfNotDryRun(String endpoint, String groupName, Callable<T> callable) {
+		return runOnlyIfNotDryRun(endpoint, groupName, null, null, callable);
+	}
+
+	private <T> T runOnlyIfNotDryRun(String endpoint, String groupName, String user, AccessLevel accessLevel,
+									 Callable<T> callable) {
 		if (!GitSync.isDryRun()) {
-			return run(callable);
+			return run(endpoint, groupName, user, accessLevel, callable);
 		}
 		return null;
 	}
 
-	private <T> T run(Callable<T> callable) {
+	private <T> T run(String endpoint, String groupName, Callable<T> callable) {
+		return run(endpoint, groupName, null, null, callable);
+	}
+
+	/**
+	 * Performs a call to GitLab, retried in case of error.
+	 * Every attempt is recorded as a Flight Recorder event.
+	 *
+	 * @param endpoint name of the call, for the metrics
+	 * @param groupName name of the group concerned by the call, for the log of the slow calls. Can be null
+	 * @param user name or id of the user concerned by the call, for the Flight Recorder. Can be null
+	 * @param accessLevel access level set by the call, for the Flight Recorder. Can be null
+	 */
+	private <T> T run(String endpoint, String groupName, String user, AccessLevel accessLevel, Callable<T> callable) {
 		int count = 0;
 		while (true) {
 			try {
-				return callable.call();
+				circuitBreaker.acquirePermission();
+			} catch (GitSyncException e) {
+				Metrics.recordGitlabRejection(endpoint);
+				throw e;
+			}
+			long start = 0;
+			GitlabCallEvent event = new GitlabCallEvent(endpoint, groupName, user,
+					accessLevel == null ? null : accessLevel.name());
+			try {
+				rateLimiter.acquire();
+				event.begin();
+				start = System.nanoTime();
+				T result = callable.call();
+				event.end(Metrics.getCurrentMission(), count + 1, true, 0);
+				recordCall(endpoint, groupName, true, start);
+				rateLimiter.onSuccess();
+				circuitBreaker.onSuccess();
+				return result;
 			} catch (GitLabApiException e) {
+				event.end(Metrics.getCurrentMission(), count + 1, false, e.getHttpStatus());
+				recordCall(endpoint, groupName, false, start);
+				rateLimiter.onFailure(e.getHttpStatus(), e.getHeaders());
+				if (isServerFailure(e)) {
+					circuitBreaker.onFailure();
+				} else {
+					// the server answered properly
+					circuitBreaker.onSuccess();
+				}
 				count++;
 				handleException(e, count);
+				Metrics.recordGitlabRetry(endpoint);
 			} catch (Exception e) {
+				// not an answer of GitLab: for example a refused connection, a network failure
+				if (start != 0) {
+					event.end(Metrics.getCurrentMission(), count + 1, false, 0);
+					recordCall(endpoint, groupName, false, start);
+				}
+				circuitBreaker.onFailure();
 				throw new GitSyncException(e);
 			}
 		}
 	}
 
+	private void recordCall(String endpoint, String groupName, boolean success, long startNanos) {
+		Duration duration = Duration.ofNanos(System.nanoTime() - startNanos);
+		Metrics.recordGitlabCall(endpoint, success, duration);
+		Trace.record(endpoint, Trace.GITLAB_CALL, startNanos,
+				"group", groupName, "mission", Metrics.getCurrentMission(), "success", String.valueOf(success));
+		if (slowCallThresholdMillis > 0 && duration.toMillis() >= slowCallThresholdMillis) {
+			LOGGER.warn("Slow GitLab call {}: {} ms, mission [{}], group [{}]",
+					endpoint, duration.toMillis(), Metrics.getCurrentMission(), groupName == null ? "-" : groupName);
+		}
+	}
+
 }
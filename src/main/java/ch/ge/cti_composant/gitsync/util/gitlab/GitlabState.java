@@ -0,0 +1,337 @@
+/*
+ * gitsync
+ *
+ * Copyright (C) 2017-2019 République et canton de Genève
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.ge.cti_composant.gitsync.util.gitlab;
+
+import ch.ge.cti_composant.gitsync.GitSync;
+import ch.ge.cti_composant.gitsync.util.LogContext;
+import ch.ge.cti_composant.gitsync.util.exception.GitSyncException;
+import ch.ge.cti_composant.gitsync.util.metrics.Metrics;
+import org.gitlab4j.api.models.AccessLevel;
+import org.gitlab4j.api.models.Group;
+import org.gitlab4j.api.models.Member;
+import org.gitlab4j.api.models.User;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * The state of the GitLab server (users and group members), as seen by the missions during one run.
+ * <p>
+ * The users and the members of a group are retrieved from GitLab the first time they are requested, then
+ * kept in memory for the rest of the run.
+ * The modifications performed on GitLab must go through this class, so that the in-memory state is updated
+ * together with the modification (write-through). This way a mission sees the modifications performed by the
+ * missions run before it, without retrieving the data again.
+ * </p>
+ * <p>
+ * The modifications are handed over to a {@link MutationExecutor}: the modifications of the same group or of the
+ * same user keep their order, the other ones may be performed concurrently. The in-memory state is updated as soon
+ * as a modification is submitted; {@link #awaitMutations()} waits for GitLab to catch up and reports the failures.
+ * </p>
+ * <p>
+ * In dry-run mode, no modification is performed on GitLab, so the in-memory state is not updated either.
+ * In simulated mode (see {@link #setSimulated(boolean)}), no modification is performed on GitLab, but the in-memory
+ * state is updated as if the modifications had succeeded.
+ * </p>
+ */
+public class GitlabState implements AutoCloseable {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(GitlabState.class);
+
+	private final GitlabAPIWrapper api;
+
+	private final MutationExecutor mutations;
+
+	/**
+	 * Key = user name.
+	 * Value = user.
+	 * Loaded on first access.
+	 */
+	private Map<String, User> users;
+
+	/**
+	 * Key = group name.
+	 * Value = the members of the group.
+	 * A group is loaded on first access.
+	 */
+	private final Map<String, GroupMembership> groupMembers = new HashMap<>();
+
+	/**
+	 * If true, the modifications are applied to the in-memory state only.
+	 */
+	private boolean simulated;
+
+	public GitlabState(GitlabAPIWrapper api) {
+		this(api, new MutationExecutor(GitSync.getPropertyAsInt("gitlab-write-concurrency", 1)));
+	}
+
+	public GitlabState(GitlabAPIWrapper api, MutationExecutor mutations) {
+		this.api = Objects.requireNonNull(api);
+		this.mutations = Objects.requireNonNull(mutations);
+	}
+
+	/**
+	 * Returns all GitLab users.
+	 *
+	 * @return a map where a key is a user name and a value is the user
+	 */
+	public Map<String, User> getUsers() {
+		if (users == null) {
+			Map<String, User> map = new HashMap<>();
+			api.getUsers().forEach(user -> map.put(user.getUsername(), user));
+			users = map;
+		}
+		return Collections.unmodifiableMap(users);
+	}
+
+	/**
+	 * Returns the members of the specified group.
+	 *
+	 * @return a read-only list
+	 */
+	public List<Member> getGroupMembers(Group group) {
+		return getGroupMembership(group).getMembers();
+	}
+
+	/**
+	 * Returns the members of the specified group, indexed by user name and by user id.
+	 */
+	public GroupMembership getGroupMembership(Group group) {
+		return groupMembers.computeIfAbsent(group.getName(), name -> new GroupMembership(api.getGroupMembers(group)));
+	}
+
+	/**
+	 * Retrieves from GitLab the members of the specified groups that are not in memory yet, with at most
+	 * {@code concurrency} calls in progress at the same time.
+	 * Each call is performed on its own virtual thread and goes through {@link GitlabAPIWrapper}, hence it is retried
+	 * in case of error. The members are stored in the order of the groups supplied.
+	 */
+	public void prefetchGroupMembers(Collection<Group> groups, int concurrency) {
+		List<Group> missingGroups = groups.stream()
+				.filter(group -> !groupMembers.containsKey(group.getName()))
+				.toList();
+		if (missingGroups.isEmpty()) {
+			return;
+		}
+		LOGGER.info("Retrieving the members of {} groups, with at most {} concurrent calls",
+				missingGroups.size(), concurrency);
+
+		Semaphore permits = new Semaphore(Math.max(concurrency, 1));
+		List<Future<List<Member>>> futures = new ArrayList<>();
+		try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+			for (Group group : missingGroups) {
+				futures.add(executor.submit(LogContext.wrap(() -> {
+					permits.acquire();
+					try {
+						return api.getGroupMembers(group);
+					} finally {
+						permits.release();
+					}
+				})));
+			}
+
+			for (int i = 0; i < missingGroups.size(); i++) {
+				groupMembers.put(missingGroups.get(i).getName(), new GroupMembership(futures.get(i).get()));
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new GitSyncException("Interrupted while retrieving the group members", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException runtimeException) {
+				throw runtimeException;
+			}
+			throw new GitSyncException("Could not retrieve the group members", e);
+		}
+		LOGGER.info("Retrieving the members of {} groups - completed", missingGroups.size());
+	}
+
+	/**
+	 * Replaces the in-memory users. GitLab is not modified.
+	 */
+	public void setUsers(Collection<User> users) {
+		Map<String, User> map = new HashMap<>();
+		users.forEach(user -> map.put(user.getUsername(), user));
+		this.users = map;
+	}
+
+	/**
+	 * Replaces the in-memory members of the specified group. GitLab is not modified.
+	 */
+	public void setGroupMembers(Group group, List<Member> members) {
+		groupMembers.put(group.getName(), new GroupMembership(members));
+	}
+
+	/**
+	 * Sets the simulated mode: if true, the modifications are no longer performed on GitLab, they are only
+	 * applied to the in-memory state.
+	 */
+	public void setSimulated(boolean simulated) {
+		this.simulated = simulated;
+	}
+
+	/**
+	 * Adds the specified user to the specified group, with the specified access level.
+	 */
+	public void addGroupMember(Group group, User user, AccessLevel accessLevel) {
+		if (!simulated) {
+			recordWrite("addGroupMember");
+			mutations.submit(groupKey(group), () -> api.addGroupMember(group, user.getId(), accessLevel));
+		}
+		if (isToBeUpdated()) {
+			Member member = new Member()
+					.withId(user.getId())
+					.withUsername(user.getUsername())
+					.withAccessLevel(accessLevel);
+			GroupMembership membership = groupMembers.get(group.getName());
+			if (membership != null) {
+				membership.put(member);
+			}
+		}
+	}
+
+	/**
+	 * Changes the access level of the specified user, who must be a member of the specified group.
+	 */
+	public void updateGroupMember(Group group, User user, AccessLevel accessLevel) {
+		if (!simulated) {
+			recordWrite("updateGroupMember");
+			mutations.submit(groupKey(group), () -> api.updateGroupMember(group, user.getId(), accessLevel));
+		}
+		if (isToBeUpdated()) {
+			GroupMembership membership = groupMembers.get(group.getName());
+			Member previous = membership == null ? null : membership.getMember(user.getId());
+			if (previous != null) {
+				// the member is replaced rather than modified, because copies of the member list may be held
+				membership.put(new Member()
+						.withId(previous.getId())
+						.withUsername(previous.getUsername())
+						.withAccessLevel(accessLevel));
+			}
+		}
+	}
+
+	/**
+	 * Removes the specified user from the specified group.
+	 */
+	public void deleteGroupMember(Group group, Long userId) {
+		if (!simulated) {
+			recordWrite("deleteGroupMember");
+			mutations.submit(groupKey(group), () -> api.deleteGroupMember(group, userId));
+		}
+		if (isToBeUpdated()) {
+			GroupMembership membership = groupMembers.get(group.getName());
+			if (membership != null) {
+				membership.remove(userId);
+			}
+		}
+	}
+
+	/**
+	 * Gives the Admin access level to the specified user.
+	 */
+	public void promoteToAdmin(User user) {
+		if (!simulated) {
+			recordWrite("promoteToAdmin");
+			mutations.submit(userKey(user), () -> api.promoteToAdmin(user.getId()));
+		}
+		if (isToBeUpdated()) {
+			user.setIsAdmin(true);
+		}
+	}
+
+	/**
+	 * Blocks the specified user.
+	 */
+	public void blockUser(User user) {
+		if (!simulated) {
+			recordWrite("blockUser");
+			mutations.submit(userKey(user), () -> api.blockUser(user.getId()));
+		}
+		if (isToBeUpdated()) {
+			user.setState("blocked");
+		}
+	}
+
+	/**
+	 * Unblocks the specified user.
+	 */
+	public void unblockUser(User user) {
+		if (!simulated) {
+			recordWrite("unblockUser");
+			mutations.submit(userKey(user), () -> api.unblockUser(user.getId()));
+		}
+		if (isToBeUpdated()) {
+			user.setState("active");
+		}
+	}
+
+	/**
+	 * Waits until all modifications submitted to GitLab have been performed.
+	 *
+	 * @throws ch.ge.cti_composant.gitsync.util.exception.GitSyncException if at least one modification failed
+	 */
+	public void awaitMutations() {
+		mutations.await();
+	}
+
+	/**
+	 * Releases the threads that perform the modifications. To be called after {@link #awaitMutations()}.
+	 */
+	@Override
+	public void close() {
+		mutations.close();
+	}
+
+	/**
+	 * Counts a modification of GitLab, unless in dry-run mode, where GitLab is not modified.
+	 */
+	private static void recordWrite(String operation) {
+		if (!GitSync.isDryRun()) {
+			Metrics.recordGitlabWrite(operation);
+		}
+	}
+
+	private static String groupKey(Group group) {
+		return "group:" + group.getName();
+	}
+
+	private static String userKey(User user) {
+		return "user:" + user.getId();
+	}
+
+	/**
+	 * Checks whether a modification must be applied to the in-memory state.
+	 */
+	private boolean isToBeUpdated() {
+		return simulated || !GitSync.isDryRun();
+	}
+
+}
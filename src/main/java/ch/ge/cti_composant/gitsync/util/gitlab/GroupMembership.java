@@ -0,0 +1,131 @@
+/*
+ * gitsync
+ *
+ * Copyright (C) 2017-2019 République et canton de Genève
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.ge.cti_composant.gitsync.util.gitlab;
+
+import org.gitlab4j.api.models.AccessLevel;
+import org.gitlab4j.api.models.Member;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.gitlab4j.api.models.AccessLevel.ADMIN;
+
+/**
+ * The members of a GitLab group, indexed by user name and by user id.
+ * Only {@link GitlabState} modifies the members.
+ */
+public class GroupMembership {
+
+	private final List<Member> members;
+
+	private final List<Member> readOnlyMembers;
+
+	/**
+	 * Key = user name.
+	 */
+	private final Map<String, Member> byUsername = new HashMap<>();
+
+	/**
+	 * Key = user id.
+	 */
+	private final Map<Long, Member> byId = new HashMap<>();
+
+	public GroupMembership(Collection<Member> members) {
+		this.members = new ArrayList<>(members.size());
+		this.readOnlyMembers = Collections.unmodifiableList(this.members);
+		members.forEach(this::put);
+	}
+
+	/**
+	 * Returns the members, in the order GitLab returned them.
+	 *
+	 * @return a read-only list
+	 */
+	public List<Member> getMembers() {
+		return readOnlyMembers;
+	}
+
+	/**
+	 * Returns the member having the specified user name, or null if the user is not a member.
+	 */
+	public Member getMember(String username) {
+		return byUsername.get(username);
+	}
+
+	/**
+	 * Returns the member having the specified user id, or null if the user is not a member.
+	 */
+	public Member getMember(Long userId) {
+		return byId.get(userId);
+	}
+
+	/**
+	 * Checks whether the specified user is a member.
+	 */
+	public boolean isMember(String username) {
+		return byUsername.containsKey(username);
+	}
+
+	/**
+	 * Returns the access level of the specified user, or null if the user is not a member.
+	 */
+	public AccessLevel getAccessLevel(String username) {
+		Member member = byUsername.get(username);
+		return member == null ? null : member.getAccessLevel();
+	}
+
+	/**
+	 * Checks whether the specified user is a member with at least the specified access level.
+	 */
+	public boolean hasMinimumAccessLevel(String username, AccessLevel accessLevel) {
+		AccessLevel memberAccessLevel = getAccessLevel(username);
+		return memberAccessLevel != null
+				&& (memberAccessLevel == ADMIN || memberAccessLevel.value >= accessLevel.value);
+	}
+
+	/**
+	 * Adds the specified member, or replaces the member having the same user id.
+	 */
+	void put(Member member) {
+		Member previous = byId.put(member.getId(), member);
+		if (previous == null) {
+			members.add(member);
+		} else {
+			members.set(members.indexOf(previous), member);
+			byUsername.remove(previous.getUsername());
+		}
+		byUsername.put(member.getUsername(), member);
+	}
+
+	/**
+	 * Removes the member having the specified user id, if any.
+	 */
+	void remove(Long userId) {
+		Member previous = byId.remove(userId);
+		if (previous != null) {
+			members.remove(previous);
+			byUsername.remove(previous.getUsername());
+		}
+	}
+
+}
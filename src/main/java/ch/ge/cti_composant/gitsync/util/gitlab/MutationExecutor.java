@@ -0,0 +1,136 @@
+/*
+ * gitsync
+ *
+ * Copyright (C) 2017-2019 République et canton de Genève
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.ge.cti_composant.gitsync.util.gitlab;
+
+import ch.ge.cti_composant.gitsync.util.LogContext;
+import ch.ge.cti_composant.gitsync.util.exception.GitSyncException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Performs the modifications on GitLab, possibly concurrently.
+ * <p>
+ * Every modification is submitted with a key, for instance the group or the user it modifies.
+ * The modifications having the same key are performed one after another, in the order of their submission.
+ * The modifications having different keys are performed concurrently, with at most {@code parallelism}
+ * modifications in progress at the same time.
+ * With a parallelism of 1, every modification is performed immediately, on the calling thread.
+ * </p>
+ * <p>
+ * Whatever the parallelism, a modification that fails does not prevent the next modifications from being performed.
+ * The failures are reported by {@link #await()}, which must be called once all modifications have been submitted.
+ * The threads are released by {@link #close()}.
+ * </p>
+ */
+public class MutationExecutor implements AutoCloseable {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(MutationExecutor.class);
+
+	private final Semaphore permits;
+
+	/**
+	 * Null if the parallelism is 1.
+	 */
+	private final ExecutorService executor;
+
+	/**
+	 * Key = key of the modifications.
+	 * Value = the last modification submitted with that key.
+	 */
+	private final Map<String, CompletableFuture<Void>> tails = new ConcurrentHashMap<>();
+
+	private final List<RuntimeException> failures = Collections.synchronizedList(new ArrayList<>());
+
+	public MutationExecutor(int parallelism) {
+		this.permits = new Semaphore(Math.max(parallelism, 1));
+		this.executor = parallelism > 1 ? Executors.newVirtualThreadPerTaskExecutor() : null;
+	}
+
+	/**
+	 * Submits a modification. The modification is performed after all modifications previously submitted
+	 * with the same key.
+	 */
+	public void submit(String key, Runnable mutation) {
+		if (executor == null) {
+			perform(key, mutation);
+			return;
+		}
+
+		Runnable task = LogContext.wrap(() -> {
+			permits.acquireUninterruptibly();
+			try {
+				perform(key, mutation);
+			} finally {
+				permits.release();
+			}
+		});
+		tails.compute(key, (k, tail) -> tail == null
+				? CompletableFuture.runAsync(task, executor)
+				: tail.thenRunAsync(task, executor));
+	}
+
+	private void perform(String key, Runnable mutation) {
+		try {
+			mutation.run();
+		} catch (RuntimeException e) {
+			LOGGER.error("Modification [{}] failed", key, e);
+			failures.add(e);
+		}
+	}
+
+	/**
+	 * Waits until all submitted modifications have been performed.
+	 *
+	 * @throws GitSyncException if at least one modification failed
+	 */
+	public void await() {
+		CompletableFuture.allOf(tails.values().toArray(CompletableFuture[]::new)).join();
+		tails.clear();
+
+		if (!failures.isEmpty()) {
+			int count = failures.size();
+			RuntimeException first = failures.getFirst();
+			failures.clear();
+			throw new GitSyncException(count + " modification(s) of GitLab failed. First failure: "
+					+ first.getMessage(), first);
+		}
+	}
+
+	/**
+	 * Releases the threads, once the modifications in progress have been performed.
+	 * No modification can be submitted afterwards.
+	 */
+	@Override
+	public void close() {
+		if (executor != null) {
+			executor.close();
+		}
+	}
+
+}
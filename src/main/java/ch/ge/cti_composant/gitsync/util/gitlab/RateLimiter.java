@@ -0,0 +1,216 @@
+/*
+ * gitsync
+ *
+ * Copyright (C) 2017-2019 République et canton de Genève
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.ge.cti_composant.gitsync.util.gitlab;
+
+import ch.ge.cti_composant.gitsync.util.metrics.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+import java.util.function.LongSupplier;
+
+/**
+ * Client-side limiter of the rate of the calls to GitLab (token bucket).
+ * <p>
+ * The bucket holds at most one second worth of calls. The rate starts at the configured maximum rate and adapts
+ * to the answers of GitLab:
+ * </p>
+ * <ul>
+ *     <li>when GitLab rejects a call because of its rate limit (HTTP 429), all calls are paused for the time
+ *     specified by the {@code Retry-After} or {@code RateLimit-Reset} header, and the rate is halved;</li>
+ *     <li>when a response announces the remaining calls ({@code RateLimit-Remaining}) before the end of the
+ *     current window ({@code RateLimit-Reset}), the rate is lowered so as to spread them over the window;</li>
+ *     <li>every successful call raises the rate a little, up to the configured maximum rate.</li>
+ * </ul>
+ * <p>
+ * This class is thread-safe.
+ * </p>
+ */
+public class RateLimiter {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(RateLimiter.class);
+
+	private static final int HTTP_STATUS_TOO_MANY_REQUESTS = 429;
+
+	private static final double MIN_RATE = 0.5;
+
+	private static final double RATE_INCREASE = 0.1;
+
+	private static final long DEFAULT_PAUSE_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+	private static final double NANOS_PER_SECOND = 1e9;
+
+	/**
+	 * Maximum number of calls per second. 0 means no limit, except the pauses requested by GitLab.
+	 */
+	private final double maxRate;
+
+	private final LongSupplier clock;
+
+	private final LongConsumer sleeper;
+
+	private double rate;
+
+	private double tokens;
+
+	private long lastRefill;
+
+	private long pausedUntil;
+
+	private final AtomicLong throttledNanos = new AtomicLong();
+
+	/**
+	 * Constructor.
+	 *
+	 * @param maxRate maximum number of calls per second. 0 means no limit, except the pauses requested by GitLab
+	 */
+	public RateLimiter(double maxRate) {
+		this(maxRate, System::nanoTime, RateLimiter::sleep);
+	}
+
+	RateLimiter(double maxRate, LongSupplier clock, LongConsumer sleeper) {
+		this.maxRate = Math.max(maxRate, 0);
+		this.clock = clock;
+		this.sleeper = sleeper;
+		this.rate = this.maxRate;
+		this.tokens = this.maxRate;
+		this.lastRefill = clock.getAsLong();
+		this.pausedUntil = lastRefill;
+	}
+
+	/**
+	 * Waits until a call to GitLab is allowed.
+	 */
+	public void acquire() {
+		long waitNanos;
+		synchronized (this) {
+			long now = clock.getAsLong();
+			waitNanos = Math.max(pausedUntil - now, 0);
+			if (rate > 0) {
+				refill(now);
+				tokens -= 1;
+				if (tokens < 0) {
+					waitNanos = Math.max(waitNanos, (long) (-tokens / rate * NANOS_PER_SECOND));
+				}
+			}
+		}
+		if (waitNanos > 0) {
+			throttledNanos.addAndGet(waitNanos);
+			Metrics.recordGitlabThrottling(waitNanos);
+			sleeper.accept(waitNanos);
+		}
+	}
+
+	/**
+	 * Records a successful call.
+	 */
+	public synchronized void onSuccess() {
+		if (maxRate > 0 && rate < maxRate) {
+			rate = Math.min(maxRate, rate + RATE_INCREASE);
+		}
+	}
+
+	/**
+	 * Records a failed call.
+	 *
+	 * @param httpStatus the HTTP status of the response, or 0 if none
+	 * @param headers the HTTP headers of the response. Can be null
+	 */
+	public synchronized void onFailure(int httpStatus, Map<String, List<String>> headers) {
+		long now = clock.getAsLong();
+		Long remaining = getLongHeader(headers, "RateLimit-Remaining");
+		Long reset = getLongHeader(headers, "RateLimit-Reset");
+		Long retryAfter = getLongHeader(headers, "Retry-After");
+		long nanosToReset = reset == null
+				? 0
+				: TimeUnit.SECONDS.toNanos(reset - TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()));
+
+		if (httpStatus == HTTP_STATUS_TOO_MANY_REQUESTS) {
+			long pauseNanos = DEFAULT_PAUSE_NANOS;
+			if (retryAfter != null) {
+				pauseNanos = TimeUnit.SECONDS.toNanos(retryAfter);
+			} else if (nanosToReset > 0) {
+				pauseNanos = nanosToReset;
+			}
+			pausedUntil = Math.max(pausedUntil, now + pauseNanos);
+			if (maxRate > 0) {
+				refill(now);
+				rate = Math.max(MIN_RATE, rate / 2);
+				tokens = Math.min(tokens, 0);
+			}
+			LOGGER.warn("GitLab rate limit reached, calls paused for {} ms, rate lowered to {} calls/s",
+					TimeUnit.NANOSECONDS.toMillis(pauseNanos), rate);
+		} else if (maxRate > 0 && remaining != null && nanosToReset > 0) {
+			refill(now);
+			double sustainableRate = remaining * NANOS_PER_SECOND / nanosToReset;
+			rate = Math.max(MIN_RATE, Math.min(rate, sustainableRate));
+		}
+	}
+
+	/**
+	 * Returns the current rate, in calls per second.
+	 */
+	public synchronized double getRate() {
+		return rate;
+	}
+
+	/**
+	 * Returns the total time the calls have waited for the limiter.
+	 */
+	public Duration getThrottledTime() {
+		return Duration.ofNanos(throttledNanos.get());
+	}
+
+	private void refill(long now) {
+		tokens = Math.min(rate, tokens + (now - lastRefill) * rate / NANOS_PER_SECOND);
+		lastRefill = now;
+	}
+
+	private static Long getLongHeader(Map<String, List<String>> headers, String name) {
+		if (headers == null) {
+			return null;
+		}
+		for (Map.Entry<String, List<String>> entry : headers.entrySet()) {
+			if (name.equalsIgnoreCase(entry.getKey()) && entry.getValue() != null && !entry.getValue().isEmpty()) {
+				try {
+					return Long.parseLong(entry.getValue().getFirst().trim());
+				} catch (NumberFormatException e) {
+					LOGGER.debug("Header [{}] ignored: {}", name, entry.getValue());
+					return null;
+				}
+			}
+		}
+		return null;
+	}
+
+	private static void sleep(long nanos) {
+		try {
+			TimeUnit.NANOSECONDS.sleep(nanos);
+		} catch (InterruptedException e) {
+			LOGGER.warn(e.getMessage());
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}
@@ -0,0 +1,90 @@
+/*
+ * gitsync
+ *
+ * Copyright (C) 2017-2019 République et canton de Genève
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.ge.cti_composant.gitsync.util.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder event: attempt of a call to GitLab. A call retried several times produces several events.
+ */
+@Name("gitsync.GitlabCall")
+@Label("GitLab Call")
+@Category("GitSync")
+@Description("Attempt of a call to the GitLab API")
+public class GitlabCallEvent extends Event {
+
+	@Label("Endpoint")
+	final String endpoint;
+
+	@Label("Group")
+	final String group;
+
+	@Label("User")
+	@Description("Name or id of the user concerned by the call")
+	final String user;
+
+	@Label("Access Level")
+	final String accessLevel;
+
+	@Label("Mission")
+	String mission;
+
+	@Label("Attempt")
+	int attempt;
+
+	@Label("Success")
+	boolean success;
+
+	@Label("HTTP Status")
+	@Description("HTTP status of the failed call, 0 for a successful call")
+	int httpStatus;
+
+	/**
+	 * Constructor. The event starts when {@link #begin()} is called.
+	 *
+	 * @param group name of the group concerned by the call. Can be null
+	 * @param user name or id of the user concerned by the call. Can be null
+	 * @param accessLevel access level set by the call. Can be null
+	 */
+	public GitlabCallEvent(String endpoint, String group, String user, String accessLevel) {
+		this.endpoint = endpoint;
+		this.group = group;
+		this.user = user;
+		this.accessLevel = accessLevel;
+	}
+
+	/**
+	 * Ends the event and commits it, if the event is enabled in a running recording.
+	 *
+	 * @param attempt number of the attempt, starting at 1
+	 * @param httpStatus HTTP status of the failed call, 0 for a successful call
+	 */
+	public void end(String mission, int attempt, boolean success, int httpStatus) {
+		this.mission = mission;
+		this.attempt = attempt;
+		this.success = success;
+		this.httpStatus = httpStatus;
+		commit();
+	}
+
+}
@@ -0,0 +1,61 @@
+/*
+ * gitsync
+ *
+ * Copyright (C) 2017-2019 République et canton de Genève
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.ge.cti_composant.gitsync.util.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder event: retrieval of the users of an LDAP group.
+ */
+@Name("gitsync.LdapQuery")
+@Label("LDAP Query")
+@Category("GitSync")
+@Description("Retrieval of the users of an LDAP group")
+public class LdapQueryEvent extends Event {
+
+	@Label("Group")
+	final String group;
+
+	@Label("User Count")
+	int userCount;
+
+	@Label("Success")
+	boolean success;
+
+	/**
+	 * Constructor. The event starts when {@link #begin()} is called.
+	 */
+	public LdapQueryEvent(String group) {
+		this.group = group;
+	}
+
+	/**
+	 * Ends the event and commits it, if the event is enabled in a running recording.
+	 */
+	public void end(int userCount, boolean success) {
+		this.userCount = userCount;
+		this.success = success;
+		commit();
+	}
+
+}
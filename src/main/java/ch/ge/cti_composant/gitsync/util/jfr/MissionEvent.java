@@ -0,0 +1,61 @@
+/*
+ * gitsync
+ *
+ * Copyright (C) 2017-2019 République et canton de Genève
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.ge.cti_composant.gitsync.util.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder event: execution of a mission.
+ * <p>
+ * The missions started by other missions (for example by the single-pass reconciliation) have their own events,
+ * nested in time in the event of the enclosing mission.
+ * </p>
+ */
+@Name("gitsync.Mission")
+@Label("Mission")
+@Category("GitSync")
+@Description("Execution of a mission")
+public class MissionEvent extends Event {
+
+	@Label("Mission")
+	final String mission;
+
+	@Label("Success")
+	boolean success;
+
+	/**
+	 * Constructor. The event starts when {@link #begin()} is called.
+	 */
+	public MissionEvent(String mission) {
+		this.mission = mission;
+	}
+
+	/**
+	 * Ends the event and commits it, if the event is enabled in a running recording.
+	 */
+	public void end(boolean success) {
+		this.success = success;
+		commit();
+	}
+
+}
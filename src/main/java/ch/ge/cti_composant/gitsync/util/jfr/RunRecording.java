@@ -0,0 +1,121 @@
+/*
+ * gitsync
+ *
+ * Copyright (C) 2017-2019 République et canton de Genève
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.ge.cti_composant.gitsync.util.jfr;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.text.ParseException;
+
+/**
+ * Flight Recorder recording of a run, written to a file when the run is over.
+ * <p>
+ * When no file is specified, nothing is recorded: the events of GitSync are then disabled and cost almost nothing,
+ * unless a recording is started from outside, for example with option -XX:StartFlightRecording.
+ * A recording that cannot be started is logged, but does not prevent the run.
+ * </p>
+ */
+public class RunRecording implements AutoCloseable {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(RunRecording.class);
+
+	/**
+	 * Settings used when none is specified: those of the JDK for profiling.
+	 */
+	public static final String DEFAULT_SETTINGS = "profile";
+
+	/**
+	 * The recording, or null if nothing is recorded.
+	 */
+	private final Recording recording;
+
+	private final Path file;
+
+	private RunRecording(Recording recording, Path file) {
+		this.recording = recording;
+		this.file = file;
+	}
+
+	/**
+	 * Starts a recording.
+	 *
+	 * @param file file written at the end of the recording. If blank, nothing is recorded
+	 * @param settings name of the JFR settings ("default", "profile") or path of a settings file.
+	 *                 If blank, {@link #DEFAULT_SETTINGS} is used
+	 */
+	public static RunRecording start(String file, String settings) {
+		if (StringUtils.isBlank(file)) {
+			return new RunRecording(null, null);
+		}
+		Path path = Path.of(file.trim());
+		Recording recording = null;
+		try {
+			recording = new Recording(getConfiguration(StringUtils.defaultIfBlank(settings, DEFAULT_SETTINGS).trim()));
+			recording.setName("GitSync");
+			recording.setDestination(path);
+			recording.start();
+			LOGGER.info("Flight Recorder recording started, to be written to file [{}]", path);
+			return new RunRecording(recording, path);
+		} catch (IOException | ParseException | RuntimeException e) {
+			LOGGER.error("Unable to start the Flight Recorder recording", e);
+			if (recording != null) {
+				recording.close();
+			}
+			return new RunRecording(null, null);
+		}
+	}
+
+	private static Configuration getConfiguration(String settings) throws IOException, ParseException {
+		if (settings.endsWith(".jfc")) {
+			return Configuration.create(Path.of(settings));
+		}
+		return Configuration.getConfiguration(settings);
+	}
+
+	/**
+	 * Returns true if the run is being recorded.
+	 */
+	public boolean isRecording() {
+		return recording != null;
+	}
+
+	/**
+	 * Stops the recording, and writes it to the file.
+	 */
+	@Override
+	public void close() {
+		if (recording == null) {
+			return;
+		}
+		try {
+			recording.stop();
+			LOGGER.info("Flight Recorder recording written to file [{}]", file);
+		} catch (RuntimeException e) {
+			LOGGER.error("Unable to write the Flight Recorder recording to file [{}]", file, e);
+		} finally {
+			recording.close();
+		}
+	}
+
+}
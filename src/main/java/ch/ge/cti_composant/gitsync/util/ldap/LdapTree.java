@@ -38,4 +38,16 @@ public interface LdapTree {
 	 */
 	Map<String, LdapUser> getUsers(String groupName);
 
+	/**
+	 * Returns the LDAP groups the specified user belongs to.
+	 *
+	 * @param username LDAP user name
+	 * @return a list of groups sorted by name, possibly empty
+	 */
+	default List<LdapGroup> getGroupsOfUser(String username) {
+		return getGroups().stream()
+				.filter(group -> getUsers(group).containsKey(username))
+				.toList();
+	}
+
 }
@@ -18,6 +18,10 @@
  */
 package ch.ge.cti_composant.gitsync.util.ldap;
 
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
 /**
  * A object responsible to create a completely initialized {@link LdapTree}.
  */
@@ -28,4 +32,39 @@ public interface LdapTreeBuilder {
 	 */
 	LdapTree createTree();
 
+	/**
+	 * Creates and initializes an {@LdapTree} restricted to the specified groups, with all their users.
+	 * The groups that do not exist in the LDAP server are ignored.
+	 * <p>
+	 * This implementation creates the complete tree and discards the other groups: it should be overridden
+	 * when the LDAP server can be queried group by group.
+	 * </p>
+	 *
+	 * @param groupNames names of the LDAP groups
+	 */
+	default LdapTree createTree(Collection<String> groupNames) {
+		LdapTree tree = createTree();
+		Map<LdapGroup, Map<String, LdapUser>> groups = new HashMap<>();
+		tree.getGroups().stream()
+				.filter(group -> groupNames.contains(group.getName()))
+				.forEach(group -> groups.put(group, tree.getUsers(group)));
+		return new LdapTreeSupport(groups);
+	}
+
+	/**
+	 * Creates and initializes an {@LdapTree} with all groups, where each group contains the specified user
+	 * if he belongs to it, and no other user.
+	 *
+	 * @param username LDAP user name
+	 */
+	default LdapTree createTreeOfUser(String username) {
+		LdapTree tree = createTree();
+		Map<LdapGroup, Map<String, LdapUser>> groups = new HashMap<>();
+		tree.getGroups().forEach(group -> {
+			LdapUser user = tree.getUsers(group).get(username);
+			groups.put(group, user == null ? Map.of() : Map.of(username, user));
+		});
+		return new LdapTreeSupport(groups);
+	}
+
 }
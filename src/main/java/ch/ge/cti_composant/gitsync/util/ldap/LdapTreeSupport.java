@@ -20,7 +20,9 @@ package ch.ge.cti_composant.gitsync.util.ldap;
 
 import org.apache.commons.lang3.StringUtils;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
@@ -29,34 +31,111 @@ import java.util.TreeMap;
 
 /**
  * Simple implementation of {@link LdapTree}.
+ * <p>
+ * The tree is frozen when constructed: the groups are sorted once, and all maps and lists returned are read-only
+ * views that are not copied on each call. Finding a group or the users of a group by name does not depend on the
+ * number of groups.
+ * </p>
  */
 public class LdapTreeSupport implements LdapTree {
 
 	/**
-	 * The map containing the tree:
-	 * <ul>
-	 *     <li>a key is group</li>
-	 *     <li>a value is in turn a map where a key is a user name and a value is a user</li>
-	 * </ul>
+	 * The groups, sorted by name.
 	 */
-	private final Map<LdapGroup, Map<String, LdapUser>> tree;
+	private final List<LdapGroup> groups;
 
+	/**
+	 * Key = group name.
+	 * Value = a read-only map where a key is a user name and a value is a user, sorted by user names.
+	 */
+	private final Map<String, Map<String, LdapUser>> usersByGroup;
+
+	/**
+	 * Key = user name.
+	 * Value = the groups of the user, sorted by name.
+	 */
+	private final Map<String, List<LdapGroup>> groupsByUser;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param tree the tree: a key is group, a value is in turn a map where a key is a user name and a value is
+	 *             a user. The tree is copied, so it can be modified or discarded afterwards
+	 */
 	public LdapTreeSupport(Map<LdapGroup, Map<String, LdapUser>> tree) {
-		this.tree = tree;
+		List<LdapGroup> sortedGroups = tree.keySet().stream()
+				.sorted(Comparator.comparing(LdapGroup::getName))
+				.toList();
+
+		Map<String, Map<String, LdapUser>> users = new HashMap<>();
+		Map<String, List<LdapGroup>> groupsOfUsers = new HashMap<>();
+		for (LdapGroup group : sortedGroups) {
+			Map<String, LdapUser> groupUsers = tree.get(group) == null ? Map.of() : tree.get(group);
+			users.put(group.getName(), Collections.unmodifiableMap(new TreeMap<>(groupUsers)));
+			groupUsers.keySet().forEach(username ->
+					groupsOfUsers.computeIfAbsent(username, name -> new ArrayList<>()).add(group));
+		}
+		groupsOfUsers.replaceAll((username, userGroups) -> List.copyOf(userGroups));
+
+		this.groups = new GroupList(sortedGroups, users);
+		this.usersByGroup = users;
+		this.groupsByUser = groupsOfUsers;
 	}
 
+	@Override
 	public List<LdapGroup> getGroups() {
-		return new ArrayList<>(tree.keySet()).stream()
-				.sorted(Comparator.comparing(LdapGroup::getName))
-				.toList();
+		return groups;
 	}
 
+	/**
+	 * Returns the users of the specified LDAP group.
+	 *
+	 * @return a read-only map of users, sorted by user names. Empty if the group is unknown
+	 */
+	@Override
 	public Map<String, LdapUser> getUsers(LdapGroup group) {
-		return new TreeMap<>(tree.get(group));
+		return getUsers(group.getName());
 	}
 
+	@Override
 	public Map<String, LdapUser> getUsers(String groupName) {
-		return StringUtils.isBlank(groupName) ? new HashMap<>() : getUsers(new LdapGroup(groupName));
+		return StringUtils.isBlank(groupName) ? Map.of() : usersByGroup.getOrDefault(groupName, Map.of());
+	}
+
+	@Override
+	public List<LdapGroup> getGroupsOfUser(String username) {
+		return groupsByUser.getOrDefault(username, List.of());
+	}
+
+	/**
+	 * Read-only list of the groups, whose method {@link #contains(Object)} is a hash lookup.
+	 */
+	private static class GroupList extends AbstractList<LdapGroup> {
+
+		private final List<LdapGroup> groups;
+
+		private final Map<String, ?> index;
+
+		GroupList(List<LdapGroup> groups, Map<String, ?> index) {
+			this.groups = groups;
+			this.index = index;
+		}
+
+		@Override
+		public LdapGroup get(int i) {
+			return groups.get(i);
+		}
+
+		@Override
+		public int size() {
+			return groups.size();
+		}
+
+		@Override
+		public boolean contains(Object o) {
+			return o instanceof LdapGroup group && index.containsKey(group.getName());
+		}
+
 	}
 
 }
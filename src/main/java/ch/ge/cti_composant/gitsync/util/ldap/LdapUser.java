@@ -24,17 +24,43 @@ import java.util.Objects;
 
 /**
  * A user in the LDAP server.
+ * <p>
+ * The attributes used by the application ("cn" and "loginDisabled") are stored as typed fields. The other
+ * attributes, if any, are kept in a map.
+ * To avoid duplicate instances of the same user in the LDAP tree, see {@link LdapUserRegistry}.
+ * </p>
  */
 public class LdapUser {
 
-	private final HashMap<String, String> attributes;
+	private static final String CN = "cn";
+
+	private static final String LOGIN_DISABLED = "loginDisabled";
+
+	private final String name;
+
+	/**
+	 * Null if the attribute "loginDisabled" is absent.
+	 */
+	private final Boolean loginDisabled;
+
+	/**
+	 * The attributes other than "cn" and "loginDisabled".
+	 */
+	private final Map<String, String> otherAttributes;
 
 	public LdapUser(Map<String, String> attributes) {
-		this.attributes = new HashMap<>(attributes);
-		if (!this.attributes.containsKey("cn")) {
+		if (!attributes.containsKey(CN)) {
 			throw new IllegalStateException("An LDAP user needs to have a \"cn\" attribute. Actual attributes are: "
 					+ attributes);
 		}
+		this.name = attributes.get(CN);
+		this.loginDisabled = parseLoginDisabled(attributes.get(LOGIN_DISABLED));
+
+		Map<String, String> others = new HashMap<>(attributes);
+		others.remove(CN);
+		others.remove(LOGIN_DISABLED);
+		others.values().removeIf(Objects::isNull);
+		this.otherAttributes = others.isEmpty() ? Map.of() : Map.copyOf(others);
 	}
 
 	/**
@@ -45,19 +71,35 @@ public class LdapUser {
 	 * @throws NullPointerException if the attribute does not exist
 	 */
 	public String getAttribute(String key) {
-		return Objects.requireNonNull(attributes.get(key), "No such attribute '" + key + "'");
+		String value;
+		if (CN.equals(key)) {
+			value = name;
+		} else if (LOGIN_DISABLED.equals(key)) {
+			value = loginDisabled == null ? null : loginDisabled.toString();
+		} else {
+			value = otherAttributes.get(key);
+		}
+		return Objects.requireNonNull(value, "No such attribute '" + key + "'");
 	}
 
 	/**
 	 * Returns the name of the user.
 	 */
 	public String getName() {
-		return getAttribute("cn");
+		return name;
+	}
+
+	/**
+	 * Checks whether the login of the user is disabled. The login is considered disabled unless the attribute
+	 * "loginDisabled" is present and equal to "false" (case insensitive).
+	 */
+	public boolean isLoginDisabled() {
+		return !Boolean.FALSE.equals(loginDisabled);
 	}
 
 	@Override
 	public int hashCode() {
-		return attributes.get("cn").hashCode();
+		return name.hashCode();
 	}
 
 	@Override
@@ -66,7 +108,7 @@ public class LdapUser {
 			return false;
 		} else if (o.getClass() == getClass()) {
 			LdapUser user = (LdapUser) o;
-			return attributes.get("cn").equals(user.attributes.get("cn"));
+			return name.equals(user.name);
 		} else {
 			return false;
 		}
@@ -77,4 +119,11 @@ public class LdapUser {
 		return getName();
 	}
 
+	private static Boolean parseLoginDisabled(String value) {
+		if (value == null) {
+			return null;
+		}
+		return !Boolean.FALSE.toString().equalsIgnoreCase(value.trim());
+	}
+
 }
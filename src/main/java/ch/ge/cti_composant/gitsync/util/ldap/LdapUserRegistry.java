@@ -0,0 +1,60 @@
+/*
+ * gitsync
+ *
+ * Copyright (C) 2017-2019 République et canton de Genève
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.ge.cti_composant.gitsync.util.ldap;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of the LDAP users, to be used while building an {@link LdapTree}: a user that belongs to several
+ * groups is then represented by one instance only.
+ * This class is thread-safe.
+ */
+public class LdapUserRegistry {
+
+	private static final String CN = "cn";
+
+	/**
+	 * Key = user name ("cn").
+	 */
+	private final Map<String, LdapUser> users = new ConcurrentHashMap<>();
+
+	/**
+	 * Returns the user having the specified attributes. The first time a user name is met, the user is created;
+	 * the next times, the same instance is returned and the attributes supplied are ignored.
+	 *
+	 * @param attributes the LDAP attributes of the user. Must contain attribute "cn"
+	 */
+	public LdapUser intern(Map<String, String> attributes) {
+		String name = attributes.get(CN);
+		if (name == null) {
+			// let the constructor report the error
+			return new LdapUser(attributes);
+		}
+		return users.computeIfAbsent(name, key -> new LdapUser(attributes));
+	}
+
+	/**
+	 * Returns the number of distinct users.
+	 */
+	public int size() {
+		return users.size();
+	}
+
+}
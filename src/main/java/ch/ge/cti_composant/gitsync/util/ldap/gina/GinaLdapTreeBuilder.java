@@ -19,13 +19,18 @@
 package ch.ge.cti_composant.gitsync.util.ldap.gina;
 
 import ch.ge.cti_composant.gitsync.GitSync;
+import ch.ge.cti_composant.gitsync.util.LogContext;
 import ch.ge.cti_composant.gitsync.util.MissionUtils;
 import ch.ge.cti_composant.gitsync.util.exception.GitSyncException;
+import ch.ge.cti_composant.gitsync.util.jfr.LdapQueryEvent;
 import ch.ge.cti_composant.gitsync.util.ldap.LdapGroup;
 import ch.ge.cti_composant.gitsync.util.ldap.LdapTree;
 import ch.ge.cti_composant.gitsync.util.ldap.LdapTreeBuilder;
 import ch.ge.cti_composant.gitsync.util.ldap.LdapTreeSupport;
 import ch.ge.cti_composant.gitsync.util.ldap.LdapUser;
+import ch.ge.cti_composant.gitsync.util.ldap.LdapUserRegistry;
+import ch.ge.cti_composant.gitsync.util.metrics.Metrics;
+import ch.ge.cti_composant.gitsync.util.trace.Trace;
 import gina.api.GinaApiLdapBaseAble;
 import gina.impl.GinaLdapAccess;
 import gina.impl.util.GinaLdapConfiguration;
@@ -33,16 +38,30 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.rmi.RemoteException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 
 /**
  * An {@link LdapTree} that obtains its data (LDAP groups and LDAP users) from the Etat de Geneve's
  * LDAP server named Gina.
  * <p>
- * In order to retrieve LDAP groups and users from another LDAP server than GINA, in method {@link GitSync#setupLdap()}
- * you should replace the usage of this class with the usage of your own implementation of {@link LdapTreeBuilder}.
+ * This class is used when parameter {@code ldap-tree-builder} is set to {@code gina}. In order to retrieve LDAP groups
+ * and users from another LDAP server than GINA, set this parameter to {@code jndi}
+ * (see {@link ch.ge.cti_composant.gitsync.util.ldap.jndi.JndiLdapTreeBuilder}),
+ * or add your own implementation of {@link LdapTreeBuilder} as a new value of this parameter in {@link GitSync}.
  * </p>
  */
 public class GinaLdapTreeBuilder implements LdapTreeBuilder {
@@ -72,57 +91,153 @@ public class GinaLdapTreeBuilder implements LdapTreeBuilder {
 	 */
 	private static final String[] ATTRIBUTES = {CN, "loginDisabled"};
 
+	/**
+	 * Number of LDAP groups whose retrieval time is logged at the end of the retrieval.
+	 */
+	private static final int SLOWEST_ROLES_LOGGED = 5;
+
+	/**
+	 * Default number of connections to the LDAP server.
+	 */
+	private static final int DEFAULT_POOL_SIZE = 4;
+
 	@Override
 	public LdapTree createTree() {
-		LdapTree ldapTree;
+		return createTree(role -> true);
+	}
 
+	/**
+	 * Only the users of the specified groups are retrieved from the LDAP server.
+	 */
+	@Override
+	public LdapTree createTree(Collection<String> groupNames) {
+		return createTree(Set.copyOf(groupNames)::contains);
+	}
+
+	private LdapTree createTree(Predicate<String> roleFilter) {
 		// create a search object on the Gina LDAP server
 		String ldapServer = GitSync.getProperty("gina-ldap-client.ldap-server-url");
 		String ldapUser = GitSync.getProperty("gina-ldap-client.ldap-user");
 		String ldapPassword = GitSync.getProperty("gina-ldap-client.ldap-password");
 		int connectionTimeout = Integer.parseInt(GitSync.getProperty("gina-ldap-client.ldap-connection-timeout"));
 		int readTimeout = Integer.parseInt(GitSync.getProperty("gina-ldap-client.ldap-read-timeout"));
+		int poolSize = GitSync.getPropertyAsInt("gina-ldap-client.ldap-pool-size", DEFAULT_POOL_SIZE);
 		GinaLdapConfiguration ldapConf = new GinaLdapConfiguration(
 				ldapServer, ldapUser, ldapPassword, DOMAIN, APPLICATION, readTimeout, connectionTimeout);
-		try (GinaApiLdapBaseAble app = new GinaLdapAccess(ldapConf)) {
-			// initializations
-			Map<LdapGroup, Map<String, LdapUser>> tree = new TreeMap<>(Comparator.comparing(LdapGroup::getName));
+		return createTree(() -> new GinaLdapAccess(ldapConf), poolSize, roleFilter);
+	}
 
+	/**
+	 * Creates the tree, by retrieving the users of the LDAP groups in parallel.
+	 *
+	 * @param connectionFactory creator of a connection to the LDAP server
+	 * @param poolSize maximum number of connections to the LDAP server, hence maximum number of concurrent queries
+	 * @param roleFilter selector of the LDAP groups to be retrieved
+	 */
+	LdapTree createTree(Supplier<GinaApiLdapBaseAble> connectionFactory, int poolSize,
+						Predicate<String> roleFilter) {
+		List<GinaApiLdapBaseAble> connections = new ArrayList<>();
+		try {
 			// get the LDAP groups
-			app.getAppRoles(DOMAIN_APPLICATION)
+			connections.add(connectionFactory.get());
+			List<LdapGroup> ldapGroups = connections.getFirst().getAppRoles(DOMAIN_APPLICATION)
 					.stream()
 					.filter(role -> MissionUtils.validateGroupNameCompliantStandardGroups(role) || role.equals(MissionUtils.getAdministratorGroup()) || role.equals(MissionUtils.getOwnerGroup()))
-					.forEach(role -> tree.put(new LdapGroup(role), new TreeMap<>()));
+					.filter(roleFilter)
+					.sorted()
+					.map(LdapGroup::new)
+					.toList();
+
+			// open the other connections
+			int connectionCount = Math.clamp(ldapGroups.size(), 1, Math.max(poolSize, 1));
+			while (connections.size() < connectionCount) {
+				connections.add(connectionFactory.get());
+			}
+			BlockingQueue<GinaApiLdapBaseAble> pool = new ArrayBlockingQueue<>(connectionCount, false, connections);
+			LOGGER.info("Retrieving the users of {} LDAP groups, with {} connections", ldapGroups.size(), connectionCount);
 
 			// get the LDAP users
-			tree.forEach((ldapGroup, ldapUsers) -> {
-				LOGGER.info("    Retrieving the users of LDAP group [{}]", ldapGroup.getName());
-				getLdapUsersForGroup(ldapGroup, ldapUsers, app);
-			});
-			ldapTree = new LdapTreeSupport(tree);
+			LdapUserRegistry registry = new LdapUserRegistry();
+			List<Future<RoleResult>> futures = new ArrayList<>();
+			try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+				for (LdapGroup ldapGroup : ldapGroups) {
+					futures.add(executor.submit(LogContext.wrap(() -> {
+						GinaApiLdapBaseAble app = pool.take();
+						try {
+							return getLdapUsersForGroup(ldapGroup, app, registry);
+						} finally {
+							pool.put(app);
+						}
+					})));
+				}
+			}
+
+			// merge the results, on this thread only
+			Map<LdapGroup, Map<String, LdapUser>> tree = new TreeMap<>(Comparator.comparing(LdapGroup::getName));
+			List<RoleResult> results = new ArrayList<>();
+			for (Future<RoleResult> future : futures) {
+				RoleResult result = future.get();
+				results.add(result);
+				tree.put(result.ldapGroup(), result.ldapUsers());
+			}
+			logSlowestRoles(results);
+			LOGGER.info("Number of distinct LDAP users: {}", registry.size());
+			return new LdapTreeSupport(tree);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new GitSyncException("Interrupted while creating the LDAP tree", e);
 		} catch (Exception e) {
 			LOGGER.error("Exception caught while creating the LDAP tree", e);
 			throw new GitSyncException(e);
+		} finally {
+			connections.forEach(GinaApiLdapBaseAble::close);
 		}
-		return ldapTree;
 	}
 
-	private static void getLdapUsersForGroup(LdapGroup ldapGroup,
-											 Map<String, LdapUser> ldapUsers,
-											 GinaApiLdapBaseAble app) {
-		Comparator<Map<String, String>> userComparator = (user1, user2) -> user1.containsKey(CN) ? user1.get(CN).compareTo(user2.get(CN)) : 0;
+	private static RoleResult getLdapUsersForGroup(LdapGroup ldapGroup,
+												   GinaApiLdapBaseAble app,
+												   LdapUserRegistry registry) {
+		LOGGER.info("    Retrieving the users of LDAP group [{}]", ldapGroup.getName());
+		Map<String, LdapUser> ldapUsers = new TreeMap<>();
+		LdapQueryEvent event = new LdapQueryEvent(ldapGroup.getName());
+		event.begin();
+		long start = System.nanoTime();
+		boolean success = false;
 		try {
-			app.getUsers(DOMAIN_APPLICATION, ldapGroup.getName(), ATTRIBUTES).stream()
-					.sorted(userComparator)
+			app.getUsers(DOMAIN_APPLICATION, ldapGroup.getName(), ATTRIBUTES)
 					.forEach(user -> {
 						if (user.containsKey(CN)) {
 							LOGGER.debug("        {} is user of LDAP group [{}]", user.get(CN), ldapGroup.getName());
-							ldapUsers.put(user.get(CN), new LdapUser(user));
+							LdapUser ldapUser = registry.intern(user);
+							ldapUsers.put(ldapUser.getName(), ldapUser);
 						}
 					});
+			success = true;
 		} catch (RemoteException e) {
 			LOGGER.error("Unable to retrieve the users from the LDAP server", e);
 		}
+		event.end(ldapUsers.size(), success);
+		Metrics.recordLdapQuery(success, start);
+		Trace.record(ldapGroup.getName(), Trace.LDAP_QUERY, start,
+				"users", String.valueOf(ldapUsers.size()), "success", String.valueOf(success));
+		Duration latency = Duration.ofNanos(System.nanoTime() - start);
+		LOGGER.info("    Retrieved {} users of LDAP group [{}] in {} ms",
+				ldapUsers.size(), ldapGroup.getName(), latency.toMillis());
+		return new RoleResult(ldapGroup, ldapUsers, latency);
+	}
+
+	private static void logSlowestRoles(List<RoleResult> results) {
+		results.stream()
+				.sorted(Comparator.comparing(RoleResult::latency).reversed())
+				.limit(SLOWEST_ROLES_LOGGED)
+				.forEach(result -> LOGGER.info("    Slow LDAP group [{}]: {} ms",
+						result.ldapGroup().getName(), result.latency().toMillis()));
+	}
+
+	/**
+	 * The users of an LDAP group, and the time taken to retrieve them.
+	 */
+	private record RoleResult(LdapGroup ldapGroup, Map<String, LdapUser> ldapUsers, Duration latency) {
 	}
 
 }
@@ -0,0 +1,354 @@
+/*
+ * gitsync
+ *
+ * Copyright (C) 2017-2019 République et canton de Genève
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.ge.cti_composant.gitsync.util.ldap.jndi;
+
+import ch.ge.cti_composant.gitsync.GitSync;
+import ch.ge.cti_composant.gitsync.util.MissionUtils;
+import ch.ge.cti_composant.gitsync.util.exception.GitSyncException;
+import ch.ge.cti_composant.gitsync.util.ldap.LdapGroup;
+import ch.ge.cti_composant.gitsync.util.ldap.LdapTree;
+import ch.ge.cti_composant.gitsync.util.ldap.LdapTreeBuilder;
+import ch.ge.cti_composant.gitsync.util.ldap.LdapTreeSupport;
+import ch.ge.cti_composant.gitsync.util.ldap.LdapUser;
+import ch.ge.cti_composant.gitsync.util.ldap.LdapUserRegistry;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.naming.Context;
+import javax.naming.InvalidNameException;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.Attributes;
+import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
+import javax.naming.ldap.Control;
+import javax.naming.ldap.InitialLdapContext;
+import javax.naming.ldap.LdapContext;
+import javax.naming.ldap.LdapName;
+import javax.naming.ldap.PagedResultsControl;
+import javax.naming.ldap.PagedResultsResponseControl;
+import javax.naming.ldap.Rdn;
+import java.io.IOException;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * An {@link LdapTreeBuilder} that obtains its data from any LDAP server, by means of the JDK's JNDI API.
+ * <p>
+ * Contrary to {@link ch.ge.cti_composant.gitsync.util.ldap.gina.GinaLdapTreeBuilder}, which sends one query per
+ * group, this builder sends one subtree search, paged (RFC 2696), that returns every user along with
+ * the groups he belongs to (attribute "memberOf" by default). The name of a group is the value of the first RDN
+ * of its DN: for example, group "cn=DEV-TEAM,ou=groups,o=org" is named "DEV-TEAM".
+ * A second paged search returns the group entries, so that the groups without users are part of the tree too:
+ * their GitLab groups are then cleaned up like the other ones.
+ * The tree of a single user is built the same way, except that the search of the users is restricted to this user.
+ * </p>
+ * <p>
+ * To be selected, set parameter "ldap-tree-builder" to "jndi" in the configuration file.
+ * </p>
+ */
+public class JndiLdapTreeBuilder implements LdapTreeBuilder {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(JndiLdapTreeBuilder.class);
+
+	private static final String CN = "cn";
+
+	private static final String LOGIN_DISABLED = "loginDisabled";
+
+	private static final String DEFAULT_GROUP_FILTER =
+			"(|(objectClass=groupOfNames)(objectClass=groupOfUniqueNames)(objectClass=group))";
+
+	@Override
+	public LdapTree createTree() {
+		return createTree(getConfiguration());
+	}
+
+	/**
+	 * Creates the tree of the specified user with one search on this user, instead of the search on all users.
+	 */
+	@Override
+	public LdapTree createTreeOfUser(String username) {
+		return createTreeOfUser(username, getConfiguration());
+	}
+
+	private static Configuration getConfiguration() {
+		return new Configuration(
+				GitSync.getProperty("jndi-ldap.url"),
+				GitSync.getProperty("jndi-ldap.bind-dn"),
+				GitSync.getProperty("jndi-ldap.password"),
+				GitSync.getProperty("jndi-ldap.user-base-dn"),
+				StringUtils.defaultIfBlank(GitSync.getProperty("jndi-ldap.user-filter"), "(objectClass=person)"),
+				StringUtils.defaultIfBlank(GitSync.getProperty("jndi-ldap.group-base-dn"),
+						GitSync.getProperty("jndi-ldap.user-base-dn")),
+				StringUtils.defaultIfBlank(GitSync.getProperty("jndi-ldap.group-filter"), DEFAULT_GROUP_FILTER),
+				StringUtils.defaultIfBlank(GitSync.getProperty("jndi-ldap.user-name-attribute"), CN),
+				StringUtils.defaultIfBlank(GitSync.getProperty("jndi-ldap.group-attribute"), "memberOf"),
+				StringUtils.defaultIfBlank(GitSync.getProperty("jndi-ldap.login-disabled-attribute"), LOGIN_DISABLED),
+				GitSync.getPropertyAsInt("jndi-ldap.page-size", 500),
+				GitSync.getPropertyAsInt("jndi-ldap.connection-timeout", 60000),
+				GitSync.getPropertyAsInt("jndi-ldap.read-timeout", 5000),
+				"com.sun.jndi.ldap.LdapCtxFactory");
+	}
+
+	/**
+	 * Creates the tree from the specified LDAP server.
+	 */
+	LdapTree createTree(Configuration configuration) {
+		LOGGER.info("Retrieving the users and their groups from LDAP server [{}]", configuration.url());
+		return createTree(configuration, configuration.userFilter());
+	}
+
+	/**
+	 * Creates the tree of the specified user from the specified LDAP server: the search of the users is restricted
+	 * to this user. The groups are still all retrieved, without their users, so that the user is removed from
+	 * the GitLab groups he has left.
+	 */
+	LdapTree createTreeOfUser(String username, Configuration configuration) {
+		LOGGER.info("Retrieving user [{}] and his groups from LDAP server [{}]", username, configuration.url());
+		String userFilter = "(&" + configuration.userFilter()
+				+ "(" + configuration.userNameAttribute() + "=" + escapeFilterValue(username) + "))";
+		return createTree(configuration, userFilter);
+	}
+
+	/**
+	 * Creates the tree from the users matching the specified filter and from all groups.
+	 */
+	private static LdapTree createTree(Configuration configuration, String userFilter) {
+		Map<LdapGroup, Map<String, LdapUser>> tree = new TreeMap<>(Comparator.comparing(LdapGroup::getName));
+		Map<String, LdapGroup> groups = new HashMap<>();
+		LdapUserRegistry registry = new LdapUserRegistry();
+
+		LdapContext context = null;
+		try {
+			context = new InitialLdapContext(getEnvironment(configuration), null);
+			int pages = search(context, configuration.userBaseDn(), userFilter,
+					new String[] {configuration.userNameAttribute(), configuration.groupAttribute(),
+							configuration.loginDisabledAttribute()},
+					configuration.pageSize(),
+					result -> addUser(result.getAttributes(), configuration, tree, groups, registry));
+			LOGGER.info("Retrieved {} LDAP users in {} groups, in {} page(s)", registry.size(), tree.size(), pages);
+
+			// the groups without users
+			pages = search(context, configuration.groupBaseDn(), configuration.groupFilter(), new String[0],
+					configuration.pageSize(),
+					result -> addGroup(result.getNameInNamespace(), tree, groups));
+			LOGGER.info("Retrieved {} LDAP groups in all, in {} page(s)", tree.size(), pages);
+		} catch (NamingException | IOException e) {
+			LOGGER.error("Exception caught while creating the LDAP tree", e);
+			throw new GitSyncException(e);
+		} finally {
+			close(context);
+		}
+		return new LdapTreeSupport(tree);
+	}
+
+	/**
+	 * Performs a paged subtree search, and passes every result to the specified handler.
+	 *
+	 * @return the number of pages
+	 */
+	private static int search(LdapContext context, String baseDn, String filter, String[] attributes, int pageSize,
+							  SearchResultHandler handler) throws NamingException, IOException {
+		SearchControls searchControls = new SearchControls();
+		searchControls.setSearchScope(SearchControls.SUBTREE_SCOPE);
+		searchControls.setReturningAttributes(attributes);
+
+		byte[] cookie = null;
+		int pages = 0;
+		do {
+			context.setRequestControls(new Control[] {new PagedResultsControl(pageSize, cookie, Control.CRITICAL)});
+			NamingEnumeration<SearchResult> results = context.search(baseDn, filter, searchControls);
+			try {
+				while (results.hasMore()) {
+					handler.handle(results.next());
+				}
+			} finally {
+				results.close();
+			}
+			pages++;
+			cookie = getCookie(context.getResponseControls());
+		} while (cookie != null && cookie.length > 0);
+		return pages;
+	}
+
+	/**
+	 * Adds the specified group to the tree, without users if none has been found in the search of the users.
+	 */
+	private static void addGroup(String groupDn,
+								 Map<LdapGroup, Map<String, LdapUser>> tree,
+								 Map<String, LdapGroup> groups) {
+		String groupName = getGroupName(groupDn);
+		if (groupName != null && isGroupRelevant(groupName)) {
+			LdapGroup group = groups.computeIfAbsent(groupName, LdapGroup::new);
+			if (!tree.containsKey(group)) {
+				LOGGER.debug("        LDAP group [{}] has no users", groupName);
+				tree.put(group, new TreeMap<>());
+			}
+		}
+	}
+
+	private static void addUser(Attributes attributes,
+								Configuration configuration,
+								Map<LdapGroup, Map<String, LdapUser>> tree,
+								Map<String, LdapGroup> groups,
+								LdapUserRegistry registry) throws NamingException {
+		String name = getValue(attributes.get(configuration.userNameAttribute()));
+		if (StringUtils.isBlank(name)) {
+			return;
+		}
+		Attribute groupAttribute = attributes.get(configuration.groupAttribute());
+		if (groupAttribute == null) {
+			LOGGER.debug("        {} belongs to no LDAP group", name);
+			return;
+		}
+
+		// an absent attribute means an active user: most LDAP servers have no such attribute
+		String loginDisabled = getValue(attributes.get(configuration.loginDisabledAttribute()));
+		LdapUser user = registry.intern(Map.of(
+				CN, name,
+				LOGIN_DISABLED, loginDisabled == null ? Boolean.FALSE.toString() : loginDisabled));
+
+		NamingEnumeration<?> groupDns = groupAttribute.getAll();
+		while (groupDns.hasMore()) {
+			String groupName = getGroupName(String.valueOf(groupDns.next()));
+			if (groupName != null && isGroupRelevant(groupName)) {
+				LOGGER.debug("        {} is user of LDAP group [{}]", name, groupName);
+				LdapGroup group = groups.computeIfAbsent(groupName, LdapGroup::new);
+				tree.computeIfAbsent(group, key -> new TreeMap<>()).put(user.getName(), user);
+			}
+		}
+	}
+
+	/**
+	 * Returns the value of the first RDN of the specified group DN, or null if the DN is invalid.
+	 */
+	static String getGroupName(String groupDn) {
+		try {
+			LdapName dn = new LdapName(groupDn);
+			if (dn.isEmpty()) {
+				return null;
+			}
+			Rdn rdn = dn.getRdn(dn.size() - 1);
+			return String.valueOf(rdn.getValue());
+		} catch (InvalidNameException e) {
+			LOGGER.warn("Invalid group DN [{}] ignored", groupDn);
+			return null;
+		}
+	}
+
+	/**
+	 * Escapes the special characters of the specified value of a search filter (RFC 4515).
+	 */
+	static String escapeFilterValue(String value) {
+		StringBuilder escaped = new StringBuilder();
+		for (char c : value.toCharArray()) {
+			switch (c) {
+				case '\\' -> escaped.append("\\5c");
+				case '*' -> escaped.append("\\2a");
+				case '(' -> escaped.append("\\28");
+				case ')' -> escaped.append("\\29");
+				case '\0' -> escaped.append("\\00");
+				default -> escaped.append(c);
+			}
+		}
+		return escaped.toString();
+	}
+
+	private static boolean isGroupRelevant(String groupName) {
+		return MissionUtils.validateGroupNameCompliantStandardGroups(groupName)
+				|| groupName.equals(MissionUtils.getAdministratorGroup())
+				|| groupName.equals(MissionUtils.getOwnerGroup());
+	}
+
+	private static String getValue(Attribute attribute) throws NamingException {
+		return attribute == null || attribute.get() == null ? null : String.valueOf(attribute.get());
+	}
+
+	private static byte[] getCookie(Control[] controls) {
+		if (controls != null) {
+			for (Control control : controls) {
+				if (control instanceof PagedResultsResponseControl pagedResultsControl) {
+					return pagedResultsControl.getCookie();
+				}
+			}
+		}
+		return null;
+	}
+
+	private static Hashtable<String, Object> getEnvironment(Configuration configuration) {
+		Hashtable<String, Object> environment = new Hashtable<>();
+		environment.put(Context.INITIAL_CONTEXT_FACTORY, configuration.initialContextFactory());
+		environment.put(Context.PROVIDER_URL, configuration.url());
+		if (StringUtils.isNotBlank(configuration.bindDn())) {
+			environment.put(Context.SECURITY_AUTHENTICATION, "simple");
+			environment.put(Context.SECURITY_PRINCIPAL, configuration.bindDn());
+			environment.put(Context.SECURITY_CREDENTIALS, StringUtils.defaultString(configuration.password()));
+		}
+		environment.put("com.sun.jndi.ldap.connect.timeout", String.valueOf(configuration.connectionTimeout()));
+		environment.put("com.sun.jndi.ldap.read.timeout", String.valueOf(configuration.readTimeout()));
+		return environment;
+	}
+
+	private static void close(LdapContext context) {
+		if (context != null) {
+			try {
+				context.close();
+			} catch (NamingException e) {
+				LOGGER.warn("Could not close the LDAP connection: {}", e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Settings of the connection to the LDAP server and of the search.
+	 *
+	 * @param initialContextFactory the JNDI factory. Always the JDK's LDAP factory, except in the tests
+	 */
+	record Configuration(String url,
+						 String bindDn,
+						 String password,
+						 String userBaseDn,
+						 String userFilter,
+						 String groupBaseDn,
+						 String groupFilter,
+						 String userNameAttribute,
+						 String groupAttribute,
+						 String loginDisabledAttribute,
+						 int pageSize,
+						 int connectionTimeout,
+						 int readTimeout,
+						 String initialContextFactory) {
+	}
+
+	/**
+	 * Processing of a search result.
+	 */
+	@FunctionalInterface
+	private interface SearchResultHandler {
+
+		void handle(SearchResult result) throws NamingException;
+
+	}
+
+}
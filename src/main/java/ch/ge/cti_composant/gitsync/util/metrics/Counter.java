@@ -0,0 +1,53 @@
+/*
+ * gitsync
+ *
+ * Copyright (C) 2017-2019 République et canton de Genève
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.ge.cti_composant.gitsync.util.metrics;
+
+import java.util.concurrent.atomic.DoubleAdder;
+
+/**
+ * A value that only increases, such as a number of calls or a time spent.
+ */
+public class Counter implements Metric {
+
+	private final DoubleAdder value = new DoubleAdder();
+
+	public void increment() {
+		value.add(1);
+	}
+
+	/**
+	 * Adds the specified amount, which must not be negative.
+	 */
+	public void add(double amount) {
+		if (amount < 0) {
+			throw new IllegalArgumentException("A counter cannot decrease: " + amount);
+		}
+		value.add(amount);
+	}
+
+	public double get() {
+		return value.sum();
+	}
+
+	@Override
+	public void write(StringBuilder out, String name, String labels) {
+		Metric.writeSample(out, name, labels, get());
+	}
+
+}
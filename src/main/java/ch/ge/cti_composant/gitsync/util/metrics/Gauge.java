@@ -0,0 +1,46 @@
+/*
+ * gitsync
+ *
+ * Copyright (C) 2017-2019 République et canton de Genève
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.ge.cti_composant.gitsync.util.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A value that can go up and down, such as a number of groups.
+ */
+public class Gauge implements Metric {
+
+	/**
+	 * The bits of the double value.
+	 */
+	private final AtomicLong bits = new AtomicLong(Double.doubleToLongBits(0));
+
+	public void set(double value) {
+		bits.set(Double.doubleToLongBits(value));
+	}
+
+	public double get() {
+		return Double.longBitsToDouble(bits.get());
+	}
+
+	@Override
+	public void write(StringBuilder out, String name, String labels) {
+		Metric.writeSample(out, name, labels, get());
+	}
+
+}
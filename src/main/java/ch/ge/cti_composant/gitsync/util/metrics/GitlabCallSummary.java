@@ -0,0 +1,82 @@
+/*
+ * gitsync
+ *
+ * Copyright (C) 2017-2019 République et canton de Genève
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.ge.cti_composant.gitsync.util.metrics;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A table of the calls to GitLab recorded in a {@link MetricsRegistry}, one line per endpoint, the endpoint where
+ * the most time was spent first.
+ */
+public class GitlabCallSummary {
+
+	private static final String FORMAT = "%-20s %8s %8s %8s %8s %8s %8s %8s %10s";
+
+	private static final double MILLIS_PER_SECOND = 1000;
+
+	private GitlabCallSummary() {
+	}
+
+	/**
+	 * Returns the lines of the table, header included, or an empty list if no call has been recorded.
+	 */
+	public static List<String> format(MetricsRegistry registry) {
+		Map<List<String>, Metric> durations = registry.getSeries(Metrics.GITLAB_REQUEST_DURATION);
+		if (durations.isEmpty()) {
+			return List.of();
+		}
+		Map<List<String>, Metric> requests = registry.getSeries(Metrics.GITLAB_REQUESTS);
+		Map<List<String>, Metric> retries = registry.getSeries(Metrics.GITLAB_RETRIES);
+
+		List<String> lines = new ArrayList<>();
+		lines.add(String.format(FORMAT,
+				"Endpoint", "Calls", "Failures", "Retries", "p50 ms", "p95 ms", "p99 ms", "max ms", "total ms"));
+		durations.entrySet().stream()
+				.sorted(Comparator.comparing((Map.Entry<List<String>, Metric> entry) ->
+						((Histogram) entry.getValue()).getSum()).reversed())
+				.forEach(entry -> {
+					String endpoint = entry.getKey().get(1);
+					Histogram histogram = (Histogram) entry.getValue();
+					lines.add(String.format(FORMAT,
+							endpoint,
+							histogram.getCount(),
+							getCount(requests, List.of("endpoint", endpoint, "outcome", "failure")),
+							getCount(retries, List.of("endpoint", endpoint)),
+							toMillis(histogram.getPercentile(50)),
+							toMillis(histogram.getPercentile(95)),
+							toMillis(histogram.getPercentile(99)),
+							toMillis(histogram.getMax()),
+							toMillis(histogram.getSum())));
+				});
+		return lines;
+	}
+
+	private static long getCount(Map<List<String>, Metric> series, List<String> labels) {
+		Metric counter = series.get(labels);
+		return counter == null ? 0 : (long) ((Counter) counter).get();
+	}
+
+	private static long toMillis(double seconds) {
+		return Math.round(seconds * MILLIS_PER_SECOND);
+	}
+
+}
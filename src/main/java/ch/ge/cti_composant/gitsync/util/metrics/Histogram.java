@@ -0,0 +1,184 @@
+/*
+ * gitsync
+ *
+ * Copyright (C) 2017-2019 République et canton de Genève
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.ge.cti_composant.gitsync.util.metrics;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.DoubleAccumulator;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The distribution of durations, counted in fixed buckets.
+ * <p>
+ * Besides the buckets exported to Prometheus, the durations are counted in finer buckets, whose bounds grow
+ * exponentially from one microsecond, 4 buckets per power of 2. A percentile is thus estimated with an error of
+ * at most 25%, at the cost of a few increments per observation, without keeping the observations.
+ * </p>
+ */
+public class Histogram implements Metric {
+
+	/**
+	 * Upper bounds of the buckets, in seconds. They span the duration of a call to GitLab or to the LDAP server,
+	 * up to the duration of a mission.
+	 */
+	static final double[] BUCKETS = {0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60, 300};
+
+	/**
+	 * Number of observations per bucket. The last element counts the observations above the last bound.
+	 */
+	private final LongAdder[] counts = new LongAdder[BUCKETS.length + 1];
+
+	/**
+	 * Number of fine buckets per power of 2.
+	 */
+	private static final int SUB_BUCKETS = 4;
+
+	/**
+	 * Number of fine buckets: enough for durations of several days, in microseconds.
+	 */
+	private static final int FINE_BUCKETS = 40 * SUB_BUCKETS;
+
+	private static final double MICROS_PER_SECOND = 1e6;
+
+	private final DoubleAdder sum = new DoubleAdder();
+
+	private final DoubleAccumulator max = new DoubleAccumulator(Math::max, 0);
+
+	/**
+	 * Number of observations per fine bucket, see {@link #getFineBucket(long)}.
+	 */
+	private final AtomicLongArray fineCounts = new AtomicLongArray(FINE_BUCKETS);
+
+	public Histogram() {
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] = new LongAdder();
+		}
+	}
+
+	/**
+	 * Records a duration.
+	 */
+	public void observe(Duration duration) {
+		observe(duration.toNanos() / 1e9);
+	}
+
+	/**
+	 * Records a duration, in seconds.
+	 */
+	public void observe(double seconds) {
+		int bucket = 0;
+		while (bucket < BUCKETS.length && seconds > BUCKETS[bucket]) {
+			bucket++;
+		}
+		counts[bucket].increment();
+		sum.add(seconds);
+		max.accumulate(seconds);
+		fineCounts.incrementAndGet(getFineBucket((long) (seconds * MICROS_PER_SECOND)));
+	}
+
+	public long getCount() {
+		long total = 0;
+		for (LongAdder bucketCount : counts) {
+			total += bucketCount.sum();
+		}
+		return total;
+	}
+
+	/**
+	 * Returns the sum of the durations, in seconds.
+	 */
+	public double getSum() {
+		return sum.sum();
+	}
+
+	/**
+	 * Returns the longest duration, in seconds.
+	 */
+	public double getMax() {
+		return max.get();
+	}
+
+	/**
+	 * Returns an estimate of the specified percentile of the durations, in seconds: the upper bound of the fine
+	 * bucket that contains it, but not more than the longest duration.
+	 *
+	 * @param percentile a number between 0 and 100, such as 95
+	 * @return the estimate, or 0 if nothing has been observed
+	 */
+	public double getPercentile(double percentile) {
+		long[] snapshot = new long[FINE_BUCKETS];
+		long total = 0;
+		for (int i = 0; i < FINE_BUCKETS; i++) {
+			snapshot[i] = fineCounts.get(i);
+			total += snapshot[i];
+		}
+		if (total == 0) {
+			return 0;
+		}
+		long rank = Math.max((long) Math.ceil(percentile / 100 * total), 1);
+		long cumulativeCount = 0;
+		int bucket = 0;
+		while (bucket < FINE_BUCKETS - 1 && cumulativeCount + snapshot[bucket] < rank) {
+			cumulativeCount += snapshot[bucket];
+			bucket++;
+		}
+		return Math.min(getFineBucketUpperBound(bucket) / MICROS_PER_SECOND, getMax());
+	}
+
+	/**
+	 * Returns the fine bucket of the specified duration. The durations under 4 microseconds have a bucket each;
+	 * from 4 microseconds, each power of 2 is split in {@value #SUB_BUCKETS} buckets of the same width.
+	 */
+	static int getFineBucket(long micros) {
+		if (micros < SUB_BUCKETS) {
+			return (int) Math.max(micros, 0);
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(micros);
+		int subBucket = (int) (micros >> (exponent - 2)) & (SUB_BUCKETS - 1);
+		return Math.min(exponent * SUB_BUCKETS + subBucket, FINE_BUCKETS - 1);
+	}
+
+	/**
+	 * Returns the exclusive upper bound of the specified fine bucket, in microseconds.
+	 */
+	static long getFineBucketUpperBound(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket + 1L;
+		}
+		int exponent = bucket / SUB_BUCKETS;
+		int subBucket = bucket % SUB_BUCKETS;
+		return (SUB_BUCKETS + subBucket + 1L) << (exponent - 2);
+	}
+
+	@Override
+	public void write(StringBuilder out, String name, String labels) {
+		String separator = labels.isEmpty() ? "" : labels + ",";
+		long cumulativeCount = 0;
+		for (int i = 0; i < BUCKETS.length; i++) {
+			cumulativeCount += counts[i].sum();
+			Metric.writeSample(out, name + "_bucket", separator + "le=\"" + BUCKETS[i] + "\"", cumulativeCount);
+		}
+		cumulativeCount += counts[BUCKETS.length].sum();
+		Metric.writeSample(out, name + "_bucket", separator + "le=\"+Inf\"", cumulativeCount);
+		Metric.writeSample(out, name + "_sum", labels, getSum());
+		Metric.writeSample(out, name + "_count", labels, cumulativeCount);
+	}
+
+}
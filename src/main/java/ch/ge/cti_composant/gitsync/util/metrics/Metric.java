@@ -0,0 +1,55 @@
+/*
+ * gitsync
+ *
+ * Copyright (C) 2017-2019 République et canton de Genève
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.ge.cti_composant.gitsync.util.metrics;
+
+/**
+ * A time series of a {@link MetricsRegistry}.
+ */
+interface Metric {
+
+	/**
+	 * Appends the samples of this series, in the Prometheus text format.
+	 *
+	 * @param name name of the metric
+	 * @param labels labels of the series, such as {@code endpoint="getUsers"}. Can be empty
+	 */
+	void write(StringBuilder out, String name, String labels);
+
+	/**
+	 * Formats a sample value. Integer values are written without decimals.
+	 */
+	static String format(double value) {
+		if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+			return Long.toString((long) value);
+		}
+		return Double.toString(value);
+	}
+
+	/**
+	 * Appends a sample line.
+	 */
+	static void writeSample(StringBuilder out, String name, String labels, double value) {
+		out.append(name);
+		if (!labels.isEmpty()) {
+			out.append('{').append(labels).append('}');
+		}
+		out.append(' ').append(format(value)).append('\n');
+	}
+
+}
@@ -0,0 +1,276 @@
+/*
+ * gitsync
+ *
+ * Copyright (C) 2017-2019 République et canton de Genève
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.ge.cti_composant.gitsync.util.metrics;
+
+import ch.ge.cti_composant.gitsync.util.jfr.MissionEvent;
+import ch.ge.cti_composant.gitsync.util.trace.Trace;
+import org.slf4j.MDC;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * The metrics recorded by the application.
+ * <p>
+ * Every metric is recorded in the {@link MetricsRegistry#getDefault() default registry}, which covers the lifetime
+ * of the JVM, and in the {@link #getRunRegistry() registry of the current run}, which is summarized at the end of
+ * the run.
+ * </p>
+ * <p>
+ * The modifications of GitLab are counted per mission: the mission running is set by
+ * {@link #runMission(String, Runnable)} in the logging context (MDC), so that it is also known by the tasks that
+ * {@link ch.ge.cti_composant.gitsync.util.LogContext} propagates to other threads.
+ * </p>
+ */
+public class Metrics {
+
+	/**
+	 * Value of label "mission" for the modifications performed outside any mission.
+	 */
+	public static final String NO_MISSION = "none";
+
+	/**
+	 * Key of the mission in the logging context.
+	 */
+	private static final String MISSION_KEY = "mission";
+
+	static final String GITLAB_REQUESTS = "gitsync_gitlab_requests_total";
+
+	static final String GITLAB_REQUEST_DURATION = "gitsync_gitlab_request_duration_seconds";
+
+	static final String GITLAB_RETRIES = "gitsync_gitlab_retries_total";
+
+	private static final double NANOS_PER_SECOND = 1e9;
+
+	private static volatile MetricsRegistry runRegistry = new MetricsRegistry();
+
+	private Metrics() {
+	}
+
+	/**
+	 * Starts a new run: the metrics of the previous run are discarded from the {@link #getRunRegistry() registry
+	 * of the current run}.
+	 */
+	public static void startRun() {
+		runRegistry = new MetricsRegistry();
+	}
+
+	/**
+	 * Returns the metrics recorded since the start of the current run.
+	 */
+	public static MetricsRegistry getRunRegistry() {
+		return runRegistry;
+	}
+
+	/**
+	 * Records a call to GitLab.
+	 *
+	 * @param endpoint the method of {@code GitlabAPIWrapper} called
+	 * @param success false if GitLab returned an error
+	 */
+	public static void recordGitlabCall(String endpoint, boolean success, Duration duration) {
+		for (MetricsRegistry registry : getRegistries()) {
+			registry.counter(GITLAB_REQUESTS, "Calls to GitLab",
+							"endpoint", endpoint, "outcome", success ? "success" : "failure")
+					.increment();
+			registry.histogram(GITLAB_REQUEST_DURATION, "Duration of the calls to GitLab",
+							"endpoint", endpoint)
+					.observe(duration);
+		}
+	}
+
+	/**
+	 * Records a call to GitLab that is going to be performed again, after a failure.
+	 */
+	public static void recordGitlabRetry(String endpoint) {
+		for (MetricsRegistry registry : getRegistries()) {
+			registry.counter(GITLAB_RETRIES, "Calls to GitLab performed again after a failure",
+							"endpoint", endpoint)
+					.increment();
+		}
+	}
+
+	/**
+	 * Records a call to GitLab rejected because the circuit breaker is open.
+	 */
+	public static void recordGitlabRejection(String endpoint) {
+		for (MetricsRegistry registry : getRegistries()) {
+			registry.counter("gitsync_gitlab_rejected_total", "Calls to GitLab rejected by the open circuit breaker",
+							"endpoint", endpoint)
+					.increment();
+		}
+	}
+
+	/**
+	 * Records the time spent waiting for the rate limiter before a call to GitLab.
+	 */
+	public static void recordGitlabThrottling(long waitNanos) {
+		for (MetricsRegistry registry : getRegistries()) {
+			registry.counter("gitsync_gitlab_throttled_seconds_total", "Time spent waiting for the GitLab rate limiter")
+					.add(waitNanos / NANOS_PER_SECOND);
+		}
+	}
+
+	/**
+	 * Records a modification of GitLab requested by the current mission.
+	 *
+	 * @param operation the method of {@code GitlabState} called, such as {@code addGroupMember}
+	 */
+	public static void recordGitlabWrite(String operation) {
+		String mission = getCurrentMission();
+		for (MetricsRegistry registry : getRegistries()) {
+			registry.counter("gitsync_gitlab_writes_total", "Modifications of GitLab requested by the missions",
+							"mission", mission, "operation", operation)
+					.increment();
+		}
+	}
+
+	/**
+	 * Records the creation of a GitLab group.
+	 */
+	public static void recordGroupCreation() {
+		for (MetricsRegistry registry : getRegistries()) {
+			registry.counter("gitsync_gitlab_groups_created_total", "GitLab groups created from the LDAP groups")
+					.increment();
+		}
+	}
+
+	/**
+	 * Records the number of GitLab users.
+	 */
+	public static void recordGitlabUsers(int users) {
+		for (MetricsRegistry registry : getRegistries()) {
+			registry.gauge("gitsync_gitlab_users", "GitLab users of the last run").set(users);
+		}
+	}
+
+	/**
+	 * Records the number of GitLab groups processed.
+	 */
+	public static void recordGitlabGroups(int groups) {
+		for (MetricsRegistry registry : getRegistries()) {
+			registry.gauge("gitsync_gitlab_groups", "GitLab groups of the last run that come from the LDAP server")
+					.set(groups);
+		}
+	}
+
+	/**
+	 * Records the retrieval of the users of an LDAP group.
+	 *
+	 * @param success false if the LDAP server returned an error
+	 * @param startNanos start of the retrieval, as returned by {@link System#nanoTime()}
+	 */
+	public static void recordLdapQuery(boolean success, long startNanos) {
+		double seconds = elapsedSeconds(startNanos);
+		for (MetricsRegistry registry : getRegistries()) {
+			registry.counter("gitsync_ldap_requests_total", "Retrievals of the users of an LDAP group",
+							"outcome", success ? "success" : "failure")
+					.increment();
+			registry.histogram("gitsync_ldap_request_duration_seconds", "Duration of the retrievals of the users of an LDAP group")
+					.observe(seconds);
+		}
+	}
+
+	/**
+	 * Records the number of elements of the last LDAP tree.
+	 */
+	public static void recordLdapTree(int users, int groups) {
+		for (MetricsRegistry registry : getRegistries()) {
+			registry.gauge("gitsync_ldap_users", "Distinct LDAP users of the last run").set(users);
+			registry.gauge("gitsync_ldap_groups", "LDAP groups of the last run").set(groups);
+		}
+	}
+
+	/**
+	 * Records the duration of a phase of a run.
+	 *
+	 * @param startNanos start of the phase, as returned by {@link System#nanoTime()}
+	 */
+	public static void recordPhase(String phase, long startNanos) {
+		double seconds = elapsedSeconds(startNanos);
+		for (MetricsRegistry registry : getRegistries()) {
+			registry.histogram("gitsync_phase_duration_seconds", "Duration of the phases of the runs", "phase", phase)
+					.observe(seconds);
+		}
+	}
+
+	/**
+	 * Records the end of a run.
+	 *
+	 * @param success false if the run was interrupted by an error
+	 * @param startNanos start of the run, as returned by {@link System#nanoTime()}
+	 */
+	public static void recordRun(boolean success, long startNanos) {
+		double seconds = elapsedSeconds(startNanos);
+		for (MetricsRegistry registry : getRegistries()) {
+			registry.counter("gitsync_runs_total", "Runs", "outcome", success ? "success" : "failure").increment();
+			registry.gauge("gitsync_last_run_duration_seconds", "Duration of the last run").set(seconds);
+			registry.gauge("gitsync_last_run_timestamp_seconds", "End of the last run, in seconds since the epoch")
+					.set(System.currentTimeMillis() / 1000.0);
+		}
+	}
+
+	/**
+	 * Runs the specified mission, or part of mission, and records its duration. The modifications of GitLab
+	 * requested meanwhile are counted for this mission. A Flight Recorder event and a span of the trace are emitted
+	 * for the mission.
+	 */
+	public static void runMission(String mission, Runnable task) {
+		String previousMission = MDC.get(MISSION_KEY);
+		MDC.put(MISSION_KEY, mission);
+		MissionEvent event = new MissionEvent(mission);
+		event.begin();
+		long start = System.nanoTime();
+		boolean success = false;
+		try {
+			task.run();
+			success = true;
+		} finally {
+			event.end(success);
+			Trace.record(mission, Trace.MISSION, start);
+			double seconds = elapsedSeconds(start);
+			for (MetricsRegistry registry : getRegistries()) {
+				registry.counter("gitsync_mission_seconds_total", "Time spent in the missions", "mission", mission)
+						.add(seconds);
+			}
+			if (previousMission == null) {
+				MDC.remove(MISSION_KEY);
+			} else {
+				MDC.put(MISSION_KEY, previousMission);
+			}
+		}
+	}
+
+	/**
+	 * Returns the mission running, or {@link #NO_MISSION}.
+	 */
+	public static String getCurrentMission() {
+		String mission = MDC.get(MISSION_KEY);
+		return mission == null ? NO_MISSION : mission;
+	}
+
+	private static List<MetricsRegistry> getRegistries() {
+		return List.of(MetricsRegistry.getDefault(), runRegistry);
+	}
+
+	private static double elapsedSeconds(long startNanos) {
+		return (System.nanoTime() - startNanos) / NANOS_PER_SECOND;
+	}
+
+}
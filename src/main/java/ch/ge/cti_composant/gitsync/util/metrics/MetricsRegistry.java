@@ -0,0 +1,191 @@
+/*
+ * gitsync
+ *
+ * Copyright (C) 2017-2019 République et canton de Genève
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.ge.cti_composant.gitsync.util.metrics;
+
+import ch.ge.cti_composant.gitsync.util.AtomicFiles;
+import ch.ge.cti_composant.gitsync.util.exception.GitSyncException;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+/**
+ * The metrics of the application: counters, gauges and histograms, each identified by a name and by labels.
+ * <p>
+ * A metric is created the first time it is requested, then the same object is returned. The metrics are kept for
+ * the lifetime of the JVM, so that in daemon mode the counters cover all runs, as expected by Prometheus.
+ * The metrics are exported in the
+ * <a href="https://prometheus.io/docs/instrumenting/exposition_formats/">Prometheus text format</a>.
+ * </p>
+ */
+public class MetricsRegistry {
+
+	private static final MetricsRegistry DEFAULT = new MetricsRegistry();
+
+	/**
+	 * Key = metric name.
+	 */
+	private final ConcurrentMap<String, Family> families = new ConcurrentHashMap<>();
+
+	/**
+	 * Returns the registry of the application.
+	 */
+	public static MetricsRegistry getDefault() {
+		return DEFAULT;
+	}
+
+	/**
+	 * Returns the specified counter.
+	 *
+	 * @param name name of the metric, such as {@code gitsync_gitlab_requests_total}
+	 * @param help description of the metric
+	 * @param labels names and values of the labels, alternately
+	 */
+	public Counter counter(String name, String help, String... labels) {
+		return family(name, help, Type.COUNTER).get(labels, Counter.class, Counter::new);
+	}
+
+	/**
+	 * Returns the specified gauge.
+	 *
+	 * @see #counter(String, String, String...)
+	 */
+	public Gauge gauge(String name, String help, String... labels) {
+		return family(name, help, Type.GAUGE).get(labels, Gauge.class, Gauge::new);
+	}
+
+	/**
+	 * Returns the specified histogram of durations.
+	 *
+	 * @see #counter(String, String, String...)
+	 */
+	public Histogram histogram(String name, String help, String... labels) {
+		return family(name, help, Type.HISTOGRAM).get(labels, Histogram.class, Histogram::new);
+	}
+
+	/**
+	 * Returns all metrics in the Prometheus text format, sorted by name and by labels.
+	 */
+	public String scrape() {
+		StringBuilder out = new StringBuilder();
+		new TreeMap<>(families).values().forEach(family -> family.write(out));
+		return out.toString();
+	}
+
+	/**
+	 * Returns the series of the specified metric.
+	 *
+	 * @return a map where a key is the names and values of the labels, alternately, and a value is a metric.
+	 * Empty if the metric does not exist
+	 */
+	Map<List<String>, Metric> getSeries(String name) {
+		Family family = families.get(name);
+		return family == null ? Map.of() : Map.copyOf(family.series);
+	}
+
+	/**
+	 * Writes all metrics to the specified file, in the Prometheus text format. The file is replaced atomically,
+	 * so that a tool that collects it never reads a partial file.
+	 */
+	public void write(Path file) {
+		try {
+			AtomicFiles.write(file, out -> out.write(scrape().getBytes(StandardCharsets.UTF_8)));
+		} catch (IOException e) {
+			throw new GitSyncException("Could not write the metrics to file [" + file + "]", e);
+		}
+	}
+
+	private Family family(String name, String help, Type type) {
+		Family family = families.computeIfAbsent(name, key -> new Family(name, help, type));
+		if (family.type != type) {
+			throw new GitSyncException("Metric [" + name + "] is a " + family.type.getName() + ", not a " + type.getName());
+		}
+		return family;
+	}
+
+	private enum Type {
+		COUNTER, GAUGE, HISTOGRAM;
+
+		String getName() {
+			return name().toLowerCase(Locale.ROOT);
+		}
+	}
+
+	/**
+	 * The series of a metric.
+	 */
+	private static final class Family {
+
+		private final String name;
+
+		private final String help;
+
+		private final Type type;
+
+		/**
+		 * Key = the names and values of the labels, alternately.
+		 */
+		private final ConcurrentMap<List<String>, Metric> series = new ConcurrentHashMap<>();
+
+		private Family(String name, String help, Type type) {
+			this.name = name;
+			this.help = help;
+			this.type = type;
+		}
+
+		private <M extends Metric> M get(String[] labels, Class<M> metricClass, Supplier<M> factory) {
+			if (labels.length % 2 != 0) {
+				throw new IllegalArgumentException("Labels expected as names and values, alternately");
+			}
+			return metricClass.cast(series.computeIfAbsent(List.of(labels), key -> factory.get()));
+		}
+
+		private void write(StringBuilder out) {
+			out.append("# HELP ").append(name).append(' ').append(escape(help, false)).append('\n');
+			out.append("# TYPE ").append(name).append(' ').append(type.getName()).append('\n');
+			Map<String, Metric> sortedSeries = new TreeMap<>();
+			series.forEach((labels, metric) -> sortedSeries.put(formatLabels(labels), metric));
+			sortedSeries.forEach((labels, metric) -> metric.write(out, name, labels));
+		}
+
+		private static String formatLabels(List<String> labels) {
+			StringBuilder formatted = new StringBuilder();
+			for (int i = 0; i < labels.size(); i += 2) {
+				if (i > 0) {
+					formatted.append(',');
+				}
+				formatted.append(labels.get(i)).append("=\"").append(escape(labels.get(i + 1), true)).append('"');
+			}
+			return formatted.toString();
+		}
+
+		private static String escape(String s, boolean quote) {
+			String escaped = String.valueOf(s).replace("\\", "\\\\").replace("\n", "\\n");
+			return quote ? escaped.replace("\"", "\\\"") : escaped;
+		}
+	}
+
+}
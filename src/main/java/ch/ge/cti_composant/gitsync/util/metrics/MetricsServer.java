@@ -0,0 +1,107 @@
+/*
+ * gitsync
+ *
+ * Copyright (C) 2017-2019 République et canton de Genève
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.ge.cti_composant.gitsync.util.metrics;
+
+import ch.ge.cti_composant.gitsync.util.exception.GitSyncException;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * HTTP endpoint that exposes the metrics of a {@link MetricsRegistry} to Prometheus.
+ */
+public class MetricsServer {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(MetricsServer.class);
+
+	/**
+	 * Path of the endpoint.
+	 */
+	public static final String PATH = "/metrics";
+
+	private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+	private static final int HTTP_OK = 200;
+
+	private static final int HTTP_METHOD_NOT_ALLOWED = 405;
+
+	private final MetricsRegistry registry;
+
+	private final HttpServer server;
+
+	/**
+	 * Constructor. The server is not started.
+	 *
+	 * @param port the port to listen to. 0 for any free port
+	 */
+	public MetricsServer(int port, MetricsRegistry registry) {
+		this.registry = registry;
+		try {
+			server = HttpServer.create(new InetSocketAddress(port), 0);
+		} catch (IOException e) {
+			throw new GitSyncException("Could not create the metrics server on port " + port, e);
+		}
+		server.createContext(PATH, this::handle);
+	}
+
+	/**
+	 * Starts listening.
+	 */
+	public void start() {
+		server.start();
+		LOGGER.info("Exposing the metrics on port {}, path {}", getPort(), PATH);
+	}
+
+	/**
+	 * Stops listening.
+	 */
+	public void stop() {
+		server.stop(0);
+		LOGGER.info("Metrics server stopped");
+	}
+
+	/**
+	 * Returns the port listened to.
+	 */
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		try (exchange) {
+			if (!"GET".equals(exchange.getRequestMethod())) {
+				exchange.sendResponseHeaders(HTTP_METHOD_NOT_ALLOWED, -1);
+				return;
+			}
+			byte[] body = registry.scrape().getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+			exchange.sendResponseHeaders(HTTP_OK, body.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(body);
+			}
+		}
+	}
+
+}
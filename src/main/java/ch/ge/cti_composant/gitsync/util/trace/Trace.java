@@ -0,0 +1,113 @@
+/*
+ * gitsync
+ *
+ * Copyright (C) 2017-2019 République et canton de Genève
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.ge.cti_composant.gitsync.util.trace;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Path;
+
+/**
+ * Static access to the trace of the current run, if any.
+ * <p>
+ * The spans are nested as follows: run, phase, mission, group, call to GitLab or to the LDAP server.
+ * When no trace is being recorded, the methods of this class do nothing.
+ * </p>
+ */
+public class Trace {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(Trace.class);
+
+	public static final String RUN = "run";
+
+	public static final String PHASE = "phase";
+
+	public static final String MISSION = "mission";
+
+	public static final String GROUP = "group";
+
+	public static final String GITLAB_CALL = "gitlab";
+
+	public static final String LDAP_QUERY = "ldap";
+
+	/**
+	 * The trace being recorded, or null.
+	 */
+	private static volatile TraceRecorder recorder;
+
+	private Trace() {
+	}
+
+	/**
+	 * Starts the recording of a trace. A trace already being recorded is discarded.
+	 */
+	public static void start() {
+		recorder = new TraceRecorder();
+	}
+
+	/**
+	 * Stops the recording of the trace, and writes it to the specified file.
+	 * Does nothing if no trace is being recorded.
+	 */
+	public static void stop(Path file) {
+		TraceRecorder current = recorder;
+		recorder = null;
+		if (current != null) {
+			current.write(file);
+			LOGGER.info("Trace written to file [{}]", file);
+		}
+	}
+
+	/**
+	 * Returns true if a trace is being recorded.
+	 */
+	public static boolean isRecording() {
+		return recorder != null;
+	}
+
+	/**
+	 * Records a span performed by the current thread, from the specified start to now.
+	 *
+	 * @param startNanos start of the span, as returned by {@link System#nanoTime()}
+	 * @param args names and values of the details of the span, alternately. The null values are ignored
+	 */
+	public static void record(String name, String category, long startNanos, String... args) {
+		TraceRecorder current = recorder;
+		if (current != null) {
+			current.add(name, category, startNanos, System.nanoTime(), args);
+		}
+	}
+
+	/**
+	 * Runs the specified task, and records it as a span, even if it fails.
+	 */
+	public static void run(String name, String category, Runnable task) {
+		if (recorder == null) {
+			task.run();
+			return;
+		}
+		long start = System.nanoTime();
+		try {
+			task.run();
+		} finally {
+			record(name, category, start);
+		}
+	}
+
+}
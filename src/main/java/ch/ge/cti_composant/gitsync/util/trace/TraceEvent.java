@@ -0,0 +1,35 @@
+/*
+ * gitsync
+ *
+ * Copyright (C) 2017-2019 République et canton de Genève
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.ge.cti_composant.gitsync.util.trace;
+
+import java.util.Map;
+
+/**
+ * A span of the trace: an operation, with its start, its duration and the thread that performed it.
+ *
+ * @param name name of the span, for example the name of the mission
+ * @param category category of the span, see the constants of {@link Trace}
+ * @param startMicros start, in microseconds since the start of the trace
+ * @param durationMicros duration, in microseconds
+ * @param threadId id of the thread that performed the operation
+ * @param args details of the span, shown by the trace viewer
+ */
+record TraceEvent(String name, String category, double startMicros, double durationMicros, long threadId,
+				  Map<String, String> args) {
+}
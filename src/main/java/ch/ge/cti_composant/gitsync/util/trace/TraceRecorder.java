@@ -0,0 +1,156 @@
+/*
+ * gitsync
+ *
+ * Copyright (C) 2017-2019 République et canton de Genève
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.ge.cti_composant.gitsync.util.trace;
+
+import ch.ge.cti_composant.gitsync.util.AtomicFiles;
+import ch.ge.cti_composant.gitsync.util.exception.GitSyncException;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Collects the spans of a run, and writes them in the Chrome Trace Event format, which can be opened for example
+ * in Perfetto (https://ui.perfetto.dev) or in chrome://tracing.
+ * <p>
+ * The spans are written as "complete" events: the viewer nests them by thread, according to their start and end.
+ * Each thread is shown on its own line, with its name.
+ * This class is thread-safe.
+ * </p>
+ */
+public class TraceRecorder {
+
+	/**
+	 * The whole application is shown as a single process.
+	 */
+	private static final int PROCESS_ID = 1;
+
+	private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+	private final long startNanos = System.nanoTime();
+
+	private final Queue<TraceEvent> events = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * Key = thread id. Value = thread name.
+	 */
+	private final Map<Long, String> threadNames = new ConcurrentHashMap<>();
+
+	/**
+	 * Adds a span performed by the current thread.
+	 *
+	 * @param startNanos start of the span, as returned by {@link System#nanoTime()}
+	 * @param endNanos end of the span, as returned by {@link System#nanoTime()}
+	 * @param args names and values of the details of the span, alternately. The null values are ignored
+	 */
+	public void add(String name, String category, long startNanos, long endNanos, String... args) {
+		if (args.length % 2 != 0) {
+			throw new GitSyncException("Span [" + name + "]: the details must be pairs of name and value");
+		}
+		Map<String, String> argMap = new LinkedHashMap<>();
+		for (int i = 0; i < args.length; i += 2) {
+			if (args[i + 1] != null) {
+				argMap.put(args[i], args[i + 1]);
+			}
+		}
+		Thread thread = Thread.currentThread();
+		long threadId = thread.threadId();
+		threadNames.computeIfAbsent(threadId, id -> getName(thread));
+		events.add(new TraceEvent(name, category, toMicros(startNanos - this.startNanos),
+				toMicros(endNanos - startNanos), threadId, argMap));
+	}
+
+	private static String getName(Thread thread) {
+		if (!thread.getName().isEmpty()) {
+			return thread.getName();
+		}
+		return (thread.isVirtual() ? "virtual-" : "thread-") + thread.threadId();
+	}
+
+	private static double toMicros(long nanos) {
+		return nanos / 1000.0;
+	}
+
+	/**
+	 * Returns the spans added so far.
+	 */
+	List<TraceEvent> getEvents() {
+		return new ArrayList<>(events);
+	}
+
+	/**
+	 * Writes the spans to the specified file, in the Chrome Trace Event format. The file is replaced atomically.
+	 */
+	public void write(Path file) {
+		try {
+			AtomicFiles.write(file, out -> {
+				try (JsonGenerator generator = JSON_FACTORY.createGenerator(out, JsonEncoding.UTF8)) {
+					write(generator);
+				}
+			});
+		} catch (IOException e) {
+			throw new GitSyncException("Could not write the trace to file [" + file + "]", e);
+		}
+	}
+
+	private void write(JsonGenerator generator) throws IOException {
+		generator.writeStartObject();
+		generator.writeStringField("displayTimeUnit", "ms");
+		generator.writeArrayFieldStart("traceEvents");
+		for (Map.Entry<Long, String> thread : threadNames.entrySet()) {
+			generator.writeStartObject();
+			generator.writeStringField("name", "thread_name");
+			generator.writeStringField("ph", "M");
+			generator.writeNumberField("pid", PROCESS_ID);
+			generator.writeNumberField("tid", thread.getKey());
+			generator.writeObjectFieldStart("args");
+			generator.writeStringField("name", thread.getValue());
+			generator.writeEndObject();
+			generator.writeEndObject();
+		}
+		for (TraceEvent event : events) {
+			generator.writeStartObject();
+			generator.writeStringField("name", event.name());
+			generator.writeStringField("cat", event.category());
+			generator.writeStringField("ph", "X");
+			generator.writeNumberField("ts", event.startMicros());
+			generator.writeNumberField("dur", event.durationMicros());
+			generator.writeNumberField("pid", PROCESS_ID);
+			generator.writeNumberField("tid", event.threadId());
+			generator.writeObjectFieldStart("args");
+			for (Map.Entry<String, String> arg : event.args().entrySet()) {
+				generator.writeStringField(arg.getKey(), arg.getValue());
+			}
+			generator.writeEndObject();
+			generator.writeEndObject();
+		}
+		generator.writeEndArray();
+		generator.writeEndObject();
+	}
+
+}
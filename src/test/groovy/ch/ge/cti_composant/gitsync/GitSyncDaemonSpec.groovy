@@ -0,0 +1,65 @@
+/*
+ * gitsync
+ *
+ * Copyright (C) 2017-2019 République et canton de Genève
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.ge.cti_composant.gitsync
+
+import spock.lang.Specification
+
+import java.time.Duration
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Tests class {@link GitSyncDaemon}.
+ */
+class GitSyncDaemonSpec extends Specification {
+
+    def "the runs should never overlap, and a failed run should not prevent the next ones"() {
+        given:
+        def running = new AtomicInteger()
+        def maxRunning = new AtomicInteger()
+        def fullSyncs = Collections.synchronizedList([])
+        def fiveRuns = new CountDownLatch(5)
+        def gitSync = Mock(GitSync)
+        def daemon = new GitSyncDaemon(gitSync, Duration.ofMillis(5))
+
+        when:
+        def thread = Thread.start { daemon.start(true) }
+        fiveRuns.await(10, TimeUnit.SECONDS)
+        daemon.stop()
+        thread.join(10_000)
+
+        then:
+        (5.._) * gitSync.synchronize(_) >> { boolean fullSync ->
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max)
+            fullSyncs << fullSync
+            Thread.sleep(10)
+            running.decrementAndGet()
+            fiveRuns.countDown()
+            if (fullSyncs.size() == 2) {
+                throw new IllegalStateException("failed run")
+            }
+        }
+        maxRunning.get() == 1
+        fullSyncs[0]
+        !fullSyncs[1..-1].any()
+        !thread.isAlive()
+    }
+
+}
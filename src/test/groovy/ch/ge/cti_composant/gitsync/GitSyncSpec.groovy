@@ -0,0 +1,210 @@
+/*
+ * gitsync
+ *
+ * Copyright (C) 2017-2019 République et canton de Genève
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.ge.cti_composant.gitsync
+
+import ch.ge.cti_composant.gitsync.util.MissionUtils
+import ch.ge.cti_composant.gitsync.util.gitlab.GitlabAPIWrapper
+import ch.ge.cti_composant.gitsync.util.gitlab.RateLimiter
+import ch.ge.cti_composant.gitsync.util.ldap.LdapGroup
+import ch.ge.cti_composant.gitsync.util.ldap.LdapTreeSupport
+import ch.ge.cti_composant.gitsync.util.ldap.LdapUser
+import ch.ge.cti_composant.gitsync.util.trace.Trace
+import org.gitlab4j.api.models.Group
+import org.gitlab4j.api.models.Member
+import org.gitlab4j.api.models.Membership
+import org.gitlab4j.api.models.MembershipSourceType
+import org.gitlab4j.api.models.User
+import spock.lang.Specification
+
+import java.nio.file.Files
+
+import static org.gitlab4j.api.models.AccessLevel.DEVELOPER
+import static org.gitlab4j.api.models.AccessLevel.MAINTAINER
+
+/**
+ * Tests class {@link GitSync}: the calls to GitLab performed by the targeted runs for one group and for one user,
+ * the end of a run and the reading of the parameters.
+ */
+class GitSyncSpec extends Specification {
+
+    def dev = new Group().withId(10L).withName("DEV").withPath("DEV").withFullPath("DEV")
+
+    def ops = new Group().withId(20L).withName("OPS").withPath("OPS").withFullPath("OPS")
+
+    def jean = user(1L, "JEAN")
+
+    def intruder = user(2L, "INTRUDER")
+
+    def ldapTree = new LdapTreeSupport([
+            (new LdapGroup("DEV")): [JEAN: ldapUser("JEAN")],
+            (new LdapGroup("OPS")): [MARIE: ldapUser("MARIE")]])
+
+    def api = Mock(GitlabAPIWrapper)
+
+    def gitSync = new GitSync(api, ldapTree)
+
+    def setup() {
+        MissionUtils.clearCaches()
+    }
+
+    def "reconcileGroup should only retrieve the group, its members and the users concerned"() {
+        when:
+        gitSync.reconcileGroup("DEV", "INTRUDER")
+
+        then:
+        1 * api.getGroup("DEV") >> dev
+        1 * api.getUser("JEAN") >> jean
+        1 * api.getUser("INTRUDER") >> intruder
+        1 * api.getGroupMembers(dev) >> [member(intruder, MAINTAINER)]
+        1 * api.deleteGroupMember(dev, 2L)
+        1 * api.addGroupMember(dev, 1L, MAINTAINER)
+        0 * api.getUser("MARIE")
+        0 * api.getGroups()
+        0 * api.getUsers()
+        0 * api.getGroupMembers(ops)
+        0 * api.createGroup(_)
+    }
+
+    def "reconcileGroup should ignore a group that does not come from the LDAP server"() {
+        when:
+        gitSync.reconcileGroup("QA", "JEAN")
+
+        then:
+        0 * api._
+    }
+
+    def "reconcileGroup should not create a group missing from GitLab"() {
+        when:
+        gitSync.reconcileGroup("OPS", null)
+
+        then:
+        1 * api.getGroup("OPS") >> null
+        0 * api.createGroup(_)
+        0 * api.getUser(_)
+    }
+
+    def "reconcileUser should only retrieve the user, its memberships and the LDAP groups"() {
+        when:
+        gitSync.reconcileUser("JEAN")
+
+        then:
+        1 * api.getUser("JEAN") >> jean
+        1 * api.getGroup("DEV") >> dev
+        1 * api.getGroup("OPS") >> ops
+        1 * api.getUserMemberships(1L) >> [
+                membership(10L, "DEV", MembershipSourceType.NAMESPACE, DEVELOPER),
+                membership(20L, "OPS", MembershipSourceType.PROJECT, MAINTAINER)]
+        1 * api.updateGroupMember(dev, 1L, MAINTAINER)
+        1 * api.addGroupMember(ops, 1L, DEVELOPER)
+        0 * api.getGroups()
+        0 * api.getUsers()
+        0 * api.getGroupMembers(_)
+        0 * api.createGroup(_)
+    }
+
+    def "reconcileUser should not create a group missing from GitLab"() {
+        when:
+        gitSync.reconcileUser("JEAN")
+
+        then:
+        1 * api.getUser("JEAN") >> jean
+        1 * api.getGroup("DEV") >> dev
+        1 * api.getGroup("OPS") >> null
+        1 * api.getUserMemberships(1L) >> []
+        1 * api.addGroupMember(dev, 1L, MAINTAINER)
+        0 * api.getGroups()
+        0 * api.createGroup(_)
+    }
+
+    def "reconcileUser should only look up the groups of a user who is not in LDAP"() {
+        when:
+        gitSync.reconcileUser("INTRUDER")
+
+        then:
+        1 * api.getUser("INTRUDER") >> intruder
+        1 * api.getUserMemberships(2L) >> [membership(10L, "DEV", MembershipSourceType.NAMESPACE, MAINTAINER)]
+        1 * api.getGroup("DEV") >> dev
+        0 * api.getGroup("OPS")
+        1 * api.deleteGroupMember(dev, 2L)
+        0 * api.getGroups()
+    }
+
+    def "a targeted run should write its trace even when an error escapes it"() {
+        given:
+        def traceFile = Files.createTempDirectory("gitsync").resolve("trace.json")
+        GitSync.props.setProperty("trace-file", traceFile.toString())
+        def calls = 0
+        api.getRateLimiter() >> {
+            if (calls++ == 0) {
+                throw new StackOverflowError()
+            }
+            new RateLimiter(0)
+        }
+
+        when:
+        gitSync.synchronizeUser("JEAN")
+
+        then:
+        thrown(StackOverflowError)
+        !Trace.isRecording()
+        Files.exists(traceFile)
+
+        cleanup:
+        GitSync.props.remove("trace-file")
+        Files.deleteIfExists(traceFile)
+        Files.deleteIfExists(traceFile.parent)
+    }
+
+    def "getPropertyAsInt should return #expected for value [#value]"() {
+        given:
+        GitSync.props.setProperty("some-int", value)
+
+        expect:
+        GitSync.getPropertyAsInt("some-int", 7) == expected
+
+        cleanup:
+        GitSync.props.remove("some-int")
+
+        where:
+        value         | expected
+        "42"          | 42
+        ""            | 7
+        "-1"          | 7
+        "abc"         | 7
+        "99999999999" | 7
+    }
+
+    private static User user(Long id, String username) {
+        new User().withId(id).withUsername(username).withIdentities([])
+    }
+
+    private static Member member(User user, accessLevel) {
+        new Member().withId(user.id).withUsername(user.username).withAccessLevel(accessLevel)
+    }
+
+    private static Membership membership(Long sourceId, String sourceName, MembershipSourceType sourceType,
+                                         accessLevel) {
+        new Membership(sourceId: sourceId, sourceName: sourceName, sourceType: sourceType, accessLevel: accessLevel)
+    }
+
+    private static LdapUser ldapUser(String name) {
+        new LdapUser(Collections.singletonMap("cn", name))
+    }
+
+}
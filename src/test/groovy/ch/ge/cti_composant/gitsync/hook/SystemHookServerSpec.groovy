@@ -0,0 +1,122 @@
+/*
+ * gitsync
+ *
+ * Copyright (C) 2017-2019 République et canton de Genève
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.ge.cti_composant.gitsync.hook
+
+import ch.ge.cti_composant.gitsync.util.exception.GitSyncException
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.net.http.HttpClient
+import java.net.http.HttpRequest
+import java.net.http.HttpResponse
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.TimeUnit
+
+/**
+ * Tests class {@link SystemHookServer}.
+ */
+@Unroll
+class SystemHookServerSpec extends Specification {
+
+    def reconciled = new LinkedBlockingQueue<String>()
+
+    def server = new SystemHookServer(null, 0, "secret",
+            { group, member -> reconciled << "group:" + group + (member ? ":" + member : "") },
+            { reconciled << "user:" + it })
+
+    def client = HttpClient.newHttpClient()
+
+    def setup() {
+        server.start()
+    }
+
+    def cleanup() {
+        server.stop()
+    }
+
+    def "event #event should trigger the reconciliation of #expected"() {
+        when:
+        def status = post(body, "secret")
+
+        then:
+        status == 200
+        reconciled.poll(5, TimeUnit.SECONDS) == expected
+
+        where:
+        event                   | body                                                                                    | expected
+        "user_add_to_group"     | '{"event_name": "user_add_to_group", "group_name": "DEV", "user_username": "JEAN"}'     | "group:DEV:JEAN"
+        "user_update_for_group" | '{"event_name": "user_update_for_group", "group_name": "OPS", "user_username": "JEAN"}' | "group:OPS:JEAN"
+        "group_create"          | '{"event_name": "group_create", "name": "QA", "path": "qa"}'                            | "group:QA"
+        "user_create"           | '{"event_name": "user_create", "username": "MARIE"}'                                    | "user:MARIE"
+    }
+
+    def "an unknown event should be ignored"() {
+        when:
+        def status = post('{"event_name": "project_create", "name": "P"}', "secret")
+
+        then:
+        status == 200
+        reconciled.poll(200, TimeUnit.MILLISECONDS) == null
+    }
+
+    def "a request with token #token should be rejected with status #expected"() {
+        when:
+        def status = post('{"event_name": "user_create", "username": "MARIE"}', token)
+
+        then:
+        status == expected
+        reconciled.poll(200, TimeUnit.MILLISECONDS) == null
+
+        where:
+        token   | expected
+        "wrong" | 401
+        null    | 401
+    }
+
+    def "the server should not be created without a secret token"() {
+        when:
+        new SystemHookServer(null, 0, token, { group, member -> }, { })
+
+        then:
+        thrown(GitSyncException)
+
+        where:
+        token << [null, " "]
+    }
+
+    def "the server should listen to the loopback address by default"() {
+        expect:
+        server.server.address.address.isLoopbackAddress()
+    }
+
+    def "an invalid body should be rejected"() {
+        expect:
+        post("not json {", "secret") == 400
+    }
+
+    private int post(String body, String token) {
+        def builder = HttpRequest.newBuilder(URI.create("http://localhost:" + server.port + SystemHookServer.PATH))
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+        if (token != null) {
+            builder.header("X-Gitlab-Token", token)
+        }
+        client.send(builder.build(), HttpResponse.BodyHandlers.discarding()).statusCode()
+    }
+
+}
@@ -3,6 +3,7 @@ package ch.ge.cti_composant.gitsync.missions
 import ch.ge.cti_composant.gitsync.util.MissionUtils
 import ch.ge.cti_composant.gitsync.util.gitlab.Gitlab
 import ch.ge.cti_composant.gitsync.util.gitlab.GitlabAPIWrapper
+import ch.ge.cti_composant.gitsync.util.gitlab.GitlabState
 import ch.ge.cti_composant.gitsync.util.ldap.LdapTree
 import org.gitlab4j.api.models.AccessLevel
 import org.gitlab4j.api.models.Group
@@ -64,6 +65,7 @@ class AddAuthorizedUsersToGroupsSpec extends Specification {
 
         def gitlab = Mock(Gitlab) {
             getApi() >> api
+            getState() >> new GitlabState(api)
             getGroups() >> [group1]
         }
 
@@ -71,11 +73,13 @@ class AddAuthorizedUsersToGroupsSpec extends Specification {
         addAuthorizedUsersToGroups.start(ldapTree, gitlab)
 
         then:
-        user1PromotionCount * api.deleteGroupMember(group1, user1.getId())
-        user1PromotionCount * api.addGroupMember(group1, user1.getId(), AccessLevel.MAINTAINER)
+        user1PromotionCount * api.updateGroupMember(group1, user1.getId(), AccessLevel.MAINTAINER)
+        0 * api.deleteGroupMember(group1, user1.getId())
+        0 * api.addGroupMember(group1, user1.getId(), _)
 
-        user2PromotionCount * api.deleteGroupMember(group1, user2.getId())
-        user2PromotionCount * api.addGroupMember(group1, user2.getId(), AccessLevel.MAINTAINER)
+        user2PromotionCount * api.updateGroupMember(group1, user2.getId(), AccessLevel.MAINTAINER)
+        0 * api.deleteGroupMember(group1, user2.getId())
+        0 * api.addGroupMember(group1, user2.getId(), _)
 
         0 * api.deleteGroupMember(group1, user3.getId())
         1 * api.addGroupMember(group1, user3.getId(), AccessLevel.MAINTAINER)
@@ -0,0 +1,43 @@
+package ch.ge.cti_composant.gitsync.missions
+
+import ch.ge.cti_composant.gitsync.util.gitlab.Gitlab
+import ch.ge.cti_composant.gitsync.util.ldap.LdapTree
+import org.gitlab4j.api.models.Group
+import spock.lang.Specification
+
+class SinglePassGroupMissionsSpec extends Specification {
+
+    def "start should prepare every mission once, then apply all missions to every group in a single pass"() {
+        given:
+        def group1 = new Group().withName("group1")
+        def group2 = new Group().withName("group2")
+        def ldapTree = Mock(LdapTree)
+        def gitlab = Mock(Gitlab) {
+            getGroups() >> [group1, group2]
+        }
+        def mission1 = Mock(GroupMission)
+        def mission2 = Mock(GroupMission)
+
+        when:
+        new SinglePassGroupMissions([mission1, mission2]).start(ldapTree, gitlab)
+
+        then:
+        1 * mission1.prepare(ldapTree, gitlab)
+        1 * mission2.prepare(ldapTree, gitlab)
+
+        then:
+        1 * mission1.processGroup(group1, ldapTree, gitlab)
+
+        then:
+        1 * mission2.processGroup(group1, ldapTree, gitlab)
+
+        then:
+        1 * mission1.processGroup(group2, ldapTree, gitlab)
+
+        then:
+        1 * mission2.processGroup(group2, ldapTree, gitlab)
+        0 * mission1.start(_, _)
+        0 * mission2.start(_, _)
+    }
+
+}
@@ -0,0 +1,115 @@
+/*
+ * gitsync
+ *
+ * Copyright (C) 2017-2019 République et canton de Genève
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.ge.cti_composant.gitsync.service
+
+import ch.ge.cti_composant.gitsync.missions.Mission
+import ch.ge.cti_composant.gitsync.util.gitlab.Gitlab
+import ch.ge.cti_composant.gitsync.util.gitlab.GitlabAPIWrapper
+import ch.ge.cti_composant.gitsync.util.gitlab.GitlabState
+import ch.ge.cti_composant.gitsync.util.ldap.LdapTree
+import org.gitlab4j.api.models.AccessLevel
+import org.gitlab4j.api.models.Group
+import org.gitlab4j.api.models.Member
+import org.gitlab4j.api.models.User
+import spock.lang.Specification
+
+import static ch.ge.cti_composant.gitsync.service.ChangeOperation.Type.ADD_MEMBER
+import static ch.ge.cti_composant.gitsync.service.ChangeOperation.Type.BLOCK_USER
+import static ch.ge.cti_composant.gitsync.service.ChangeOperation.Type.CHANGE_ACCESS_LEVEL
+import static ch.ge.cti_composant.gitsync.service.ChangeOperation.Type.REMOVE_MEMBER
+
+/**
+ * Tests class {@link ChangePlanner}.
+ */
+class ChangePlannerSpec extends Specification {
+
+    def group = new Group().withName("group1")
+    def user1 = new User().withUsername("user1").withId(1).withState("active")
+    def user2 = new User().withUsername("user2").withId(2).withState("active")
+    def user3 = new User().withUsername("user3").withId(3).withState("active")
+    def user4 = new User().withUsername("user4").withId(4).withState("active")
+
+    def api = Mock(GitlabAPIWrapper) {
+        getUsers() >> [user1, user2, user3, user4]
+        getGroupMembers(group) >> [
+                new Member().withUsername("user1").withId(1).withAccessLevel(AccessLevel.DEVELOPER),
+                new Member().withUsername("user2").withId(2).withAccessLevel(AccessLevel.REPORTER),
+                new Member().withUsername("user4").withId(4).withAccessLevel(AccessLevel.REPORTER)]
+    }
+    def state = new GitlabState(api)
+    def gitlab = Mock(Gitlab) {
+        getGroups() >> [group]
+        getState() >> state
+    }
+
+    /**
+     * Removes user1 and user2, adds user2 back as developer, adds user3, removes user4, then blocks user4.
+     */
+    def missions = [
+            { ldapTree, gitlab ->
+                state.deleteGroupMember(group, 1)
+                state.deleteGroupMember(group, 2)
+                state.deleteGroupMember(group, 4)
+            } as Mission,
+            { ldapTree, gitlab ->
+                state.addGroupMember(group, user1, AccessLevel.DEVELOPER)
+                state.addGroupMember(group, user2, AccessLevel.DEVELOPER)
+                state.addGroupMember(group, user3, AccessLevel.REPORTER)
+                state.blockUser(user4)
+            } as Mission
+    ]
+
+    def "plan should contain the net modifications only, without modifying GitLab"() {
+        when:
+        def plan = new ChangePlanner().plan(missions, Mock(LdapTree), gitlab)
+
+        then:
+        0 * api.addGroupMember(*_)
+        0 * api.deleteGroupMember(*_)
+        0 * api.blockUser(_)
+        plan.operations*.type == [BLOCK_USER, REMOVE_MEMBER, CHANGE_ACCESS_LEVEL, ADD_MEMBER]
+        plan.operations*.username == ["user4", "user4", "user2", "user3"]
+        plan.operations[2].previousAccessLevel == AccessLevel.REPORTER
+        plan.operations[2].accessLevel == AccessLevel.DEVELOPER
+
+        and: "the in-memory state is the actual state again"
+        state.getGroupMembers(group)*.username == ["user1", "user2", "user4"]
+        user4.state == "active"
+    }
+
+    def "apply should perform every modification of the plan once"() {
+        given:
+        def plan = new ChangePlanner().plan(missions, Mock(LdapTree), gitlab)
+
+        when:
+        plan.apply(state)
+
+        then:
+        1 * api.blockUser(4)
+        1 * api.deleteGroupMember(group, 4)
+        1 * api.updateGroupMember(group, 2, AccessLevel.DEVELOPER)
+        0 * api.deleteGroupMember(group, 2)
+        0 * api.addGroupMember(group, 2, _)
+        1 * api.addGroupMember(group, 3, AccessLevel.REPORTER)
+        0 * api.addGroupMember(group, 1, _)
+        0 * api.deleteGroupMember(group, 1)
+        state.getGroupMembers(group)*.username as Set == ["user1", "user2", "user3"] as Set
+    }
+
+}
@@ -0,0 +1,108 @@
+/*
+ * gitsync
+ *
+ * Copyright (C) 2017-2019 République et canton de Genève
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.ge.cti_composant.gitsync.service
+
+import ch.ge.cti_composant.gitsync.util.gitlab.GitlabAPIWrapper
+import ch.ge.cti_composant.gitsync.util.ldap.LdapGroup
+import ch.ge.cti_composant.gitsync.util.ldap.LdapTree
+import org.gitlab4j.api.models.Group
+import org.gitlab4j.api.models.User
+import spock.lang.Specification
+
+/**
+ * Tests class {@link GitlabService}.
+ */
+class GitlabServiceSpec extends Specification {
+
+    def dev = new Group().withName("Dev").withPath("Dev")
+    def network = new Group().withName("Network").withPath("Network")
+    def other = new Group().withName("Other").withPath("Other")
+
+    def ldapTree = Mock(LdapTree) {
+        getGroups() >> [new LdapGroup("Dev"), new LdapGroup("Network")]
+    }
+
+    def "buildGitlabContext should reuse the prefetched users and groups when no group is created"() {
+        given:
+        def api = Mock(GitlabAPIWrapper)
+        def service = new GitlabService(api)
+
+        when:
+        service.prefetch()
+        def gitlab = service.buildGitlabContext(ldapTree)
+        gitlab.getState().getUsers()
+
+        then:
+        1 * api.getUsers() >> [new User().withUsername("user1")]
+        1 * api.getGroups() >> [dev, network, other]
+        0 * api.getGroup(_)
+        0 * api.createGroup(_)
+        gitlab.getGroups()*.name == ["Dev", "Network"]
+    }
+
+    def "buildGitlabContext should create the missing groups without interrogating GitLab once per group"() {
+        given:
+        def api = Mock(GitlabAPIWrapper) {
+            getUsers() >> []
+        }
+        def service = new GitlabService(api)
+
+        when:
+        service.prefetch()
+        def gitlab = service.buildGitlabContext(ldapTree)
+
+        then:
+        1 * api.getGroups() >> [dev]
+        1 * api.createGroup({ it.name == "Network" }) >> network
+        0 * api.getGroup(_)
+        gitlab.getGroups()*.name == ["Dev", "Network"]
+    }
+
+    def "buildGitlabContext should only create the missing groups accepted by the filter"() {
+        given:
+        def api = Mock(GitlabAPIWrapper) {
+            getUsers() >> []
+        }
+        def service = new GitlabService(api)
+
+        when:
+        def gitlab = service.buildGitlabContext(ldapTree, { it != "Network" })
+
+        then:
+        1 * api.getGroups() >> [dev]
+        0 * api.createGroup(_)
+        gitlab.getGroups()*.name == ["Dev"]
+    }
+
+    def "buildGitlabContext should not create a group whose path exists with another case"() {
+        given:
+        def api = Mock(GitlabAPIWrapper) {
+            getUsers() >> []
+        }
+        def service = new GitlabService(api)
+
+        when:
+        service.buildGitlabContext(ldapTree)
+
+        then:
+        1 * api.getGroups() >> [dev, new Group().withName("network").withPath("network")]
+        0 * api.createGroup(_)
+    }
+
+}
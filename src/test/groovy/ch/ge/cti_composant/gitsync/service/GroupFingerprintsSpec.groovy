@@ -0,0 +1,152 @@
+/*
+ * gitsync
+ *
+ * Copyright (C) 2017-2019 République et canton de Genève
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.ge.cti_composant.gitsync.service
+
+import ch.ge.cti_composant.gitsync.util.MissionUtils
+import ch.ge.cti_composant.gitsync.util.gitlab.Gitlab
+import ch.ge.cti_composant.gitsync.util.gitlab.GitlabAPIWrapper
+import ch.ge.cti_composant.gitsync.util.gitlab.GitlabState
+import ch.ge.cti_composant.gitsync.util.ldap.LdapGroup
+import ch.ge.cti_composant.gitsync.util.ldap.LdapTreeSupport
+import ch.ge.cti_composant.gitsync.util.ldap.LdapUser
+import org.gitlab4j.api.models.AccessLevel
+import org.gitlab4j.api.models.Group
+import org.gitlab4j.api.models.Member
+import org.gitlab4j.api.models.User
+import spock.lang.Specification
+import spock.lang.TempDir
+import spock.lang.Unroll
+
+import java.nio.file.Path
+
+/**
+ * Tests class {@link GroupFingerprints}.
+ */
+@Unroll
+class GroupFingerprintsSpec extends Specification {
+
+    @TempDir
+    Path directory
+
+    def ldap = ["DEV": ["JEAN"], "OPS": ["MARIE"]]
+
+    def members = ["DEV": ["JEAN": AccessLevel.MAINTAINER], "OPS": ["MARIE": AccessLevel.MAINTAINER]]
+
+    def gitlabAdmins = ["JEAN"] as Set
+
+    def gitlabExternals = [] as Set
+
+    def setup() {
+        MissionUtils.clearCaches()
+    }
+
+    def "the first run should process all groups, the next run none"() {
+        when:
+        def first = run(false)
+        def second = run(false)
+
+        then:
+        first*.name == ["DEV", "OPS"]
+        second.isEmpty()
+    }
+
+    def "a group should be processed when #change"() {
+        given:
+        run(false)
+        modification.call(ldap, members)
+
+        when:
+        def groups = run(false)
+
+        then:
+        groups*.name == expected
+
+        where:
+        change                               | modification                                         | expected
+        "a member is added by hand"          | { l, m -> m["OPS"]["JEAN"] = AccessLevel.DEVELOPER } | ["OPS"]
+        "an access level is changed by hand" | { l, m -> m["DEV"]["JEAN"] = AccessLevel.OWNER }     | ["DEV"]
+        "its LDAP users change"              | { l, m -> l["OPS"] = ["JEAN", "MARIE"] }             | ["OPS"]
+        "the set of all LDAP users changes"  | { l, m -> l["OPS"] = ["MARIE", "PAUL"] }             | ["DEV", "OPS"]
+    }
+
+    def "all groups should be processed when a user loses the administrator status in GitLab"() {
+        given:
+        run(false)
+        gitlabAdmins.remove("JEAN")
+
+        when:
+        def groups = run(false)
+
+        then:
+        groups*.name == ["DEV", "OPS"]
+    }
+
+    def "a group should be processed when the external flag of a member who is not in LDAP changes"() {
+        given:
+        members["OPS"]["BOB"] = AccessLevel.DEVELOPER
+        run(false)
+        gitlabExternals.add("BOB")
+
+        when:
+        def groups = run(false)
+
+        then:
+        groups*.name == ["OPS"]
+    }
+
+    def "all groups should be processed when forced"() {
+        given:
+        run(false)
+
+        when:
+        def groups = run(true)
+
+        then:
+        groups*.name == ["DEV", "OPS"]
+    }
+
+    /**
+     * Performs a run and returns the groups to process.
+     */
+    private List<Group> run(boolean forced) {
+        def tree = new TreeMap<LdapGroup, Map<String, LdapUser>>(Comparator.comparing { LdapGroup group -> group.name })
+        ldap.each { groupName, userNames ->
+            tree.put(new LdapGroup(groupName), userNames.collectEntries { [(it): new LdapUser(["cn": it])] })
+        }
+        def ldapTree = new LdapTreeSupport(tree)
+
+        def users = ["JEAN", "MARIE", "PAUL", "BOB"].collect {
+            new User().withUsername(it).withExternal(it in gitlabExternals).withIsAdmin(it in gitlabAdmins)
+        }
+        def api = Stub(GitlabAPIWrapper) {
+            getUsers() >> users
+            getGroupMembers(_) >> { Group group ->
+                members[group.name].collect { name, level -> new Member().withUsername(name).withAccessLevel(level) }
+            }
+        }
+        def groups = ldap.keySet().collect { new Group().withName(it) } as Set
+        def gitlab = new Gitlab(groups, api, new GitlabState(api))
+
+        def fingerprints = new GroupFingerprints(directory.resolve("fingerprints.json"), "hash")
+        def selected = fingerprints.skipVerifiedGroups(ldapTree, gitlab, forced)
+        fingerprints.save(ldapTree, selected.getState())
+        selected.getGroups() as List
+    }
+
+}
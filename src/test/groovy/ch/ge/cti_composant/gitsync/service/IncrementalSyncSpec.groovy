@@ -0,0 +1,151 @@
+/*
+ * gitsync
+ *
+ * Copyright (C) 2017-2019 République et canton de Genève
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.ge.cti_composant.gitsync.service
+
+import ch.ge.cti_composant.gitsync.util.MissionUtils
+import ch.ge.cti_composant.gitsync.util.gitlab.Gitlab
+import ch.ge.cti_composant.gitsync.util.gitlab.GitlabAPIWrapper
+import ch.ge.cti_composant.gitsync.util.gitlab.GitlabState
+import ch.ge.cti_composant.gitsync.util.ldap.LdapGroup
+import ch.ge.cti_composant.gitsync.util.ldap.LdapTree
+import ch.ge.cti_composant.gitsync.util.ldap.LdapTreeSupport
+import ch.ge.cti_composant.gitsync.util.ldap.LdapUser
+import org.gitlab4j.api.models.AccessLevel
+import org.gitlab4j.api.models.Group
+import org.gitlab4j.api.models.Member
+import org.gitlab4j.api.models.User
+import spock.lang.Specification
+import spock.lang.TempDir
+
+import java.nio.file.Path
+import java.time.Duration
+
+/**
+ * Tests class {@link IncrementalSync}.
+ */
+class IncrementalSyncSpec extends Specification {
+
+    @TempDir
+    Path directory
+
+    long now = 1_000_000
+
+    def gitlabAdmins = ["JEAN"] as Set
+
+    def setup() {
+        MissionUtils.clearCaches()
+    }
+
+    def "the first run should process all groups, the next run none"() {
+        given:
+        def ldap = ["DEV": ["JEAN"], "OPS": ["MARIE"]]
+
+        when:
+        def first = run(ldap, false)
+        def second = run(ldap, false)
+
+        then:
+        first*.name == ["DEV", "OPS"]
+        second.isEmpty()
+    }
+
+    def "only the groups whose LDAP users have changed should be processed"() {
+        given:
+        run(["DEV": ["JEAN"], "OPS": ["MARIE"], "QA": ["JEAN"]], false)
+
+        when:
+        def groups = run(["DEV": ["JEAN", "MARIE"], "OPS": ["MARIE"], "QA": ["JEAN"], "NEW": ["JEAN"]], false)
+
+        then:
+        groups*.name == ["DEV", "NEW"]
+    }
+
+    def "all groups should be processed when #reason"() {
+        given:
+        run(["DEV": ["JEAN"], "OPS": ["MARIE"]], false)
+        now += elapsed
+
+        when:
+        def groups = run(ldap, forced)
+
+        then:
+        groups*.name == ["DEV", "OPS"]
+
+        where:
+        reason                             | ldap                                   | forced | elapsed
+        "a full synchronization is forced" | ["DEV": ["JEAN"], "OPS": ["MARIE"]]    | true   | 0
+        "the last full run is too old"     | ["DEV": ["JEAN"], "OPS": ["MARIE"]]    | false  | Duration.ofHours(24).toMillis()
+        "a new LDAP user appears"          | ["DEV": ["JEAN", "PAUL"], "OPS": ["MARIE"]] | false | 0
+    }
+
+    def "all groups should be processed when a user loses the administrator status in GitLab"() {
+        given:
+        def ldap = ["DEV": ["JEAN"], "OPS": ["MARIE"]]
+        run(ldap, false)
+        gitlabAdmins.remove("JEAN")
+
+        when:
+        def groups = run(ldap, false)
+
+        then:
+        groups*.name == ["DEV", "OPS"]
+    }
+
+    def "the snapshot should keep the GitLab groups that were not processed"() {
+        given:
+        run(["DEV": ["JEAN"], "OPS": ["MARIE"]], false)
+        run(["DEV": ["JEAN", "MARIE"], "OPS": ["MARIE"]], false)
+
+        when:
+        def groups = run(["DEV": ["JEAN", "MARIE"], "OPS": ["MARIE"]], false)
+
+        then:
+        groups.isEmpty()
+        directory.resolve("snapshot.json").toFile().text.contains('"gitlabGroups":["DEV","OPS"]')
+    }
+
+    /**
+     * Performs a run and returns the groups selected.
+     */
+    private List<Group> run(Map<String, List<String>> ldap, boolean forced) {
+        def tree = new TreeMap<LdapGroup, Map<String, LdapUser>>(Comparator.comparing { LdapGroup group -> group.name })
+        ldap.each { groupName, userNames ->
+            tree.put(new LdapGroup(groupName), userNames.collectEntries { [(it): new LdapUser(["cn": it])] })
+        }
+        LdapTree ldapTree = new LdapTreeSupport(tree)
+
+        def users = ["JEAN", "MARIE", "PAUL"].withIndex().collect { name, i ->
+            new User().withUsername(name).withId(i).withExternal(false).withIsAdmin(name in gitlabAdmins)
+        }
+        def api = Stub(GitlabAPIWrapper) {
+            getUsers() >> users
+            getGroupMembers(_) >> { Group group ->
+                ldap[group.name].collect { new Member().withUsername(it).withAccessLevel(AccessLevel.MAINTAINER) }
+            }
+        }
+        def groups = ldap.keySet().collect { new Group().withName(it) } as Set
+        def gitlab = new Gitlab(groups, api, new GitlabState(api))
+
+        def incrementalSync = new IncrementalSync(directory.resolve("snapshot.json"), Duration.ofHours(24), "hash", { now })
+        def selected = incrementalSync.selectGroups(ldapTree, gitlab, forced)
+        incrementalSync.saveSnapshot(ldapTree, selected.getState())
+        selected.getGroups() as List
+    }
+
+}
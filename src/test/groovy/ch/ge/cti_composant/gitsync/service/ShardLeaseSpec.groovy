@@ -0,0 +1,159 @@
+/*
+ * gitsync
+ *
+ * Copyright (C) 2017-2019 République et canton de Genève
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.ge.cti_composant.gitsync.service
+
+import ch.ge.cti_composant.gitsync.util.exception.GitSyncException
+import spock.lang.Specification
+import spock.lang.TempDir
+
+import java.nio.file.Path
+import java.time.Duration
+
+/**
+ * Tests class {@link ShardLease}.
+ */
+class ShardLeaseSpec extends Specification {
+
+    @TempDir
+    Path directory
+
+    long now = 1_000_000
+
+    def "the instances should lease distinct shards"() {
+        given:
+        def node1 = lease("node1")
+        def node2 = lease("node2")
+        def node3 = lease("node3")
+
+        expect:
+        node1.acquire().asInt == 0
+        node2.acquire().asInt == 1
+        node3.acquire().isEmpty()
+    }
+
+    def "an instance should renew the shard it holds"() {
+        given:
+        def node1 = lease("node1")
+        def node2 = lease("node2")
+
+        expect:
+        node2.acquire().asInt == 0
+        node1.acquire().asInt == 1
+        node2.acquire().asInt == 0
+    }
+
+    def "a released shard should be leased again"() {
+        given:
+        def node1 = lease("node1")
+        def node2 = lease("node2")
+        def node3 = lease("node3")
+        node1.acquire()
+        node2.acquire()
+
+        when:
+        node1.release()
+
+        then:
+        node3.acquire().asInt == 0
+    }
+
+    def "an expired lease should be taken over"() {
+        given:
+        def node1 = lease("node1")
+        def node2 = lease("node2")
+        def node3 = lease("node3")
+        node1.acquire()
+        node2.acquire()
+
+        when:
+        now += Duration.ofMinutes(61).toMillis()
+
+        then:
+        node3.acquire().asInt == 0
+    }
+
+    def "releasing a shard taken over should not release it"() {
+        given:
+        def node1 = lease("node1")
+        def node2 = lease("node2")
+        node1.acquire()
+        node2.acquire()
+        now += Duration.ofMinutes(61).toMillis()
+        node2.renew()
+        lease("node3").acquire()
+
+        when:
+        node1.release()
+
+        then:
+        lease("node4").acquire().isEmpty()
+    }
+
+    def "a single instance should take the shards in turn"() {
+        given:
+        def node1 = lease("node1")
+
+        when:
+        def shards = (1..3).collect {
+            now += Duration.ofMinutes(1).toMillis()
+            def shard = node1.acquire().asInt
+            node1.release()
+            shard
+        }
+
+        then:
+        shards == [0, 1, 0]
+    }
+
+    def "a renewed lease should not be taken over after the initial lease duration"() {
+        given:
+        def node1 = lease("node1")
+        def node2 = lease("node2")
+        node1.acquire()
+
+        when:
+        now += Duration.ofMinutes(50).toMillis()
+        node1.renew()
+        now += Duration.ofMinutes(50).toMillis()
+
+        then:
+        node2.acquire().asInt == 1
+    }
+
+    def "renewing a shard taken over should fail"() {
+        given:
+        def node1 = lease("node1")
+        lease("node2").acquire()
+        node1.acquire()
+        now += Duration.ofMinutes(61).toMillis()
+        lease("node3").acquire()
+        lease("node4").acquire()
+
+        when:
+        node1.renew()
+
+        then:
+        thrown(GitSyncException)
+    }
+
+    private ShardLease lease(String owner) {
+        new ShardLease(directory.resolve("leases.properties"), 2, Duration.ofMinutes(60), owner, { now })
+    }
+
+}
@@ -0,0 +1,92 @@
+/*
+ * gitsync
+ *
+ * Copyright (C) 2017-2019 République et canton de Genève
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.ge.cti_composant.gitsync.service
+
+import ch.ge.cti_composant.gitsync.util.exception.GitSyncException
+import ch.ge.cti_composant.gitsync.util.gitlab.Gitlab
+import ch.ge.cti_composant.gitsync.util.gitlab.GitlabAPIWrapper
+import ch.ge.cti_composant.gitsync.util.gitlab.GitlabState
+import org.gitlab4j.api.models.Group
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.nio.file.Path
+
+/**
+ * Tests class {@link Shard}.
+ */
+@Unroll
+class ShardSpec extends Specification {
+
+    def "every group should belong to exactly one of #count shards"() {
+        given:
+        def shards = (0..<count).collect { new Shard(it, count) }
+        def names = (1..100).collect { "GROUP" + it }
+
+        expect:
+        names.every { name -> shards.count { it.owns(name) } == 1 }
+        shards.every { shard -> names.any { shard.owns(it) } }
+        shards.count { it.isDesignated() } == 1
+
+        where:
+        count << [1, 2, 3, 7]
+    }
+
+    def "selectGroups should retain only the groups of the shard"() {
+        given:
+        def api = Mock(GitlabAPIWrapper)
+        def groups = (1..20).collect { new Group().withId(it).withName("GROUP" + it) } as Set
+        def gitlab = new Gitlab(groups, api, new GitlabState(api))
+
+        when:
+        def first = new Shard(0, 2).selectGroups(gitlab)
+        def second = new Shard(1, 2).selectGroups(gitlab)
+
+        then:
+        (first.getGroups() + second.getGroups()) as Set == groups
+        first.getGroups().every { new Shard(0, 2).owns(it.name) }
+        first.getState().is(gitlab.getState())
+    }
+
+    def "shard #index of #count should be rejected"() {
+        when:
+        new Shard(index, count)
+
+        then:
+        thrown(GitSyncException)
+
+        where:
+        index | count
+        -1    | 2
+        2     | 2
+        0     | 0
+    }
+
+    def "getFile should insert the shard index in #file"() {
+        expect:
+        new Shard(1, 2).getFile(Path.of(file)) == Path.of(expected)
+
+        where:
+        file                      | expected
+        "gitsync-snapshot.json"   | "gitsync-snapshot.shard-1.json"
+        "data/fingerprints.json"  | "data/fingerprints.shard-1.json"
+        "snapshot"                | "snapshot.shard-1"
+    }
+
+}
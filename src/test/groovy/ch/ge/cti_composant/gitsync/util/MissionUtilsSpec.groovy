@@ -91,6 +91,34 @@ class MissionUtilsSpec extends Specification {
         "Network" | null        | false
     }
 
+    def "validateGitlabGroupExistence should return true when group is in the index of the GitLab groups"() {
+        given:
+        def ldapGroup = new LdapGroup(groupName)
+        def groupsByPath = ["Dev": new Group().withName("Dev")]
+
+        expect:
+        found == MissionUtils.validateGitlabGroupExistence(ldapGroup, groupsByPath)
+
+        where:
+        groupName | found
+        "Dev"     | true
+        "Network" | false
+    }
+
+    def "validateGitlabUserExistence should return #found for user #username with an index of the GitLab users"() {
+        given:
+        def ldapUser = new LdapUser(Collections.singletonMap("cn", username))
+        def usersByName = ["user1": new User().withUsername("user1")]
+
+        expect:
+        found == MissionUtils.validateGitlabUserExistence(ldapUser, usersByName)
+
+        where:
+        username | found
+        "user1"  | true
+        "user2"  | false
+    }
+
     def "validateGroupNameCompliantStandardGroups should return true when group name is compliant with standard groups"() {
         given:
         def ldapGroup = new LdapGroup(groupName)
@@ -247,22 +275,6 @@ class MissionUtilsSpec extends Specification {
         [new Member().withUsername("user1").withAccessLevel(AccessLevel.MAINTAINER)] | "user2"  | false
     }
 
-    def "getAllGitlabUsers"() {
-        given:
-        def api = Mock(GitlabAPIWrapper)
-        api.getUsers() >> users
-        def gitlabUsers = MissionUtils.getAllGitlabUsers(api)
-
-        expect:
-        gitlabUsers.size() == expected
-
-        where:
-        users                                                                | expected
-        [new User().withUsername("user1"), new User().withUsername("user2")] | 2
-        [new User().withUsername("user1"), new User().withUsername("user1")] | 1
-        [new User().withUsername("user1")]                                   | 1
-    }
-
     def "isGitlabUserAdmin"() {
         given:
         GitlabAPIWrapper api = Mock(GitlabAPIWrapper)
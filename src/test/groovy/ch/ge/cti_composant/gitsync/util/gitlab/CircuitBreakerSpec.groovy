@@ -0,0 +1,105 @@
+/*
+ * gitsync
+ *
+ * Copyright (C) 2017-2019 République et canton de Genève
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.ge.cti_composant.gitsync.util.gitlab
+
+import ch.ge.cti_composant.gitsync.util.exception.GitSyncException
+import spock.lang.Specification
+
+import java.util.concurrent.TimeUnit
+
+/**
+ * Tests class {@link CircuitBreaker}.
+ */
+class CircuitBreakerSpec extends Specification {
+
+    long now = 0
+
+    def breaker = new CircuitBreaker(10, 50, 1000, { now })
+
+    def "the breaker should stay closed while the failure rate is below the threshold"() {
+        when:
+        20.times {
+            breaker.acquirePermission()
+            if (it % 3 == 0) {
+                breaker.onFailure()
+            } else {
+                breaker.onSuccess()
+            }
+        }
+
+        then:
+        !breaker.open
+    }
+
+    def "the breaker should not open before half of the window is filled"() {
+        when:
+        4.times { breaker.onFailure() }
+
+        then:
+        !breaker.open
+
+        when:
+        breaker.onFailure()
+
+        then:
+        breaker.open
+    }
+
+    def "an open breaker should reject the calls, then let one trial call through after the open time"() {
+        given:
+        10.times { breaker.onFailure() }
+
+        when:
+        breaker.acquirePermission()
+
+        then:
+        thrown(GitSyncException)
+
+        when:
+        now += TimeUnit.MILLISECONDS.toNanos(1000)
+        breaker.acquirePermission()
+        breaker.acquirePermission()
+
+        then: "the second call is rejected while the trial call is in progress"
+        thrown(GitSyncException)
+
+        when:
+        breaker.onSuccess()
+        breaker.acquirePermission()
+
+        then:
+        !breaker.open
+    }
+
+    def "a failed trial call should open the breaker again"() {
+        given:
+        10.times { breaker.onFailure() }
+        now += TimeUnit.MILLISECONDS.toNanos(1000)
+        breaker.acquirePermission()
+
+        when:
+        breaker.onFailure()
+        breaker.acquirePermission()
+
+        then:
+        thrown(GitSyncException)
+        breaker.open
+    }
+
+}
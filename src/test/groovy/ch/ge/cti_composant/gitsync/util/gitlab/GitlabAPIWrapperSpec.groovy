@@ -1,6 +1,7 @@
 package ch.ge.cti_composant.gitsync.util.gitlab
 
 import ch.ge.cti_composant.gitsync.util.exception.GitSyncException
+import ch.ge.cti_composant.gitsync.util.metrics.MetricsRegistry
 import org.gitlab4j.api.GitLabApi
 import org.gitlab4j.api.GitLabApiException
 import org.gitlab4j.api.GroupApi
@@ -105,6 +106,23 @@ class GitlabAPIWrapperSpec extends Specification {
         member.getName() == "member1"
     }
 
+    def "updateGroupMember"() {
+        given:
+        def api = Mock(GitLabApi)
+        def groupApi = Mock(GroupApi)
+        def gitlabAPIWrapper = new GitlabAPIWrapper(api)
+        def group = new Group().withName("group1").withId(1)
+
+        api.getGroupApi() >> groupApi
+
+        when:
+        def member = gitlabAPIWrapper.updateGroupMember(group, 2, AccessLevel.OWNER)
+
+        then:
+        1 * groupApi.updateMember(1, 2, AccessLevel.OWNER) >> new Member().withName("member1").withAccessLevel(AccessLevel.OWNER)
+        member.getAccessLevel() == AccessLevel.OWNER
+    }
+
     def "deleteGroupMember"() {
         given:
         def api = Mock(GitLabApi)
@@ -238,4 +256,75 @@ class GitlabAPIWrapperSpec extends Specification {
         then:
         thrown(GitSyncException)
     }
+
+    def "getUsers should not retry a client error"() {
+        given:
+        def api = Mock(GitLabApi)
+        def userApi = Mock(UserApi)
+        def wrapper = new GitlabAPIWrapper(api)
+
+        api.getUserApi() >> userApi
+
+        when:
+        wrapper.getUsers()
+
+        then:
+        1 * userApi.getUsers() >> { throw new GitLabApiException("forbidden", 403) }
+        thrown(GitSyncException)
+    }
+
+    def "a network failure of the half-open trial should not block the later calls"() {
+        given:
+        def api = Mock(GitLabApi)
+        def userApi = Mock(UserApi)
+        def circuitBreaker = new CircuitBreaker(2, 50, 0)
+        def wrapper = new GitlabAPIWrapper(api, circuitBreaker)
+        api.getUserApi() >> userApi
+        2.times { circuitBreaker.onFailure() }
+
+        when:
+        wrapper.getUsers()
+
+        then:
+        1 * userApi.getUsers() >> { throw new RuntimeException("connection refused") }
+        thrown(GitSyncException)
+        circuitBreaker.isOpen()
+
+        when:
+        def users = wrapper.getUsers()
+
+        then:
+        1 * userApi.getUsers() >> [new User(name: "user1")]
+        users*.name == ["user1"]
+        !circuitBreaker.isOpen()
+    }
+
+    def "the calls should be counted per endpoint and outcome"() {
+        given:
+        def api = Mock(GitLabApi)
+        def userApi = Mock(UserApi)
+        def wrapper = new GitlabAPIWrapper(api)
+        api.getUserApi() >> userApi
+        def calls = { String outcome ->
+            MetricsRegistry.getDefault().counter("gitsync_gitlab_requests_total", "",
+                    "endpoint", "getUserMemberships", "outcome", outcome).get()
+        }
+        def successesBefore = calls("success")
+        def failuresBefore = calls("failure")
+
+        when:
+        wrapper.getUserMemberships(1)
+        wrapper.getUserMemberships(2)
+        try {
+            wrapper.getUserMemberships(3)
+        } catch (GitSyncException ignored) {
+        }
+
+        then:
+        2 * userApi.getMemberships(_) >> []
+        1 * userApi.getMemberships(3) >> { throw new GitLabApiException("forbidden", 403) }
+        calls("success") - successesBefore == 2
+        calls("failure") - failuresBefore == 1
+    }
+
 }
@@ -0,0 +1,190 @@
+/*
+ * gitsync
+ *
+ * Copyright (C) 2017-2019 République et canton de Genève
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.ge.cti_composant.gitsync.util.gitlab
+
+import ch.ge.cti_composant.gitsync.GitSync
+import ch.ge.cti_composant.gitsync.util.metrics.Metrics
+import ch.ge.cti_composant.gitsync.util.metrics.MetricsRegistry
+import org.gitlab4j.api.models.AccessLevel
+import org.gitlab4j.api.models.Group
+import org.gitlab4j.api.models.Member
+import org.gitlab4j.api.models.User
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Tests class {@link GitlabState}.
+ */
+@Unroll
+class GitlabStateSpec extends Specification {
+
+    def "getUsers should interrogate GitLab only once"() {
+        given:
+        def api = Mock(GitlabAPIWrapper)
+        def state = new GitlabState(api)
+
+        when:
+        state.getUsers()
+        def users = state.getUsers()
+
+        then:
+        1 * api.getUsers() >> [new User().withUsername("user1"), new User().withUsername("user2")]
+        users.size() == 2
+        users.containsKey("user1")
+    }
+
+    def "getGroupMembers should interrogate GitLab only once per group"() {
+        given:
+        def api = Mock(GitlabAPIWrapper)
+        def state = new GitlabState(api)
+        def group1 = new Group().withName("group1")
+        def group2 = new Group().withName("group2")
+
+        when:
+        state.getGroupMembers(group1)
+        state.getGroupMembers(group1)
+        state.getGroupMembers(group2)
+
+        then:
+        1 * api.getGroupMembers(group1) >> [new Member().withUsername("user1").withId(1)]
+        1 * api.getGroupMembers(group2) >> []
+    }
+
+    def "addGroupMember and deleteGroupMember should update the members in memory"() {
+        given:
+        def user2 = new User().withUsername("user2").withId(2)
+        def group = new Group().withName("group1")
+        def api = Mock(GitlabAPIWrapper) {
+            getGroupMembers(group) >> [new Member().withUsername("user1").withId(1).withAccessLevel(AccessLevel.MAINTAINER)]
+        }
+        def state = new GitlabState(api)
+        state.getGroupMembers(group)
+
+        when:
+        state.addGroupMember(group, user2, AccessLevel.DEVELOPER)
+        state.deleteGroupMember(group, 1)
+        def members = state.getGroupMembers(group)
+
+        then:
+        1 * api.addGroupMember(group, 2, AccessLevel.DEVELOPER)
+        1 * api.deleteGroupMember(group, 1)
+        members.size() == 1
+        members[0].username == "user2"
+        members[0].accessLevel == AccessLevel.DEVELOPER
+    }
+
+    def "updateGroupMember should change the access level in memory, without modifying the previous member"() {
+        given:
+        def user1 = new User().withUsername("user1").withId(1)
+        def group = new Group().withName("group1")
+        def previous = new Member().withUsername("user1").withId(1).withAccessLevel(AccessLevel.REPORTER)
+        def api = Mock(GitlabAPIWrapper) {
+            getGroupMembers(group) >> [previous]
+        }
+        def state = new GitlabState(api)
+        state.getGroupMembers(group)
+
+        when:
+        state.updateGroupMember(group, user1, AccessLevel.OWNER)
+
+        then:
+        1 * api.updateGroupMember(group, 1, AccessLevel.OWNER)
+        0 * api.deleteGroupMember(*_)
+        0 * api.addGroupMember(*_)
+        state.getGroupMembers(group)*.accessLevel == [AccessLevel.OWNER]
+        previous.accessLevel == AccessLevel.REPORTER
+    }
+
+    def "promoteToAdmin and blockUser should update the user in memory"() {
+        given:
+        def user = new User().withUsername("user1").withId(1).withIsAdmin(false).withState("active")
+        def api = Mock(GitlabAPIWrapper) {
+            getUsers() >> [user]
+        }
+        def state = new GitlabState(api)
+
+        when:
+        state.promoteToAdmin(user)
+        state.blockUser(user)
+
+        then:
+        1 * api.promoteToAdmin(1)
+        1 * api.blockUser(1)
+        state.getUsers().get("user1").isAdmin
+        state.getUsers().get("user1").state == "blocked"
+    }
+
+    def "prefetchGroupMembers should interrogate GitLab once per group, with at most #concurrency concurrent calls"() {
+        given:
+        def groups = (1..20).collect { new Group().withName("group" + it) }
+        def running = new AtomicInteger()
+        def maxRunning = new AtomicInteger()
+        def api = Mock(GitlabAPIWrapper)
+        def state = new GitlabState(api)
+
+        when:
+        state.prefetchGroupMembers(groups, concurrency)
+        groups.each { state.getGroupMembers(it) }
+
+        then:
+        20 * api.getGroupMembers(_) >> { Group group ->
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max)
+            Thread.sleep(20)
+            running.decrementAndGet()
+            [new Member().withUsername("user-" + group.name).withId(1)]
+        }
+        maxRunning.get() <= concurrency
+        groups.every { state.getGroupMembers(it)[0].username == "user-" + it.name }
+
+        where:
+        concurrency << [1, 4]
+    }
+
+
+    def "a modification should be counted only if GitLab is modified, with dry-run = #dryRun"() {
+        given:
+        def writes = {
+            MetricsRegistry.getDefault().counter("gitsync_gitlab_writes_total", "",
+                    "mission", "GitlabStateSpec" + dryRun, "operation", "blockUser").get()
+        }
+        def before = writes()
+        GitSync.props.setProperty("dry-run", String.valueOf(dryRun))
+        def state = new GitlabState(Mock(GitlabAPIWrapper))
+
+        when:
+        Metrics.runMission("GitlabStateSpec" + dryRun) {
+            state.blockUser(new User().withUsername("user1").withId(1))
+        }
+        state.awaitMutations()
+
+        then:
+        writes() - before == expected
+
+        cleanup:
+        GitSync.props.remove("dry-run")
+
+        where:
+        dryRun | expected
+        true   | 0
+        false  | 1
+    }
+
+}
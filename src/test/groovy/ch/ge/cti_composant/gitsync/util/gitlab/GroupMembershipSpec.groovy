@@ -0,0 +1,66 @@
+/*
+ * gitsync
+ *
+ * Copyright (C) 2017-2019 République et canton de Genève
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.ge.cti_composant.gitsync.util.gitlab
+
+import org.gitlab4j.api.models.AccessLevel
+import org.gitlab4j.api.models.Member
+import spock.lang.Specification
+import spock.lang.Unroll
+
+/**
+ * Tests class {@link GroupMembership}.
+ */
+@Unroll
+class GroupMembershipSpec extends Specification {
+
+    def membership = new GroupMembership([
+            new Member().withId(1).withUsername("user1").withAccessLevel(AccessLevel.DEVELOPER),
+            new Member().withId(2).withUsername("user2").withAccessLevel(AccessLevel.ADMIN),
+            new Member().withId(3).withUsername("user3").withAccessLevel(AccessLevel.OWNER)])
+
+    def "hasMinimumAccessLevel should return #expected for user #username and access level #accessLevel"() {
+        expect:
+        membership.hasMinimumAccessLevel(username, accessLevel) == expected
+
+        where:
+        username | accessLevel            | expected
+        "user1"  | AccessLevel.REPORTER   | true
+        "user1"  | AccessLevel.DEVELOPER  | true
+        "user1"  | AccessLevel.MAINTAINER | false
+        "user2"  | AccessLevel.OWNER      | true
+        "user3"  | AccessLevel.OWNER      | true
+        "dummy"  | AccessLevel.GUEST      | false
+    }
+
+    def "put and remove should keep both indexes up to date"() {
+        when:
+        membership.put(new Member().withId(1).withUsername("user1").withAccessLevel(AccessLevel.MAINTAINER))
+        membership.put(new Member().withId(4).withUsername("user4").withAccessLevel(AccessLevel.GUEST))
+        membership.remove(3)
+
+        then:
+        membership.members*.username == ["user1", "user2", "user4"]
+        membership.getAccessLevel("user1") == AccessLevel.MAINTAINER
+        membership.getMember(4L).username == "user4"
+        membership.isMember("user4")
+        !membership.isMember("user3")
+        membership.getMember(3L) == null
+    }
+
+}
@@ -0,0 +1,124 @@
+/*
+ * gitsync
+ *
+ * Copyright (C) 2017-2019 République et canton de Genève
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.ge.cti_composant.gitsync.util.gitlab
+
+import ch.ge.cti_composant.gitsync.util.exception.GitSyncException
+import spock.lang.Specification
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Tests class {@link MutationExecutor}.
+ */
+class MutationExecutorSpec extends Specification {
+
+    def "submit should perform the modifications immediately when the parallelism is 1"() {
+        given:
+        def executor = new MutationExecutor(1)
+        def done = []
+
+        when:
+        executor.submit("group:g1", { done << 1 })
+        executor.submit("group:g2", { done << 2 })
+
+        then:
+        done == [1, 2]
+    }
+
+    def "submit should keep the order of the modifications having the same key, and limit the parallelism"() {
+        given:
+        def executor = new MutationExecutor(3)
+        def performed = new ConcurrentHashMap<String, List<Integer>>()
+        def running = new AtomicInteger()
+        def maxRunning = new AtomicInteger()
+
+        when:
+        (1..10).each { i ->
+            (1..5).each { k ->
+                def key = "group:g" + k
+                executor.submit(key, {
+                    maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max)
+                    Thread.sleep(2)
+                    performed.computeIfAbsent(key, { new CopyOnWriteArrayList<Integer>() }).add(i)
+                    running.decrementAndGet()
+                })
+            }
+        }
+        executor.await()
+
+        then:
+        performed.size() == 5
+        performed.values().every { it == (1..10).toList() }
+        maxRunning.get() <= 3
+    }
+
+    def "await should report the failures, once all modifications have been performed"() {
+        given:
+        def executor = new MutationExecutor(2)
+        def done = new CopyOnWriteArrayList()
+
+        when:
+        executor.submit("user:1", { throw new IllegalStateException("boom") })
+        executor.submit("user:1", { done << "after failure" })
+        executor.submit("user:2", { done << "other user" })
+        executor.await()
+
+        then:
+        def e = thrown(GitSyncException)
+        e.cause instanceof IllegalStateException
+        done as Set == ["after failure", "other user"] as Set
+    }
+
+    def "await should report the failures in the same way when the parallelism is 1"() {
+        given:
+        def executor = new MutationExecutor(1)
+        def done = []
+
+        when:
+        executor.submit("user:1", { throw new IllegalStateException("boom") })
+        executor.submit("user:2", { done << "other user" })
+
+        then:
+        notThrown(IllegalStateException)
+        done == ["other user"]
+
+        when:
+        executor.await()
+
+        then:
+        def e = thrown(GitSyncException)
+        e.cause instanceof IllegalStateException
+    }
+
+    def "close should let the modifications in progress complete"() {
+        given:
+        def executor = new MutationExecutor(2)
+        def done = new CopyOnWriteArrayList()
+
+        when:
+        (1..4).each { i -> executor.submit("group:g" + i, { Thread.sleep(5); done << i }) }
+        executor.close()
+
+        then:
+        done as Set == (1..4) as Set
+    }
+
+}
@@ -0,0 +1,105 @@
+/*
+ * gitsync
+ *
+ * Copyright (C) 2017-2019 République et canton de Genève
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.ge.cti_composant.gitsync.util.gitlab
+
+import spock.lang.Specification
+
+import java.util.concurrent.TimeUnit
+
+/**
+ * Tests class {@link RateLimiter}.
+ */
+class RateLimiterSpec extends Specification {
+
+    long now = 0
+    List<Long> sleeps = []
+
+    RateLimiter newLimiter(double maxRate) {
+        new RateLimiter(maxRate, { now }, { long nanos -> sleeps << nanos; now += nanos })
+    }
+
+    def "acquire should not wait while the bucket holds tokens, then wait for the next token"() {
+        given:
+        def limiter = newLimiter(10)
+
+        when:
+        10.times { limiter.acquire() }
+
+        then:
+        sleeps.isEmpty()
+
+        when:
+        limiter.acquire()
+
+        then:
+        sleeps == [TimeUnit.MILLISECONDS.toNanos(100)]
+        limiter.throttledTime.toMillis() == 100
+    }
+
+    def "onFailure with HTTP 429 should pause the calls for the time requested by GitLab and halve the rate"() {
+        given:
+        def limiter = newLimiter(10)
+
+        when:
+        limiter.onFailure(429, ["retry-after": ["3"]])
+        limiter.acquire()
+
+        then:
+        sleeps.size() == 1
+        sleeps[0] >= TimeUnit.SECONDS.toNanos(3)
+        limiter.rate == 5
+    }
+
+    def "onSuccess should raise the rate up to the maximum rate"() {
+        given:
+        def limiter = newLimiter(10)
+        limiter.onFailure(429, null)
+
+        when:
+        100.times { limiter.onSuccess() }
+
+        then:
+        limiter.rate == 10
+    }
+
+    def "onFailure should spread the remaining calls over the current window"() {
+        given:
+        def limiter = newLimiter(10)
+        def reset = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()) + 10
+
+        when:
+        limiter.onFailure(500, ["RateLimit-Remaining": ["20"], "RateLimit-Reset": [String.valueOf(reset)]])
+
+        then:
+        limiter.rate > 1.5
+        limiter.rate <= 2.3
+    }
+
+    def "acquire should never wait when there is no limit and no pause"() {
+        given:
+        def limiter = newLimiter(0)
+
+        when:
+        1000.times { limiter.acquire() }
+
+        then:
+        sleeps.isEmpty()
+    }
+
+}
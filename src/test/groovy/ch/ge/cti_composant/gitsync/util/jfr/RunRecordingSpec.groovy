@@ -0,0 +1,91 @@
+/*
+ * gitsync
+ *
+ * Copyright (C) 2017-2019 République et canton de Genève
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.ge.cti_composant.gitsync.util.jfr
+
+import ch.ge.cti_composant.gitsync.util.metrics.Metrics
+import jdk.jfr.consumer.RecordingFile
+import spock.lang.Specification
+import spock.lang.TempDir
+
+import java.nio.file.Files
+import java.nio.file.Path
+
+/**
+ * Tests class {@link RunRecording} and the Flight Recorder events.
+ */
+class RunRecordingSpec extends Specification {
+
+    @TempDir
+    Path dir
+
+    def "nothing should be recorded if no file is supplied"() {
+        when:
+        def recording = RunRecording.start(" ", null)
+        recording.close()
+
+        then:
+        !recording.recording
+    }
+
+    def "a recording that cannot be started should not prevent the run"() {
+        when:
+        def recording = RunRecording.start(dir.resolve("run.jfr").toString(), "unknown-settings")
+        recording.close()
+
+        then:
+        !recording.recording
+        !Files.exists(dir.resolve("run.jfr"))
+    }
+
+    def "the events of the run should be written to the file"() {
+        given:
+        def file = dir.resolve("run.jfr")
+
+        when:
+        def recording = RunRecording.start(file.toString(), "default")
+        Metrics.runMission("RunRecordingSpecMission") {
+            def call = new GitlabCallEvent("addGroupMember", "GROUP1", "42", "MAINTAINER")
+            call.begin()
+            call.end(Metrics.getCurrentMission(), 1, true, 0)
+        }
+        def query = new LdapQueryEvent("GROUP1")
+        query.begin()
+        query.end(3, true)
+        recording.close()
+        def events = RecordingFile.readAllEvents(file).groupBy { it.eventType.name }
+
+        then:
+        recording.recording
+        events["gitsync.Mission"].any { it.getString("mission") == "RunRecordingSpecMission" && it.getBoolean("success") }
+
+        and:
+        def call = events["gitsync.GitlabCall"].find { it.getString("group") == "GROUP1" }
+        call.getString("endpoint") == "addGroupMember"
+        call.getString("user") == "42"
+        call.getString("accessLevel") == "MAINTAINER"
+        call.getString("mission") == "RunRecordingSpecMission"
+        call.getInt("attempt") == 1
+
+        and:
+        def ldapQuery = events["gitsync.LdapQuery"].find { it.getString("group") == "GROUP1" }
+        ldapQuery.getInt("userCount") == 3
+        ldapQuery.getBoolean("success")
+    }
+
+}
@@ -0,0 +1,51 @@
+/*
+ * gitsync
+ *
+ * Copyright (C) 2017-2019 République et canton de Genève
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.ge.cti_composant.gitsync.util.ldap
+
+import ch.ge.cti_composant.gitsync.data.DataProvider
+import spock.lang.Specification
+
+/**
+ * Tests the default methods of interface {@link LdapTreeBuilder}.
+ */
+class LdapTreeBuilderSpec extends Specification {
+
+    def builder = { DataProvider.setupLdapTree() } as LdapTreeBuilder
+
+    def "createTree should retain only the specified groups"() {
+        when:
+        def tree = builder.createTree(["Network", "Unknown"])
+
+        then:
+        tree.getGroups()*.name == ["Network"]
+        tree.getUsers("Network").keySet() == ["Marie", "Paul"] as Set
+    }
+
+    def "createTreeOfUser should retain all groups, with only the specified user"() {
+        when:
+        def tree = builder.createTreeOfUser("Jean")
+
+        then:
+        tree.getGroups()*.name == ["Dev", "Network"]
+        tree.getUsers("Dev").keySet() == ["Jean"] as Set
+        tree.getUsers("Network").isEmpty()
+        tree.getGroupsOfUser("Jean")*.name == ["Dev"]
+    }
+
+}
@@ -0,0 +1,88 @@
+/*
+ * gitsync
+ *
+ * Copyright (C) 2017-2019 République et canton de Genève
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.ge.cti_composant.gitsync.util.ldap
+
+import ch.ge.cti_composant.gitsync.data.DataProvider
+import spock.lang.Specification
+
+/**
+ * Tests class {@link LdapTreeSupport}.
+ */
+class LdapTreeSupportSpec extends Specification {
+
+    def ldapTree = DataProvider.setupLdapTree()
+
+    def "getGroups should always return the same sorted, read-only list"() {
+        when:
+        def groups = ldapTree.getGroups()
+
+        then:
+        groups.is(ldapTree.getGroups())
+        groups*.name == ["Dev", "Network"]
+        groups.contains(new LdapGroup("Network"))
+        !groups.contains(new LdapGroup("Dummy"))
+
+        when:
+        groups.add(new LdapGroup("Dummy"))
+
+        then:
+        thrown(UnsupportedOperationException)
+    }
+
+    def "getUsers should return a read-only map, empty for an unknown group"() {
+        when:
+        def users = ldapTree.getUsers("Dev")
+
+        then:
+        users.keySet() as List == ["Jean", "Marie", "Paul"]
+        ldapTree.getUsers("Dummy").isEmpty()
+        ldapTree.getUsers(new LdapGroup("Dummy")).isEmpty()
+        ldapTree.getUsers("").isEmpty()
+
+        when:
+        users.remove("Jean")
+
+        then:
+        thrown(UnsupportedOperationException)
+    }
+
+    def "getGroupsOfUser should return the groups of the user"() {
+        expect:
+        ldapTree.getGroupsOfUser(username)*.name == groupNames
+
+        where:
+        username | groupNames
+        "Jean"   | ["Dev"]
+        "Paul"   | ["Dev", "Network"]
+        "Dummy"  | []
+    }
+
+    def "the tree should not be affected by later modifications of the source map"() {
+        given:
+        def source = [(new LdapGroup("Dev")): ["Jean": new LdapUser(["cn": "Jean"])]]
+        def tree = new LdapTreeSupport(source)
+
+        when:
+        source.get(new LdapGroup("Dev")).put("Marie", new LdapUser(["cn": "Marie"]))
+
+        then:
+        tree.getUsers("Dev").keySet() == ["Jean"] as Set
+    }
+
+}
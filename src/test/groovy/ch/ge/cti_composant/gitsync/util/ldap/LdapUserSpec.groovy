@@ -116,4 +116,38 @@ class LdapUserSpec extends Specification {
         userA != "Jean Dupont"
     }
 
+    def "isLoginDisabled should be #expected when attribute \"loginDisabled\" is #value"() {
+        given:
+        def attributes = ["cn": "Jean Dupont"]
+        if (value != null) {
+            attributes.put("loginDisabled", value)
+        }
+
+        expect:
+        new LdapUser(attributes).isLoginDisabled() == expected
+
+        where:
+        value   | expected
+        "FALSE" | false
+        "false" | false
+        "TRUE"  | true
+        "other" | true
+        null    | true
+    }
+
+    def "the registry should return the same instance for the same user"() {
+        given:
+        def registry = new LdapUserRegistry()
+
+        when:
+        def user1 = registry.intern(["cn": "Jean Dupont", "loginDisabled": "FALSE"])
+        def user2 = registry.intern(["cn": "Jean Dupont", "loginDisabled": "FALSE"])
+        def user3 = registry.intern(["cn": "Marie Dupont"])
+
+        then:
+        user1.is(user2)
+        !user1.is(user3)
+        registry.size() == 2
+    }
+
 }
@@ -0,0 +1,104 @@
+/*
+ * gitsync
+ *
+ * Copyright (C) 2017-2019 République et canton de Genève
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.ge.cti_composant.gitsync.util.ldap.gina
+
+import gina.api.GinaApiLdapBaseAble
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Tests class {@link GinaLdapTreeBuilder}.
+ */
+@Unroll
+class GinaLdapTreeBuilderSpec extends Specification {
+
+    def "createTree should retrieve the users of the groups with at most #poolSize connections"() {
+        given:
+        def roles = (1..10).collect { "GROUP" + it }
+        def running = new AtomicInteger()
+        def maxRunning = new AtomicInteger()
+        def connections = []
+        def factory = {
+            def connection = Mock(GinaApiLdapBaseAble) {
+                getAppRoles(_) >> roles
+                getUsers(_, _, _) >> { String domain, String role, String[] attributes ->
+                    maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max)
+                    Thread.sleep(20)
+                    running.decrementAndGet()
+                    [["cn": "USER-" + role], ["cn": "SHARED", "loginDisabled": "FALSE"]]
+                }
+            }
+            connections << connection
+            connection
+        }
+
+        when:
+        def tree = new GinaLdapTreeBuilder().createTree(factory, poolSize, { true })
+
+        then:
+        connections.size() == poolSize
+        maxRunning.get() <= poolSize
+        tree.getGroups()*.name == roles.sort()
+        roles.every { tree.getUsers(it).keySet() == ["SHARED", "USER-" + it] as Set }
+        roles.collect { tree.getUsers(it).get("SHARED") }.toSet().size() == 1
+
+        where:
+        poolSize << [1, 3]
+    }
+
+    def "createTree should close all the connections"() {
+        given:
+        def opened = new AtomicInteger()
+        def closed = new AtomicInteger()
+        def factory = {
+            opened.incrementAndGet()
+            [getAppRoles: { String domain -> ["GROUP1", "GROUP2"] },
+             getUsers   : { String domain, String role, String[] attributes -> [] },
+             close      : { closed.incrementAndGet() }] as GinaApiLdapBaseAble
+        }
+
+        when:
+        new GinaLdapTreeBuilder().createTree(factory, 4, { true })
+
+        then:
+        opened.get() == 2
+        closed.get() == 2
+    }
+
+    def "createTree should retrieve only the users of the selected groups"() {
+        given:
+        def queried = [].asSynchronized()
+        def factory = {
+            [getAppRoles: { String domain -> ["GROUP1", "GROUP2", "GROUP3"] },
+             getUsers   : { String domain, String role, String[] attributes -> queried << role; [["cn": "USER-" + role]] },
+             close      : { }] as GinaApiLdapBaseAble
+        }
+
+        when:
+        def tree = new GinaLdapTreeBuilder().createTree(factory, 4, { it != "GROUP2" })
+
+        then:
+        queried.sort() == ["GROUP1", "GROUP3"]
+        tree.getGroups()*.name == ["GROUP1", "GROUP3"]
+        tree.getUsers("GROUP3").keySet() == ["USER-GROUP3"] as Set
+    }
+
+}
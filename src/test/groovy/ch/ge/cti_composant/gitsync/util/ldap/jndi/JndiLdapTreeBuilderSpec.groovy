@@ -0,0 +1,230 @@
+/*
+ * gitsync
+ *
+ * Copyright (C) 2017-2019 République et canton de Genève
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.ge.cti_composant.gitsync.util.ldap.jndi
+
+import ch.ge.cti_composant.gitsync.missions.CleanGroupsFromUnauthorizedUsers
+import ch.ge.cti_composant.gitsync.service.GitlabService
+import ch.ge.cti_composant.gitsync.util.gitlab.GitlabAPIWrapper
+import org.gitlab4j.api.models.AccessLevel
+import org.gitlab4j.api.models.Group
+import org.gitlab4j.api.models.Member
+import org.gitlab4j.api.models.User
+
+import javax.naming.Context
+import javax.naming.NamingEnumeration
+import javax.naming.directory.BasicAttribute
+import javax.naming.directory.BasicAttributes
+import javax.naming.directory.SearchResult
+import javax.naming.ldap.Control
+import javax.naming.ldap.LdapContext
+import javax.naming.ldap.PagedResultsControl
+import javax.naming.ldap.PagedResultsResponseControl
+import javax.naming.spi.InitialContextFactory
+import spock.lang.Specification
+import spock.lang.Unroll
+
+/**
+ * Tests class {@link JndiLdapTreeBuilder}.
+ * The LDAP server is replaced with an in-memory JNDI context, returning the search results page by page.
+ */
+@Unroll
+class JndiLdapTreeBuilderSpec extends Specification {
+
+    def "createTree should build the tree from all the pages of the search"() {
+        given:
+        def requestControls = []
+        InMemoryContextFactory.context = context([
+                "ou=users,o=org" : [
+                        [user("JEAN", ["cn=DEV,ou=groups,o=org", "cn=OPS,ou=groups,o=org"], "FALSE"),
+                         user("MARIE", ["cn=DEV,ou=groups,o=org"], "TRUE")],
+                        [user("PAUL", ["cn=OPS,ou=groups,o=org"], null),
+                         user("NOBODY", null, null)]],
+                "ou=groups,o=org": [
+                        [group("cn=DEV,ou=groups,o=org"), group("cn=OPS,ou=groups,o=org")]]
+        ], requestControls)
+
+        when:
+        def tree = new JndiLdapTreeBuilder().createTree(configuration())
+
+        then:
+        requestControls.size() == 3
+        requestControls.every { it instanceof PagedResultsControl }
+        tree.getGroups()*.name == ["DEV", "OPS"]
+        tree.getUsers("DEV").keySet() == ["JEAN", "MARIE"] as Set
+        tree.getUsers("OPS").keySet() == ["JEAN", "PAUL"] as Set
+        tree.getUsers("DEV").get("JEAN").is(tree.getUsers("OPS").get("JEAN"))
+        !tree.getUsers("DEV").get("JEAN").isLoginDisabled()
+        tree.getUsers("DEV").get("MARIE").isLoginDisabled()
+        !tree.getUsers("OPS").get("PAUL").isLoginDisabled()
+    }
+
+    def "createTree should keep the groups without users, so that their GitLab members are removed"() {
+        given:
+        InMemoryContextFactory.context = context([
+                "ou=users,o=org" : [
+                        [user("JEAN", ["cn=DEV,ou=groups,o=org"], null)]],
+                "ou=groups,o=org": [
+                        [group("cn=DEV,ou=groups,o=org"), group("cn=EMPTIED,ou=groups,o=org")]]
+        ], [])
+        def emptied = new Group().withId(2L).withName("EMPTIED").withPath("EMPTIED")
+        def api = Mock(GitlabAPIWrapper) {
+            getGroups() >> [new Group().withId(1L).withName("DEV").withPath("DEV"), emptied]
+            getUsers() >> [new User().withId(10L).withUsername("MARIE")]
+            getGroupMembers(_) >> [new Member().withId(10L).withUsername("MARIE").withAccessLevel(AccessLevel.MAINTAINER)]
+        }
+
+        when:
+        def tree = new JndiLdapTreeBuilder().createTree(configuration())
+        def gitlab = new GitlabService(api).buildGitlabContext(tree)
+        new CleanGroupsFromUnauthorizedUsers().start(tree, gitlab)
+
+        then:
+        tree.getGroups()*.name == ["DEV", "EMPTIED"]
+        tree.getUsers("EMPTIED").isEmpty()
+        gitlab.getGroups()*.name.contains("EMPTIED")
+        1 * api.deleteGroupMember(emptied, 10L)
+    }
+
+    def "createTreeOfUser should search only the specified user, and keep all groups"() {
+        given:
+        def filters = []
+        InMemoryContextFactory.context = context([
+                "ou=users,o=org" : [
+                        [user("JEAN", ["cn=DEV,ou=groups,o=org"], null)]],
+                "ou=groups,o=org": [
+                        [group("cn=DEV,ou=groups,o=org"), group("cn=OPS,ou=groups,o=org")]]
+        ], [], filters)
+
+        when:
+        def tree = new JndiLdapTreeBuilder().createTreeOfUser("JEAN", configuration())
+
+        then:
+        filters == ["(&(objectClass=person)(cn=JEAN))", "(objectClass=groupOfNames)"]
+        tree.getGroups()*.name == ["DEV", "OPS"]
+        tree.getUsers("DEV").keySet() == ["JEAN"] as Set
+        tree.getUsers("OPS").isEmpty()
+    }
+
+    def "escapeFilterValue should return #expected for [#value]"() {
+        expect:
+        JndiLdapTreeBuilder.escapeFilterValue(value) == expected
+
+        where:
+        value    | expected
+        "JEAN"   | "JEAN"
+        "J*(E)"  | "J\\2a\\28E\\29"
+        "J\\EAN" | "J\\5cEAN"
+    }
+
+    def "getGroupName should return #expected for DN [#dn]"() {
+        expect:
+        JndiLdapTreeBuilder.getGroupName(dn) == expected
+
+        where:
+        dn                          | expected
+        "cn=DEV,ou=groups,o=org"    | "DEV"
+        "cn=DEV\\,OPS,o=org"        | "DEV,OPS"
+        "DEV"                       | null
+    }
+
+    private static JndiLdapTreeBuilder.Configuration configuration() {
+        new JndiLdapTreeBuilder.Configuration("ldap://localhost", null, null, "ou=users,o=org",
+                "(objectClass=person)", "ou=groups,o=org", "(objectClass=groupOfNames)", "cn", "memberOf",
+                "loginDisabled", 2, 1000, 1000, InMemoryContextFactory.name)
+    }
+
+    /**
+     * Returns a context that answers each search with the pages supplied for its base DN.
+     */
+    private LdapContext context(Map<String, List<List<SearchResult>>> pagesByBaseDn, List<Control> requestControls,
+                                List<String> filters = []) {
+        List<List<SearchResult>> pages = null
+        def pageIndex = 0
+        Stub(LdapContext) {
+            setRequestControls(_) >> { Control[] controls ->
+                requestControls << controls[0]
+            }
+            search(_ as String, _ as String, _) >> { String baseDn, String filter, controls ->
+                filters << filter
+                if (pages != pagesByBaseDn[baseDn]) {
+                    pages = pagesByBaseDn[baseDn]
+                    pageIndex = 0
+                }
+                enumeration(pages[pageIndex])
+            }
+            getResponseControls() >> {
+                pageIndex++
+                [responseControl(pageIndex < pages.size() ? "page" + pageIndex : "")] as Control[]
+            }
+        }
+    }
+
+    private static SearchResult group(String dn) {
+        def result = new SearchResult(dn, null, new BasicAttributes(true), false)
+        result.setNameInNamespace(dn)
+        result
+    }
+
+    private static SearchResult user(String name, List<String> groups, String loginDisabled) {
+        def attributes = new BasicAttributes(true)
+        attributes.put("cn", name)
+        if (groups != null) {
+            def memberOf = new BasicAttribute("memberOf")
+            groups.each { memberOf.add(it) }
+            attributes.put(memberOf)
+        }
+        if (loginDisabled != null) {
+            attributes.put("loginDisabled", loginDisabled)
+        }
+        new SearchResult("cn=" + name, null, attributes)
+    }
+
+    private static NamingEnumeration<SearchResult> enumeration(List<SearchResult> results) {
+        def iterator = results.iterator()
+        [hasMore        : { iterator.hasNext() },
+         hasMoreElements: { iterator.hasNext() },
+         next           : { iterator.next() },
+         nextElement    : { iterator.next() },
+         close          : { }] as NamingEnumeration<SearchResult>
+    }
+
+    /**
+     * Builds the BER encoding of the response control: SEQUENCE { INTEGER size, OCTET STRING cookie }.
+     */
+    private static PagedResultsResponseControl responseControl(String cookie) {
+        byte[] cookieBytes = cookie.bytes
+        def value = [0x30, 5 + cookieBytes.length, 0x02, 0x01, 0x00, 0x04, cookieBytes.length] + (cookieBytes as List)
+        new PagedResultsResponseControl(PagedResultsResponseControl.OID, false, value as byte[])
+    }
+
+    /**
+     * JNDI factory returning the in-memory context.
+     */
+    static class InMemoryContextFactory implements InitialContextFactory {
+
+        static LdapContext context
+
+        @Override
+        Context getInitialContext(Hashtable<?, ?> environment) {
+            context
+        }
+
+    }
+
+}
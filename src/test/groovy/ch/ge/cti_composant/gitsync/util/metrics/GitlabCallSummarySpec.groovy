@@ -0,0 +1,57 @@
+/*
+ * gitsync
+ *
+ * Copyright (C) 2017-2019 République et canton de Genève
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.ge.cti_composant.gitsync.util.metrics
+
+import spock.lang.Specification
+
+import java.time.Duration
+
+/**
+ * Tests class {@link GitlabCallSummary}.
+ */
+class GitlabCallSummarySpec extends Specification {
+
+    def "the summary should contain one line per endpoint, the slowest first"() {
+        given:
+        Metrics.startRun()
+        Metrics.recordGitlabCall("getUsers", true, Duration.ofMillis(100))
+        (1..10).each { Metrics.recordGitlabCall("getGroupMembers", true, Duration.ofMillis(50)) }
+        Metrics.recordGitlabCall("getGroupMembers", false, Duration.ofMillis(500))
+        Metrics.recordGitlabRetry("getGroupMembers")
+
+        when:
+        def lines = GitlabCallSummary.format(Metrics.getRunRegistry())
+
+        then:
+        lines.size() == 3
+        lines[0].split(/\s+/) as List == ["Endpoint", "Calls", "Failures", "Retries", "p50", "ms", "p95", "ms", "p99", "ms", "max", "ms", "total", "ms"]
+        // the median is the upper bound of the fine bucket of 50 ms
+        lines[1].split(/\s+/) as List == ["getGroupMembers", "11", "1", "1", "57", "500", "500", "500", "1000"]
+        lines[2].split(/\s+/) as List == ["getUsers", "1", "0", "0", "100", "100", "100", "100", "100"]
+    }
+
+    def "the summary of a run without call should be empty"() {
+        given:
+        Metrics.startRun()
+
+        expect:
+        GitlabCallSummary.format(Metrics.getRunRegistry()).isEmpty()
+    }
+
+}
@@ -0,0 +1,65 @@
+/*
+ * gitsync
+ *
+ * Copyright (C) 2017-2019 République et canton de Genève
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.ge.cti_composant.gitsync.util.metrics
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.time.Duration
+
+/**
+ * Tests class {@link Histogram}.
+ */
+@Unroll
+class HistogramSpec extends Specification {
+
+    def "the fine bucket of #micros microseconds should have an upper bound at most 25% above"() {
+        given:
+        def upperBound = Histogram.getFineBucketUpperBound(Histogram.getFineBucket(micros))
+
+        expect:
+        upperBound > micros
+        upperBound <= micros * 1.25 + 1
+        micros == 0 || Histogram.getFineBucket(micros) >= Histogram.getFineBucket(micros - 1)
+
+        where:
+        micros << [0, 1, 3, 4, 7, 8, 9, 100, 1_000, 123_456, 60_000_000]
+    }
+
+    def "the percentiles should be estimated within 25%"() {
+        given:
+        def histogram = new Histogram()
+        (1..1000).each { histogram.observe(Duration.ofMillis(it)) }
+
+        expect:
+        histogram.getCount() == 1000
+        histogram.getMax() == 1.0d
+        Math.abs(histogram.getPercentile(50) - 0.5) <= 0.5 * 0.25
+        Math.abs(histogram.getPercentile(95) - 0.95) <= 0.95 * 0.25
+        histogram.getPercentile(99) <= 1.0d
+        histogram.getPercentile(100) == 1.0d
+    }
+
+    def "the percentiles of an empty histogram should be 0"() {
+        expect:
+        new Histogram().getPercentile(99) == 0
+        new Histogram().getMax() == 0
+    }
+
+}
@@ -0,0 +1,119 @@
+/*
+ * gitsync
+ *
+ * Copyright (C) 2017-2019 République et canton de Genève
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.ge.cti_composant.gitsync.util.metrics
+
+import ch.ge.cti_composant.gitsync.util.exception.GitSyncException
+import spock.lang.Specification
+import spock.lang.TempDir
+
+import java.nio.file.Path
+import java.time.Duration
+
+/**
+ * Tests class {@link MetricsRegistry}.
+ */
+class MetricsRegistrySpec extends Specification {
+
+    @TempDir
+    Path directory
+
+    def registry = new MetricsRegistry()
+
+    def "the same metric should be returned for the same name and labels"() {
+        expect:
+        registry.counter("calls_total", "Calls", "endpoint", "a").is(registry.counter("calls_total", "Calls", "endpoint", "a"))
+        !registry.counter("calls_total", "Calls", "endpoint", "a").is(registry.counter("calls_total", "Calls", "endpoint", "b"))
+    }
+
+    def "a name should not be used for two types of metrics"() {
+        given:
+        registry.counter("calls_total", "Calls")
+
+        when:
+        registry.gauge("calls_total", "Calls")
+
+        then:
+        thrown(GitSyncException)
+    }
+
+    def "counters and gauges should be written in the Prometheus text format"() {
+        given:
+        registry.counter("calls_total", "Calls", "endpoint", "getUsers", "outcome", "success").add(2)
+        registry.counter("calls_total", "Calls", "endpoint", "getGroups", "outcome", "success").increment()
+        registry.gauge("users", "Users").set(1.5)
+        registry.counter("quoted_total", "Quoted \\ help", "name", 'a"b\\c').increment()
+
+        expect:
+        registry.scrape() == """\
+# HELP calls_total Calls
+# TYPE calls_total counter
+calls_total{endpoint="getGroups",outcome="success"} 1
+calls_total{endpoint="getUsers",outcome="success"} 2
+# HELP quoted_total Quoted \\\\ help
+# TYPE quoted_total counter
+quoted_total{name="a\\"b\\\\c"} 1
+# HELP users Users
+# TYPE users gauge
+users 1.5
+"""
+    }
+
+    def "a histogram should count the observations in cumulative buckets"() {
+        given:
+        def histogram = registry.histogram("duration_seconds", "Duration", "phase", "ldap")
+        histogram.observe(Duration.ofMillis(3))
+        histogram.observe(Duration.ofMillis(40))
+        histogram.observe(Duration.ofMinutes(10))
+
+        when:
+        def lines = registry.scrape().readLines()
+
+        then:
+        histogram.getCount() == 3
+        lines.contains('duration_seconds_bucket{phase="ldap",le="0.005"} 1')
+        lines.contains('duration_seconds_bucket{phase="ldap",le="0.05"} 2')
+        lines.contains('duration_seconds_bucket{phase="ldap",le="300.0"} 2')
+        lines.contains('duration_seconds_bucket{phase="ldap",le="+Inf"} 3')
+        lines.contains('duration_seconds_count{phase="ldap"} 3')
+        lines.contains('duration_seconds_sum{phase="ldap"} 600.043')
+    }
+
+    def "a counter should not decrease"() {
+        when:
+        registry.counter("calls_total", "Calls").add(-1)
+
+        then:
+        thrown(IllegalArgumentException)
+    }
+
+    def "write should replace the file"() {
+        given:
+        def file = directory.resolve("gitsync.prom")
+        file.toFile().text = "old"
+        registry.gauge("users", "Users").set(3)
+
+        when:
+        registry.write(file)
+
+        then:
+        file.toFile().text == registry.scrape()
+        directory.toFile().list() as List == ["gitsync.prom"]
+    }
+
+}
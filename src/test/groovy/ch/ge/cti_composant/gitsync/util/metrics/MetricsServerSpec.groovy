@@ -0,0 +1,72 @@
+/*
+ * gitsync
+ *
+ * Copyright (C) 2017-2019 République et canton de Genève
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.ge.cti_composant.gitsync.util.metrics
+
+import spock.lang.Specification
+
+import java.net.http.HttpClient
+import java.net.http.HttpRequest
+import java.net.http.HttpResponse
+
+/**
+ * Tests class {@link MetricsServer}.
+ */
+class MetricsServerSpec extends Specification {
+
+    def registry = new MetricsRegistry()
+
+    def server = new MetricsServer(0, registry)
+
+    def client = HttpClient.newHttpClient()
+
+    def setup() {
+        server.start()
+    }
+
+    def cleanup() {
+        server.stop()
+    }
+
+    def "GET should return the metrics"() {
+        given:
+        registry.counter("calls_total", "Calls").increment()
+
+        when:
+        def response = client.send(request().GET().build(), HttpResponse.BodyHandlers.ofString())
+
+        then:
+        response.statusCode() == 200
+        response.headers().firstValue("Content-Type").get().startsWith("text/plain")
+        response.body() == registry.scrape()
+    }
+
+    def "POST should be rejected"() {
+        when:
+        def response = client.send(request().POST(HttpRequest.BodyPublishers.ofString("")).build(),
+                HttpResponse.BodyHandlers.ofString())
+
+        then:
+        response.statusCode() == 405
+    }
+
+    private HttpRequest.Builder request() {
+        HttpRequest.newBuilder(URI.create("http://localhost:" + server.getPort() + MetricsServer.PATH))
+    }
+
+}
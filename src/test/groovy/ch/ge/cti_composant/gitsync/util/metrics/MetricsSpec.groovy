@@ -0,0 +1,78 @@
+/*
+ * gitsync
+ *
+ * Copyright (C) 2017-2019 République et canton de Genève
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.ge.cti_composant.gitsync.util.metrics
+
+import ch.ge.cti_composant.gitsync.util.LogContext
+import spock.lang.Specification
+
+/**
+ * Tests class {@link Metrics}.
+ */
+class MetricsSpec extends Specification {
+
+    def "the modifications should be counted for the mission running on the current thread"() {
+        given:
+        def writes = { String mission ->
+            MetricsRegistry.getDefault().counter("gitsync_gitlab_writes_total", "",
+                    "mission", mission, "operation", "blockUser").get()
+        }
+        def outerBefore = writes("MetricsSpecOuter")
+        def innerBefore = writes("MetricsSpecInner")
+
+        when:
+        Metrics.runMission("MetricsSpecOuter") {
+            Metrics.recordGitlabWrite("blockUser")
+            Metrics.runMission("MetricsSpecInner") {
+                Metrics.recordGitlabWrite("blockUser")
+                Metrics.recordGitlabWrite("blockUser")
+            }
+            Metrics.recordGitlabWrite("blockUser")
+        }
+
+        then:
+        writes("MetricsSpecOuter") - outerBefore == 2
+        writes("MetricsSpecInner") - innerBefore == 2
+        Metrics.getCurrentMission() == Metrics.NO_MISSION
+    }
+
+    def "the current mission should be restored if the mission fails"() {
+        when:
+        Metrics.runMission("MetricsSpecFailing") { throw new IllegalStateException() }
+
+        then:
+        thrown(IllegalStateException)
+        Metrics.getCurrentMission() == Metrics.NO_MISSION
+        MetricsRegistry.getDefault().scrape().contains('gitsync_mission_seconds_total{mission="MetricsSpecFailing"}')
+    }
+
+    def "the mission should be known by the tasks run on other threads"() {
+        given:
+        def missions = []
+
+        when:
+        Metrics.runMission("MetricsSpecPropagated") {
+            def task = LogContext.wrap({ missions << Metrics.getCurrentMission() } as Runnable)
+            Thread.ofVirtual().start(task).join()
+        }
+
+        then:
+        missions == ["MetricsSpecPropagated"]
+    }
+
+}
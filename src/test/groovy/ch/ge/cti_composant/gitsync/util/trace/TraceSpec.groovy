@@ -0,0 +1,127 @@
+/*
+ * gitsync
+ *
+ * Copyright (C) 2017-2019 République et canton de Genève
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.ge.cti_composant.gitsync.util.trace
+
+import ch.ge.cti_composant.gitsync.util.exception.GitSyncException
+import ch.ge.cti_composant.gitsync.util.metrics.Metrics
+import com.fasterxml.jackson.databind.ObjectMapper
+import spock.lang.Specification
+import spock.lang.TempDir
+
+import java.nio.file.Files
+import java.nio.file.Path
+
+/**
+ * Tests classes {@link Trace} and {@link TraceRecorder}.
+ */
+class TraceSpec extends Specification {
+
+    @TempDir
+    Path dir
+
+    def cleanup() {
+        Trace.stop(dir.resolve("cleanup.json"))
+    }
+
+    def "nothing should be recorded if no trace is started"() {
+        given:
+        def ran = false
+
+        when:
+        Trace.run("mission", Trace.MISSION) { ran = true }
+        Trace.record("call", Trace.GITLAB_CALL, System.nanoTime())
+        Trace.stop(dir.resolve("trace.json"))
+
+        then:
+        ran
+        !Trace.recording
+        !Files.exists(dir.resolve("trace.json"))
+    }
+
+    def "the nested spans should be written in the Chrome Trace Event format"() {
+        given:
+        def file = dir.resolve("trace.json")
+
+        when:
+        Trace.start()
+        def runStart = System.nanoTime()
+        Metrics.runMission("TraceSpecMission") {
+            Trace.run("GROUP1", Trace.GROUP) {
+                Trace.record("addGroupMember", Trace.GITLAB_CALL, System.nanoTime(), "group", "GROUP1", "user", null)
+            }
+        }
+        Trace.record("run", Trace.RUN, runStart)
+        Trace.stop(file)
+        def json = new ObjectMapper().readValue(file.toFile(), Map)
+        def spans = json.traceEvents.findAll { it.ph == "X" }.collectEntries { [it.cat, it] }
+
+        then:
+        !Trace.recording
+        spans.keySet() == [Trace.GITLAB_CALL, Trace.GROUP, Trace.MISSION, Trace.RUN] as Set
+        spans[Trace.MISSION].name == "TraceSpecMission"
+        spans[Trace.GITLAB_CALL].args == [group: "GROUP1"]
+
+        and: "each span contains the spans it encloses"
+        def enclosing = [Trace.RUN, Trace.MISSION, Trace.GROUP, Trace.GITLAB_CALL]
+        (0..2).every { i ->
+            def outer = spans[enclosing[i]]
+            def inner = spans[enclosing[i + 1]]
+            outer.ts <= inner.ts && inner.ts + inner.dur <= outer.ts + outer.dur
+        }
+        spans.values()*.tid.unique().size() == 1
+
+        and: "the thread is named"
+        json.traceEvents.find { it.ph == "M" && it.tid == spans[Trace.RUN].tid }.args.name == Thread.currentThread().name
+    }
+
+    def "a span should be recorded even if the task fails"() {
+        when:
+        Trace.start()
+        Trace.run("failing", Trace.MISSION) { throw new IllegalStateException() }
+
+        then:
+        thrown(IllegalStateException)
+        Trace.recording
+    }
+
+    def "the details of a span should be pairs of name and value"() {
+        when:
+        new TraceRecorder().add("call", Trace.GITLAB_CALL, 0, 1, "group")
+
+        then:
+        thrown(GitSyncException)
+    }
+
+    def "the spans of several threads should be kept apart"() {
+        given:
+        def recorder = new TraceRecorder()
+        def start = System.nanoTime()
+
+        when:
+        def threads = (1..3).collect { i ->
+            Thread.ofVirtual().start { recorder.add("call" + i, Trace.GITLAB_CALL, start, System.nanoTime()) }
+        }
+        threads*.join()
+
+        then:
+        recorder.events.size() == 3
+        recorder.events*.threadId().unique().size() == 3
+    }
+
+}